@@ -0,0 +1,66 @@
+package lms.bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+// BorrowQueue enqueue/dequeue throughput: one thread alternating offer and poll on a half-full queue,
+// and two producers racing two consumers on a shared queue (offer on a full queue and poll on an empty
+// one fail fast and still count as operations, as in the menu).
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BorrowQueueBenchmark {
+
+    @State(Scope.Group)
+    public static class Queue {
+        @Param({"100", "4096"})
+        int capacity;
+
+        Object queue;
+        Object request;
+
+        @Setup(Level.Iteration)
+        public void fill() {
+            queue = Lms.newQueue(capacity);
+            request = Lms.newRequest("bench-user", 0);
+            for (int i = 0; i < capacity / 2; i++) Lms.offer(queue, request);
+        }
+    }
+
+    @Benchmark
+    @Group("single")
+    public Object offerPoll(Queue state) {
+        Lms.offer(state.queue, state.request);
+        return Lms.poll(state.queue);
+    }
+
+    @Benchmark
+    @Group("mpmc")
+    @GroupThreads(2)
+    public boolean offer(Queue state) {
+        return Lms.offer(state.queue, state.request);
+    }
+
+    @Benchmark
+    @Group("mpmc")
+    @GroupThreads(2)
+    public Object poll(Queue state) {
+        return Lms.poll(state.queue);
+    }
+}
@@ -0,0 +1,66 @@
+package lms.bench;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+// BookInventory lookups: containsIsbn and hasTitle (the catalog's "contains title" check)
+// on inventories of 1k, 100k and 1M books built by inserting ISBNs in random or sorted order.
+// Probes cycle through a fixed random sample, half hits and half misses.
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class InventoryLookupBenchmark {
+    private static final int PROBES = 1 << 14; // Power of two, so the next probe is a mask away
+
+    @Param({"1000", "100000", "1000000"})
+    int size;
+
+    @Param({"random", "sorted"})
+    String order;
+
+    private Object inventory;
+    private final String[] isbnProbes = new String[PROBES];
+    private final String[] titleProbes = new String[PROBES];
+    private int next;
+
+    @Setup(Level.Trial)
+    public void build() {
+        inventory = Lms.newInventory();
+        String[] isbns = Isbns.population(size, order);
+        for (int i = 0; i < size; i++) Lms.insert(inventory, Lms.newBook(isbns[i], Isbns.title(i, size), "Author " + i % 1000));
+
+        Random random = new Random(Isbns.SEED);
+        for (int i = 0; i < PROBES; i++) {
+            boolean hit = (i & 1) == 0;
+            long n = random.nextInt(size);
+            isbnProbes[i] = Isbns.isbn(hit ? 2 * n : 2 * n + 1);
+            titleProbes[i] = hit ? Isbns.title((int) n, size) : "Missing " + n;
+        }
+    }
+
+    @Benchmark
+    public boolean containsIsbn() {
+        return Lms.containsIsbn(inventory, isbnProbes[next++ & (PROBES - 1)]);
+    }
+
+    @Benchmark
+    public boolean hasTitle() {
+        return Lms.hasTitle(inventory, titleProbes[next++ & (PROBES - 1)]);
+    }
+}
@@ -0,0 +1,106 @@
+package lms.bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+// BookInventory insert and delete on inventories of 1k, 100k and 1M books, with ISBNs arriving in
+// random or sorted order. Inserts and deletes change the tree, so each measured iteration is one batch
+// of BATCH calls (single-shot mode) and the tree is put back to its starting size between iterations.
+// Scores are per batch: divide by BATCH for the time (and gc.alloc.rate.norm bytes) of one operation.
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 100, batchSize = InventoryUpdateBenchmark.BATCH)
+@Measurement(iterations = 100, batchSize = InventoryUpdateBenchmark.BATCH)
+@Fork(1)
+public class InventoryUpdateBenchmark {
+    // Operations per measured batch (at most half of the smallest inventory, so deletes never empty it)
+    static final int BATCH = 500;
+
+    // An inventory of size books plus the books one batch inserts or deletes
+    @State(Scope.Thread)
+    public abstract static class Inventory {
+        @Param({"1000", "100000", "1000000"})
+        int size;
+
+        @Param({"random", "sorted"})
+        String order;
+
+        Object inventory;
+        String[] isbns;  // ISBNs of one batch, in the order the batch handles them
+        Object[] batch;  // batch[i] is the book with ISBN isbns[i]
+        int next;
+
+        @Setup(Level.Trial)
+        public void build() {
+            inventory = Lms.newInventory();
+            String[] population = Isbns.population(size, order);
+            for (int i = 0; i < size; i++) Lms.insert(inventory, book(population[i], i));
+            isbns = batchIsbns(population);
+            batch = new Object[BATCH];
+            for (int i = 0; i < BATCH; i++) batch[i] = book(isbns[i], i);
+        }
+
+        @Setup(Level.Iteration)
+        public void rewind() {
+            next = 0;
+        }
+
+        Object book(String isbn, int i) {
+            return Lms.newBook(isbn, Isbns.title(i, size), "Author " + i % 1000);
+        }
+
+        // ISBNs handled by one batch
+        abstract String[] batchIsbns(String[] population);
+    }
+
+    // Inserts BATCH new books per iteration, then removes them again
+    @State(Scope.Thread)
+    public static class InsertState extends Inventory {
+        @Override
+        String[] batchIsbns(String[] population) {
+            return Isbns.fresh(size, BATCH, order);
+        }
+
+        @TearDown(Level.Iteration)
+        public void removeBatch() {
+            for (String isbn : isbns) Lms.delete(inventory, isbn);
+        }
+    }
+
+    // Deletes BATCH existing books per iteration, then puts them back
+    @State(Scope.Thread)
+    public static class DeleteState extends Inventory {
+        @Override
+        String[] batchIsbns(String[] population) {
+            return Isbns.sample(population, BATCH, order);
+        }
+
+        @TearDown(Level.Iteration)
+        public void restoreBatch() {
+            for (Object book : batch) Lms.insert(inventory, book);
+        }
+    }
+
+    @Benchmark
+    public boolean insert(InsertState state) {
+        return Lms.insert(state.inventory, state.batch[state.next++]);
+    }
+
+    @Benchmark
+    public boolean delete(DeleteState state) {
+        return Lms.delete(state.inventory, state.isbns[state.next++]);
+    }
+}
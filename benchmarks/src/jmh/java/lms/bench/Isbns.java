@@ -0,0 +1,73 @@
+package lms.bench;
+
+import java.util.Random;
+
+// This Isbns class generates the ISBN sets used by the inventory benchmarks.
+// Books in the starting inventory get the even numbers 0, 2, 4, ... and fresh books the odd numbers,
+// so fresh ISBNs are never present yet and land all over the tree rather than only at its right edge.
+final class Isbns {
+    // Fixed seed: every fork and every run measures the same keys
+    static final long SEED = 42;
+
+    private Isbns() {
+    }
+
+    // 13-digit ISBN for a number
+    static String isbn(long n) {
+        String digits = Long.toString(n);
+        StringBuilder isbn = new StringBuilder(13).append("978");
+        for (int i = digits.length(); i < 10; i++) isbn.append('0');
+        return isbn.append(digits).toString();
+    }
+
+    // ISBNs of the starting inventory: "sorted" is ascending (the worst case of a plain BST), "random" is shuffled
+    static String[] population(int size, String order) {
+        long[] numbers = new long[size];
+        for (int i = 0; i < size; i++) numbers[i] = 2L * i;
+        return toIsbns(arrange(numbers, order));
+    }
+
+    // count ISBNs not in the population, spread over its whole range, in the given order
+    static String[] fresh(int populationSize, int count, String order) {
+        long span = Math.max(populationSize, count);
+        long[] numbers = new long[count];
+        for (int i = 0; i < count; i++) numbers[i] = 2L * (i * span / count) + 1;
+        return toIsbns(arrange(numbers, order));
+    }
+
+    // count distinct ISBNs taken from the population, in the given order
+    static String[] sample(String[] population, int count, String order) {
+        long[] numbers = new long[count];
+        long step = population.length / count;
+        for (int i = 0; i < count; i++) numbers[i] = 2L * (i * step);
+        return toIsbns(arrange(numbers, order));
+    }
+
+    // Title of the book with the given ISBN (about four books share each title)
+    static String title(int index, int populationSize) {
+        return "Title " + index % Math.max(1, populationSize / 4);
+    }
+
+    // Shuffle for "random", keep ascending for "sorted"
+    private static long[] arrange(long[] numbers, String order) {
+        if (order.equals("random")) shuffle(numbers, new Random(SEED));
+        else if (!order.equals("sorted")) throw new IllegalArgumentException("Unknown order: " + order);
+        return numbers;
+    }
+
+    // Fisher–Yates shuffle
+    static void shuffle(long[] values, Random random) {
+        for (int i = values.length - 1; i > 0; i--) {
+            int j = random.nextInt(i + 1);
+            long swap = values[i];
+            values[i] = values[j];
+            values[j] = swap;
+        }
+    }
+
+    private static String[] toIsbns(long[] numbers) {
+        String[] isbns = new String[numbers.length];
+        for (int i = 0; i < numbers.length; i++) isbns[i] = isbn(numbers[i]);
+        return isbns;
+    }
+}
@@ -0,0 +1,60 @@
+package lms.bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+// End-to-end borrow → issue → return on an in-memory Library: each operation queues a borrow request,
+// issues it, records the return and processes it, so it crosses the inventory, queue, issued counts,
+// user history and return stack exactly as the menu does. Users and titles rotate through fixed sets.
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class LibraryScenarioBenchmark {
+    private static final int USERS = 1024;           // Power of two, so the next user is a mask away
+    private static final int HISTORY_PER_USER = 100; // Retention cap, so histories stop growing
+
+    @Param({"10000", "100000"})
+    int books;
+
+    private Object library;
+    private final String[] users = new String[USERS];
+    private String[] titles;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void build() {
+        library = Lms.newLibrary(1024, HISTORY_PER_USER);
+        titles = new String[books];
+        for (int i = 0; i < books; i++) {
+            titles[i] = "Title " + i;
+            Lms.addBook(library, Isbns.isbn(i), titles[i], "Author " + i % 1000);
+        }
+        for (int i = 0; i < USERS; i++) users[i] = "user" + i;
+    }
+
+    @Benchmark
+    public void borrowIssueReturn(Blackhole bh) {
+        int n = next++;
+        String title = titles[(n & Integer.MAX_VALUE) % books];
+        bh.consume(Lms.borrow(library, users[n & (USERS - 1)], title));
+        bh.consume(Lms.issue(library, 1));
+        bh.consume(Lms.recordReturn(library, title));
+        bh.consume(Lms.processReturns(library, 1));
+    }
+}
@@ -0,0 +1,308 @@
+package lms.bench;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+
+// This Lms class gives the benchmarks access to the library classes.
+// The application lives in the default package, which code in a named package cannot import, and JMH
+// refuses benchmarks in the default package. So every operation is bound once to a static final
+// MethodHandle (library types erased to Object); the JIT treats those as constants and inlines the target,
+// so calling through them costs about the same as a direct call.
+final class Lms {
+    private static final MethodHandle NEW_BOOK;
+    private static final MethodHandle NEW_INVENTORY;
+    private static final MethodHandle INSERT;
+    private static final MethodHandle DELETE;
+    private static final MethodHandle CONTAINS_ISBN;
+    private static final MethodHandle HAS_TITLE;
+
+    private static final MethodHandle NEW_REQUEST;
+    private static final MethodHandle NEW_QUEUE;
+    private static final MethodHandle OFFER;
+    private static final MethodHandle QUEUE_POLL;
+
+    private static final MethodHandle NEW_STACK;
+    private static final MethodHandle TRY_PUSH;
+    private static final MethodHandle STACK_POLL;
+
+    private static final MethodHandle NEW_HISTORY;
+    private static final MethodHandle ADD_HISTORY;
+    private static final MethodHandle REMOVE_HISTORY;
+
+    private static final MethodHandle NEW_LIBRARY;
+    private static final MethodHandle ADD_BOOK;
+    private static final MethodHandle BORROW;
+    private static final MethodHandle ISSUE;
+    private static final MethodHandle RECORD_RETURN;
+    private static final MethodHandle PROCESS_RETURNS;
+
+    static {
+        try {
+            Class<?> book = Class.forName("Book");
+            Class<?> inventory = Class.forName("BookInventory");
+            Class<?> request = Class.forName("BorrowRequest");
+            Class<?> queue = Class.forName("BorrowQueue");
+            Class<?> stack = Class.forName("ReturnStack");
+            Class<?> history = Class.forName("UserHistory");
+            Class<?> library = Class.forName("Library");
+
+            NEW_BOOK = constructor(book, String.class, String.class, String.class);
+            NEW_INVENTORY = constructor(inventory);
+            INSERT = method(inventory, "insert", boolean.class, book);
+            DELETE = method(inventory, "delete", boolean.class, String.class);
+            CONTAINS_ISBN = method(inventory, "containsIsbn", boolean.class, String.class);
+            HAS_TITLE = method(inventory, "hasTitle", boolean.class, String.class);
+
+            NEW_REQUEST = constructor(request, String.class, int.class, long.class, int.class);
+            NEW_QUEUE = constructor(queue, int.class);
+            OFFER = method(queue, "offer", boolean.class, request);
+            QUEUE_POLL = method(queue, "poll", request);
+
+            NEW_STACK = constructor(stack, int.class);
+            TRY_PUSH = method(stack, "tryPush", boolean.class, String.class);
+            STACK_POLL = method(stack, "poll", String.class);
+
+            NEW_HISTORY = constructor(history, int.class, long.class);
+            ADD_HISTORY = method(history, "addBook", void.class, String.class, String.class);
+            REMOVE_HISTORY = method(history, "removeBook", void.class, String.class, String.class);
+
+            NEW_LIBRARY = constructor(library, inventory, queue, stack, history);
+            ADD_BOOK = method(library, "addBook", boolean.class, String.class, String.class, String.class);
+            BORROW = method(library, "borrow", Class.forName("Library$BorrowResult"), String.class, String.class);
+            ISSUE = method(library, "issue", Class.forName("IssueSummary"), int.class);
+            RECORD_RETURN = method(library, "recordReturn", Class.forName("Library$ReturnResult"), String.class);
+            PROCESS_RETURNS = method(library, "processReturns", Class.forName("ReturnSummary"), int.class);
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    private Lms() {
+    }
+
+    // Constructor handle with the library types erased to Object
+    private static MethodHandle constructor(Class<?> owner, Class<?>... parameters) throws ReflectiveOperationException {
+        MethodHandle handle = lookup(owner).findConstructor(owner, MethodType.methodType(void.class, parameters));
+        return handle.asType(erase(handle.type()));
+    }
+
+    // Instance method handle with the library types erased to Object
+    private static MethodHandle method(Class<?> owner, String name, Class<?> returnType, Class<?>... parameters)
+            throws ReflectiveOperationException {
+        MethodHandle handle = lookup(owner).findVirtual(owner, name, MethodType.methodType(returnType, parameters));
+        return handle.asType(erase(handle.type()));
+    }
+
+    // Replace every library type in a method type with Object
+    private static MethodType erase(MethodType type) {
+        MethodType erased = type.changeReturnType(erase(type.returnType()));
+        for (int i = 0; i < type.parameterCount(); i++) erased = erased.changeParameterType(i, erase(type.parameterType(i)));
+        return erased;
+    }
+
+    private static Class<?> erase(Class<?> type) {
+        return type.isPrimitive() || type.getName().startsWith("java.") ? type : Object.class;
+    }
+
+    // The library classes are package-private; everything runs in the unnamed module, so a private lookup is allowed
+    private static MethodHandles.Lookup lookup(Class<?> owner) throws IllegalAccessException {
+        return MethodHandles.privateLookupIn(owner, MethodHandles.lookup());
+    }
+
+    // Failures inside the library are programming errors in a benchmark
+    private static RuntimeException rethrow(Throwable t) {
+        if (t instanceof RuntimeException) return (RuntimeException) t;
+        if (t instanceof Error) throw (Error) t;
+        return new IllegalStateException(t);
+    }
+
+    // -------- BookInventory -------- //
+
+    static Object newBook(String isbn, String title, String author) {
+        try {
+            return (Object) NEW_BOOK.invokeExact(isbn, title, author);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    static Object newInventory() {
+        try {
+            return (Object) NEW_INVENTORY.invokeExact();
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    static boolean insert(Object inventory, Object book) {
+        try {
+            return (boolean) INSERT.invokeExact(inventory, book);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    static boolean delete(Object inventory, String isbn) {
+        try {
+            return (boolean) DELETE.invokeExact(inventory, isbn);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    static boolean containsIsbn(Object inventory, String isbn) {
+        try {
+            return (boolean) CONTAINS_ISBN.invokeExact(inventory, isbn);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    static boolean hasTitle(Object inventory, String title) {
+        try {
+            return (boolean) HAS_TITLE.invokeExact(inventory, title);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    // -------- BorrowQueue -------- //
+
+    static Object newRequest(String user, int titleId) {
+        try {
+            return (Object) NEW_REQUEST.invokeExact(user, titleId, 0L, 0);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    static Object newQueue(int capacity) {
+        try {
+            return (Object) NEW_QUEUE.invokeExact(capacity);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    static boolean offer(Object queue, Object request) {
+        try {
+            return (boolean) OFFER.invokeExact(queue, request);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    static Object poll(Object queue) {
+        try {
+            return (Object) QUEUE_POLL.invokeExact(queue);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    // -------- ReturnStack -------- //
+
+    // capacity 0 = unbounded
+    static Object newStack(int capacity) {
+        try {
+            return (Object) NEW_STACK.invokeExact(capacity);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    static boolean tryPush(Object stack, String title) {
+        try {
+            return (boolean) TRY_PUSH.invokeExact(stack, title);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    static String pop(Object stack) {
+        try {
+            return (String) STACK_POLL.invokeExact(stack);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    // -------- UserHistory -------- //
+
+    static Object newHistory(int maxEntriesPerUser) {
+        try {
+            return (Object) NEW_HISTORY.invokeExact(maxEntriesPerUser, 0L);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    static void addBook(Object history, String user, String title) {
+        try {
+            ADD_HISTORY.invokeExact(history, user, title);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    static void removeBook(Object history, String user, String title) {
+        try {
+            REMOVE_HISTORY.invokeExact(history, user, title);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    // -------- Library -------- //
+
+    // An in-memory library whose user histories keep at most maxHistoryPerUser entries
+    static Object newLibrary(int queueCapacity, int maxHistoryPerUser) {
+        try {
+            return (Object) NEW_LIBRARY.invokeExact(newInventory(), newQueue(queueCapacity), newStack(0),
+                    newHistory(maxHistoryPerUser));
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    static boolean addBook(Object library, String isbn, String title, String author) {
+        try {
+            return (boolean) ADD_BOOK.invokeExact(library, isbn, title, author);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    static Object borrow(Object library, String user, String title) {
+        try {
+            return (Object) BORROW.invokeExact(library, user, title);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    static Object issue(Object library, int max) {
+        try {
+            return (Object) ISSUE.invokeExact(library, max);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    static Object recordReturn(Object library, String title) {
+        try {
+            return (Object) RECORD_RETURN.invokeExact(library, title);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    static Object processReturns(Object library, int max) {
+        try {
+            return (Object) PROCESS_RETURNS.invokeExact(library, max);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+}
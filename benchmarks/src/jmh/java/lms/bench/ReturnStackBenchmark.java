@@ -0,0 +1,61 @@
+package lms.bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+// ReturnStack push/pop throughput: one thread alternating push and pop, and two pushers racing two
+// poppers on a shared stack. The stack is bounded so the contended run cannot grow without limit.
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ReturnStackBenchmark {
+    private static final int CAPACITY = 4096;
+
+    @State(Scope.Group)
+    public static class Stack {
+        Object stack;
+        final String title = "Clean Code";
+
+        @Setup(Level.Iteration)
+        public void fill() {
+            stack = Lms.newStack(CAPACITY);
+            for (int i = 0; i < CAPACITY / 2; i++) Lms.tryPush(stack, title);
+        }
+    }
+
+    @Benchmark
+    @Group("single")
+    public String pushPop(Stack state) {
+        Lms.tryPush(state.stack, state.title);
+        return Lms.pop(state.stack);
+    }
+
+    @Benchmark
+    @Group("contended")
+    @GroupThreads(2)
+    public boolean push(Stack state) {
+        return Lms.tryPush(state.stack, state.title);
+    }
+
+    @Benchmark
+    @Group("contended")
+    @GroupThreads(2)
+    public String pop(Stack state) {
+        return Lms.pop(state.stack);
+    }
+}
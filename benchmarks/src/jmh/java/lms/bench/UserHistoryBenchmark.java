@@ -0,0 +1,65 @@
+package lms.bench;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+// UserHistory addBook/removeBook for one user with a long history (1k, 100k and 1M entries).
+// The history is capped at its starting length, so addBook runs in steady state (each add evicts the
+// oldest entry). removeThenAdd removes a random title and adds it back; subtract addBook for the removal.
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class UserHistoryBenchmark {
+    private static final String USER = "reader";
+    private static final int PROBES = 1 << 14; // Power of two, so the next probe is a mask away
+
+    @Param({"1000", "100000", "1000000"})
+    int length;
+
+    private Object history;
+    private String[] titles;
+    private final String[] probes = new String[PROBES];
+    private int next;
+    private int probe;
+
+    @Setup(Level.Trial)
+    public void fill() {
+        history = Lms.newHistory(length);
+        titles = new String[length];
+        for (int i = 0; i < length; i++) {
+            titles[i] = "Title " + i;
+            Lms.addBook(history, USER, titles[i]);
+        }
+        Random random = new Random(Isbns.SEED);
+        for (int i = 0; i < PROBES; i++) probes[i] = titles[random.nextInt(length)];
+    }
+
+    @Benchmark
+    public void addBook() {
+        Lms.addBook(history, USER, titles[next]);
+        if (++next == length) next = 0;
+    }
+
+    @Benchmark
+    public void removeThenAdd() {
+        String title = probes[probe++ & (PROBES - 1)];
+        Lms.removeBook(history, USER, title);
+        Lms.addBook(history, USER, title);
+    }
+}
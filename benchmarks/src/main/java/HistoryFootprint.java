@@ -0,0 +1,106 @@
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.util.HashMap;
+import java.util.Random;
+
+// This HistoryFootprint measures how many bytes per entry a UserHistory keeps alive, next to the layout it
+// replaced (one doubly linked node per entry plus a title -> node map per user, rebuilt below as
+// LinkedHistories). Both get the same synthetic histories; titles and books (one ISBN per title) are interned
+// before measuring and usernames are created up front, because none of them is part of an entry.
+// Usage: HistoryFootprint [users] [entries per user] [titles]   (e.g. -Xmx4g for 10M entries)
+public class HistoryFootprint {
+    public static void main(String[] args) throws Exception {
+        int users = args.length > 0 ? Integer.parseInt(args[0]) : 100_000;
+        int entries = args.length > 1 ? Integer.parseInt(args[1]) : 20;
+        int titles = args.length > 2 ? Integer.parseInt(args[2]) : 20_000;
+
+        String[] names = new String[titles];
+        int[] bookIds = new int[titles];
+        for (int i = 0; i < titles; i++) {
+            names[i] = "The Collected Works Volume " + i;
+            int titleId = SymbolTable.TITLES.intern(BookInventory.normalizeTitle(names[i]), names[i]);
+            bookIds[i] = BookInventory.bookIdOf(String.format("978-%09d", i), titleId);
+        }
+        String[] usernames = new String[users];
+        for (int i = 0; i < users; i++) usernames[i] = "reader" + i;
+        System.out.printf("%d users x %d entries, %d titles%n", users, entries, titles);
+
+        long before = usedHeap();
+        LinkedHistories linked = new LinkedHistories();
+        fill(users, entries, titles, (user, title, at) -> linked.add(usernames[user], names[title], at));
+        double linkedBytes = (double) (usedHeap() - before) / ((long) users * entries);
+        System.out.printf("%-28s %6.1f bytes/entry%n", "linked nodes", linkedBytes);
+
+        before = usedHeap();
+        UserHistory history = new UserHistory();
+        fill(users, entries, titles, (user, title, at) -> history.addBook(usernames[user], bookIds[title], at));
+        double blockBytes = (double) (usedHeap() - before) / ((long) users * entries);
+        System.out.printf("%-28s %6.1f bytes/entry (%.1f saved, %.0f%%)%n", "delta-encoded blocks", blockBytes,
+                linkedBytes - blockBytes, 100 * (linkedBytes - blockBytes) / linkedBytes);
+        if (history.userCount() != users || linked.users.size() != users) throw new IllegalStateException("Lost users");
+    }
+
+    // One history entry: user index, title index, issue time
+    private interface Sink {
+        void add(int user, int title, long issuedAt);
+    }
+
+    // Round-robin over the users, about a minute between issues, random titles (seeded)
+    private static void fill(int users, int entries, int titles, Sink sink) {
+        Random random = new Random(42);
+        long at = 1_700_000_000_000L;
+        for (int e = 0; e < entries; e++) {
+            for (int u = 0; u < users; u++) {
+                at += random.nextInt(120_000);
+                sink.add(u, random.nextInt(titles), at);
+            }
+        }
+    }
+
+    // Heap in use after a full GC
+    private static long usedHeap() throws InterruptedException {
+        MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+            Thread.sleep(100);
+        }
+        return memory.getHeapMemoryUsage().getUsed();
+    }
+
+    // The previous UserHistory layout (adds only): per user a doubly linked list, newest first, whose
+    // nodes also chain the entries of the same title, and a map from each title to its newest node
+    private static final class LinkedHistories {
+        final HashMap<String, LinkedList> users = new HashMap<>();
+
+        void add(String user, String title, long issuedAt) {
+            LinkedList list = users.computeIfAbsent(user, k -> new LinkedList());
+            Node node = new Node(title, issuedAt);
+            node.next = list.head;
+            if (list.head != null) list.head.prev = node;
+            list.head = node;
+            if (list.tail == null) list.tail = node;
+            Node older = list.latestByTitle.put(title, node);
+            node.olderSame = older;
+            if (older != null) older.newerSame = node;
+            list.size++;
+        }
+
+        private static final class LinkedList {
+            Node head;
+            Node tail;
+            int size;
+            final HashMap<String, Node> latestByTitle = new HashMap<>();
+        }
+
+        private static final class Node {
+            final String title;
+            final long issuedAt;
+            Node next, prev, olderSame, newerSame;
+
+            Node(String title, long issuedAt) {
+                this.title = title;
+                this.issuedAt = issuedAt;
+            }
+        }
+    }
+}
@@ -0,0 +1,57 @@
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+
+// This InventoryFootprint measures how many bytes per book each inventory keeps alive: it fills a
+// BookInventory, a CompactBookInventory and an off-heap CompactBookInventory with the same synthetic
+// catalog and compares the used heap after a full GC (plus the arena for the off-heap one).
+// Every book gets fresh strings, as a parsed catalog file would. Titles are interned into
+// SymbolTable.TITLES before measuring, because both inventories share that table.
+// Usage: InventoryFootprint [books] [authors]   (run with a large enough -Xmx, e.g. -Xmx4g for 2M books)
+public class InventoryFootprint {
+    public static void main(String[] args) throws Exception {
+        int books = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+        int authors = args.length > 1 ? Integer.parseInt(args[1]) : Math.max(1, books / 20);
+
+        for (int i = 0; i < books; i++) SymbolTable.TITLES.intern(BookInventory.normalizeTitle(title(i)), title(i));
+        System.out.printf("%d books, %d authors (title symbol table excluded: shared by both inventories)%n",
+                books, authors);
+        measure("object tree", new BookInventory(), books, authors);
+        measure("compact", new CompactBookInventory(false), books, authors);
+        measure("compact, off-heap arena", new CompactBookInventory(true), books, authors);
+    }
+
+    // Fill an inventory and print the bytes per book it retains
+    private static void measure(String name, BookInventory inventory, int books, int authors) throws InterruptedException {
+        long before = usedHeap();
+        for (int i = 0; i < books; i++) {
+            inventory.insert(new Book(isbn(i), title(i), "Author Number " + i % authors));
+        }
+        long heap = usedHeap() - before;
+        long offHeap = 0;
+        if (inventory instanceof CompactBookInventory && ((CompactBookInventory) inventory).isOffHeap()) {
+            offHeap = ((CompactBookInventory) inventory).arenaBytes();
+        }
+        System.out.printf("%-24s %8.1f bytes/book (heap %,d + off-heap %,d bytes), tree height %d%n", name,
+                (double) (heap + offHeap) / books, heap, offHeap, inventory.height());
+        if (inventory.size() != books) throw new IllegalStateException("Lost books");
+    }
+
+    // Synthetic ISBN-13 and title of book i (ISBNs inserted in scrambled order)
+    private static String isbn(int i) {
+        return String.format("978-%010d", (i * 2654435761L) & 0xFFFFFFFFL);
+    }
+
+    private static String title(int i) {
+        return "The Collected Works Volume " + i;
+    }
+
+    // Heap in use after a full GC
+    private static long usedHeap() throws InterruptedException {
+        MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+            Thread.sleep(100);
+        }
+        return memory.getHeapMemoryUsage().getUsed();
+    }
+}
@@ -0,0 +1,137 @@
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+// This InventoryReadScaling measures how the lock-free reads of BookInventory scale: one writer keeps inserting
+// and deleting books while 1, 2, 4 ... reader threads look up ISBNs, and it prints reads/sec for every reader count.
+// A catalog book that is not found stops the run with an exception (InventorySnapshotTest checks the snapshots
+// under the same writer). Reads only scale up to the number of cores.
+// Usage: InventoryReadScaling [books] [max readers] [seconds per step] [seed]
+public class InventoryReadScaling {
+    // Point lookups a reader counts at once
+    private static final int LOOKUPS_PER_BATCH = 20_000;
+
+    // Books the writer adds before it starts deleting its oldest ones, so the catalog size stays steady
+    private static final int WINDOW = 1_000;
+
+    // Number of the writer's next book; continues across steps, so every step starts from the same catalog size
+    private static long nextWrite;
+
+    public static void main(String[] args) throws Exception {
+        int books = args.length > 0 ? Integer.parseInt(args[0]) : 100_000;
+        int maxReaders = args.length > 1 ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+        long seconds = args.length > 2 ? Long.parseLong(args[2]) : 3;
+        long seed = args.length > 3 ? Long.parseLong(args[3]) : 42;
+
+        String[] isbns = new String[books];
+        List<Book> catalog = new ArrayList<>(books);
+        for (int i = 0; i < books; i++) {
+            isbns[i] = isbn(i);
+            catalog.add(new Book(isbns[i], "Stress Title " + i, "Stress Author " + i % 1000));
+        }
+        catalog.sort(Comparator.comparing(book -> book.isbn)); // bulkLoad takes books in ISBN order
+        BookInventory inventory = new BookInventory();
+        inventory.bulkLoad(catalog);
+        catalog = null;
+
+        System.out.printf("%d books, 1 writer, %d cores, %d s per step, seed %d%n", books,
+                Runtime.getRuntime().availableProcessors(), seconds, seed);
+        SplittableRandom seeds = new SplittableRandom(seed);
+        double single = 0;
+        for (int readers = 1; readers <= maxReaders; readers *= 2) {
+            Step step = run(inventory, isbns, readers, seconds, seeds.split());
+            if (readers == 1) single = step.readsPerSecond();
+            System.out.printf("%2d reader(s): %,12.0f reads/s (%,11.0f per reader, %5.2fx)   writes %,9.0f/s%n",
+                    readers, step.readsPerSecond(), step.readsPerSecond() / readers, step.readsPerSecond() / single,
+                    step.writesPerSecond());
+        }
+    }
+
+    // Counts of one step
+    private static final class Step {
+        long reads, writes, elapsedNanos;
+
+        double readsPerSecond() {
+            return reads * 1e9 / elapsedNanos;
+        }
+
+        double writesPerSecond() {
+            return writes * 1e9 / elapsedNanos;
+        }
+    }
+
+    // Run the writer and the given number of readers for the given time
+    private static Step run(BookInventory inventory, String[] isbns, int readers, long seconds, SplittableRandom random)
+            throws InterruptedException {
+        AtomicBoolean stop = new AtomicBoolean();
+        AtomicLong writes = new AtomicLong();
+        LongAdder reads = new LongAdder();
+        List<Throwable> failures = new ArrayList<>();
+
+        List<Thread> threads = new ArrayList<>();
+        threads.add(new Thread(() -> write(inventory, isbns.length, stop, writes), "stress-writer"));
+        for (int r = 0; r < readers; r++) {
+            SplittableRandom readerRandom = random.split();
+            threads.add(new Thread(() -> read(inventory, isbns, readerRandom, stop, reads), "stress-reader-" + r));
+        }
+        for (Thread thread : threads) {
+            thread.setUncaughtExceptionHandler((t, e) -> {
+                synchronized (failures) {
+                    failures.add(e);
+                }
+                stop.set(true);
+            });
+        }
+
+        long start = System.nanoTime();
+        for (Thread thread : threads) thread.start();
+        TimeUnit.SECONDS.sleep(seconds);
+        stop.set(true);
+        for (Thread thread : threads) thread.join();
+        Step step = new Step();
+        step.elapsedNanos = System.nanoTime() - start;
+        synchronized (failures) {
+            if (!failures.isEmpty()) throw new IllegalStateException("Failed read", failures.get(0));
+        }
+        step.reads = reads.sum();
+        step.writes = writes.get();
+        return step;
+    }
+
+    // Insert new books (scattered over the ISBN order) and delete the oldest one once WINDOW are in
+    private static void write(BookInventory inventory, int books, AtomicBoolean stop, AtomicLong writes) {
+        while (!stop.get()) {
+            long n = nextWrite++;
+            if (!inventory.insert(new Book(isbn(books + n), "Written Title " + n, "Writer"))) {
+                throw new IllegalStateException("Writer ISBN taken twice: " + isbn(books + n));
+            }
+            if (n >= WINDOW && !inventory.delete(isbn(books + n - WINDOW))) {
+                throw new IllegalStateException("Writer book lost: " + isbn(books + n - WINDOW));
+            }
+            writes.incrementAndGet();
+        }
+    }
+
+    // Look up random catalog ISBNs
+    private static void read(BookInventory inventory, String[] isbns, SplittableRandom random, AtomicBoolean stop,
+                             LongAdder reads) {
+        while (!stop.get()) {
+            for (int i = 0; i < LOOKUPS_PER_BATCH; i++) {
+                String isbn = isbns[random.nextInt(isbns.length)];
+                Book book = inventory.findBook(isbn);
+                if (book == null || !book.isbn.equals(isbn)) throw new IllegalStateException("Catalog book not found: " + isbn);
+            }
+            reads.add(LOOKUPS_PER_BATCH);
+        }
+    }
+
+    // Synthetic ISBN-13 of book i (the same scrambled ISBNs as InventoryFootprint)
+    private static String isbn(long i) {
+        return String.format("978-%010d", (i * 2654435761L) & 0xFFFFFFFFL);
+    }
+}
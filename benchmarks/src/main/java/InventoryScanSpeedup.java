@@ -0,0 +1,68 @@
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Predicate;
+
+// This InventoryScanSpeedup times the whole-catalog queries (count, filter, ordered export) on one
+// BookInventory and on a ShardedBookInventory holding the same synthetic catalog, and prints the speedup of
+// the parallel shard scans. The speedup is bounded by the cores of the machine (the common ForkJoinPool
+// uses one worker per core, less one), so run it on a multi-core machine with shards >= cores.
+// Usage: InventoryScanSpeedup [books] [shards] [runs]   (run with a large enough -Xmx, e.g. -Xmx4g for 2M books)
+public class InventoryScanSpeedup {
+    public static void main(String[] args) throws Exception {
+        int books = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+        int shards = args.length > 1 ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+        int runs = args.length > 2 ? Integer.parseInt(args[2]) : 10;
+
+        List<Book> catalog = new ArrayList<>(books);
+        for (int i = 0; i < books; i++) catalog.add(new Book(isbn(i), "The Collected Works Volume " + i, "Author Number " + i % 5000));
+        catalog.sort(Comparator.comparing(book -> book.isbn)); // bulkLoad takes books in ISBN order
+        BookInventory single = new BookInventory();
+        ShardedBookInventory sharded = new ShardedBookInventory(shards);
+        single.bulkLoad(catalog);
+        sharded.bulkLoad(catalog);
+        catalog = null;
+
+        System.out.printf("%d books, %d shards, %d cores, fork/join parallelism %d, best of %d runs%n", books, shards,
+                Runtime.getRuntime().availableProcessors(), ForkJoinPool.commonPool().getParallelism(), runs);
+        // A needle that matches only a handful of books, so filter scans the whole catalog
+        Predicate<Book> rare = BookInventory.titleOrAuthorContains("volume 12345");
+        compare("count", runs, () -> single.count(rare), () -> sharded.count(rare));
+        compare("filter", runs, () -> single.filter(rare, 100).size(), () -> sharded.filter(rare, 100).size());
+        compare("export", runs, () -> single.export(Writer.nullWriter(), null), () -> sharded.export(Writer.nullWriter(), null));
+    }
+
+    // A query whose result is checked to be the same on both inventories
+    private interface Query {
+        long run() throws Exception;
+    }
+
+    // Time both inventories and print their best times and the speedup
+    private static void compare(String name, int runs, Query single, Query sharded) throws Exception {
+        long expected = single.run();
+        if (sharded.run() != expected) throw new IllegalStateException(name + " results differ");
+        double singleMillis = best(runs, single);
+        double shardedMillis = best(runs, sharded);
+        System.out.printf("%-7s single tree %9.1f ms   sharded %9.1f ms   speedup %5.2fx%n", name, singleMillis,
+                shardedMillis, singleMillis / shardedMillis);
+    }
+
+    // Fastest of runs timed runs (after one warm-up run), in milliseconds
+    private static double best(int runs, Query query) throws Exception {
+        query.run();
+        long best = Long.MAX_VALUE;
+        for (int i = 0; i < runs; i++) {
+            long start = System.nanoTime();
+            query.run();
+            best = Math.min(best, System.nanoTime() - start);
+        }
+        return best / 1e6;
+    }
+
+    // Synthetic ISBN-13 of book i (the same scrambled ISBNs as InventoryFootprint)
+    private static String isbn(int i) {
+        return String.format("978-%010d", (i * 2654435761L) & 0xFFFFFFFFL);
+    }
+}
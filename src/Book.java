@@ -0,0 +1,19 @@
+// This is the Class representing a Book object with ISBN, title, and author
+class Book {
+    final String isbn;
+    final String title;
+    final String author;
+
+    // Constructor
+    Book(String isbn, String title, String author) {
+        this.isbn = isbn;
+        this.title = title;
+        this.author = author;
+    }
+
+    // Overriding toString() method
+    @Override
+    public String toString() {
+        return "[" + isbn + "] " + title + " by " + author;
+    }
+}
@@ -1,162 +1,766 @@
-// This is the Class representing a Book object with ISBN, title, and author
-class Book {
-    String isbn;
-    String title;
-    String author;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.NoSuchElementException;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
 
-    // Constructor
-    Book(String isbn, String title, String author) {
-        this.isbn = isbn;
-        this.title = title;
-        this.author = author;
+// This is the immutable Node of the persistent AVL tree (self-balancing Binary Search Tree)
+// that stores a book, its copy stock slot, references to left/right children, the subtree height and size.
+// Nodes are never modified after construction: writers copy the root-to-leaf path instead,
+// so a reader holding an old root keeps a consistent snapshot of the tree.
+class BookNode {
+    final Book book;        // Book node
+    final int slot;         // Slot of the book's copy counts in the inventory's CopyStock
+    final BookNode left;    // Left child node (small)
+    final BookNode right;   // Right child node (large)
+    final int height;       // Height of the subtree rooted here (a leaf has height 1)
+    final int size;         // Number of books in the subtree rooted here
+
+    // This is the Constructor to create a node with a given book, stock slot and children
+    BookNode(Book book, int slot, BookNode left, BookNode right) {
+        this.book = book;
+        this.slot = slot;
+        this.left = left;
+        this.right = right;
+        this.height = Math.max(left == null ? 0 : left.height, right == null ? 0 : right.height) + 1;
+        this.size = (left == null ? 0 : left.size) + (right == null ? 0 : right.size) + 1;
     }
 
-    // Overriding toString() method
-    @Override
-    public String toString() {
-        return "[" + isbn + "] " + title + " by " + author;
+    // A copy of entry's book and slot over new children (used when a path is copied or rotated)
+    BookNode(BookNode entry, BookNode left, BookNode right) {
+        this(entry.book, entry.slot, left, right);
     }
 }
 
-// This is the Node of the Binary Search Tree
-// that stores a book and references to left/right children
-class BookNode {
-    Book book;        // Book node
-    BookNode left;    // Left child node (small)
-    BookNode right;   // Right child node (large)
+// Persistent AVL tree (self-balancing Binary Search Tree) for managing book inventory
+// Insert, delete and search are iterative, so sorted ISBN feeds keep the tree O(log n) deep.
+// Safe for concurrent use: writers are serialized and publish a new root through a volatile field,
+// while reads never lock and always see one consistent version of the tree.
+// Every ISBN also has copy counts (total, reserved, issued) in a CopyStock; copy transitions are lock-free.
+public class BookInventory implements Iterable<Book> {
+    // An AVL tree with 2^31 nodes is at most ~45 levels deep, so 64 slots always fit a root-to-leaf path
+    private static final int MAX_HEIGHT = 64;
 
-    // This is the Constructor to create a new node with a given book
-    BookNode(Book book) {
-        this.book = book;
-        this.left = this.right = null; // No children initially
-    }
-}
+    // Buffer size for exports and console listings
+    private static final int EXPORT_BUFFER_SIZE = 1 << 16;
+
+    private volatile BookNode root; // Root node of the latest published version
+
+    // Copy counts of every book (shared with CompactBookInventory, which uses its node IDs as slots)
+    final CopyStock stock = new CopyStock();
 
-// Binary Search Tree for managing book inventory
-public class BookInventory {
-    private BookNode root; // Root node
+    // Next unused stock slot (guarded by this); slots are never reused, so a copy transition racing with
+    // a delete can only fail, never change another book's counts
+    private int nextSlot;
+
+    // Secondary index: normalized title -> books with that title in ISBN order (kept in sync by insert/delete)
+    // The lists are copied on write, so readers never see one being modified. ISBN order (not insertion order)
+    // makes the book a copy is issued from depend only on the catalog, so a restored snapshot issues the same ones
+    private final Map<String, List<Book>> titleIndex = new ConcurrentHashMap<>();
+
+    // Sorted search indexes keyed by "normalized text \0 ISBN", used for prefix (type-ahead) searches
+    // (replaced wholesale by bulkLoad, hence volatile)
+    private volatile ConcurrentSkipListMap<String, Book> titleOrder = new ConcurrentSkipListMap<>();
+    private volatile ConcurrentSkipListMap<String, Book> authorOrder = new ConcurrentSkipListMap<>();
 
     // This Checks if the inventory is empty
     public boolean isEmpty() {
         return root == null;
     }
 
-    // Recursive method to insert a book into the BST
-    private BookNode insertRec(BookNode root, Book book) {
-        // If the tree is empty, place the new book here
-        if (root == null) return new BookNode(book);
+    // Number of books currently in the inventory
+    public int size() {
+        BookNode r = root;
+        return r == null ? 0 : r.size;
+    }
 
-        // Compare ISBNs: smaller → go left, larger → go right
-        if (book.isbn.compareTo(root.book.isbn) < 0)
-            root.left = insertRec(root.left, book);
-        else if (book.isbn.compareTo(root.book.isbn) > 0)
-            root.right = insertRec(root.right, book);
-        // If ISBN is equal, do nothing (I assume ISBN is unique)
+    // Height of the tree (0 when empty); stays within ~1.44 * log2(size + 2)
+    public int height() {
+        return height(root);
+    }
 
-        return root; // Return the unchanged root
+    // A new empty inventory of the same kind (used to reload a library from disk)
+    BookInventory emptyCopy() {
+        return new BookInventory();
     }
 
-    // Public method to insert a book (It calls recursive insertRec helper)
-    public void insert(Book book) {
-        root = insertRec(root, book);
+    // -------- AVL balancing helpers -------- //
+
+    // Height of a possibly empty subtree
+    private static int height(BookNode node) {
+        return node == null ? 0 : node.height;
     }
 
+    // Build a node for entry's book and slot over two AVL subtrees whose heights differ by at most 2,
+    // rotating as needed so the returned subtree is balanced again
+    private static BookNode balance(BookNode entry, BookNode left, BookNode right) {
+        int diff = height(left) - height(right);
+        if (diff > 1) {
+            // Left-Left case → single right rotation
+            if (height(left.left) >= height(left.right)) {
+                return new BookNode(left, left.left, new BookNode(entry, left.right, right));
+            }
+            // Left-Right case → double rotation around the left child's right child
+            BookNode pivot = left.right;
+            return new BookNode(pivot,
+                    new BookNode(left, left.left, pivot.left),
+                    new BookNode(entry, pivot.right, right));
+        }
+        if (diff < -1) {
+            // Right-Right case → single left rotation
+            if (height(right.right) >= height(right.left)) {
+                return new BookNode(right, new BookNode(entry, left, right.left), right.right);
+            }
+            // Right-Left case → double rotation around the right child's left child
+            BookNode pivot = right.left;
+            return new BookNode(pivot,
+                    new BookNode(entry, left, pivot.left),
+                    new BookNode(right, pivot.right, right.right));
+        }
+        return new BookNode(entry, left, right);
+    }
 
-    // Recursive method to delete a node with a given ISBN
-    private BookNode deleteRec(BookNode root, String isbn) {
-        if (root == null) return null; // Base case: book not found
+    // Copy a recorded root-to-node path bottom-up around a replaced subtree, rebalancing every copy.
+    // wentLeft[i] tells which child of path[i] the path continued into; entries[i] holds the book (and slot)
+    // to keep at path[i].
+    private static BookNode rebuildPath(BookNode[] path, BookNode[] entries, boolean[] wentLeft, int depth, BookNode subtree) {
+        for (int i = depth - 1; i >= 0; i--) {
+            BookNode node = path[i];
+            subtree = wentLeft[i] ? balance(entries[i], subtree, node.right) : balance(entries[i], node.left, subtree);
+        }
+        return subtree;
+    }
+
+    // -------- Insert / Delete -------- //
+
+    // This inserts a book with one copy into the tree
+    // Returns false if a book with the same ISBN is already in the inventory
+    public boolean insert(Book book) {
+        return insert(book, 1);
+    }
+
+    // This inserts a book with the given number of copies (iteratively, then copies and rebalances the path
+    // back to the root). Returns false if a book with the same ISBN is already in the inventory
+    public synchronized boolean insert(Book book, int copies) {
+        checkCopies(copies);
+        BookNode[] path = new BookNode[MAX_HEIGHT];
+        BookNode[] entries = new BookNode[MAX_HEIGHT];
+        boolean[] wentLeft = new boolean[MAX_HEIGHT];
+        int depth = 0;
+
+        // Walk down remembering the path: smaller → go left, larger → go right
+        BookNode node = root;
+        while (node != null) {
+            int cmp = book.isbn.compareTo(node.book.isbn);
+            // If ISBN is equal, do nothing (I assume ISBN is unique)
+            if (cmp == 0) return false;
+            path[depth] = node;
+            entries[depth] = node;
+            wentLeft[depth++] = cmp < 0;
+            node = cmp < 0 ? node.left : node.right;
+        }
+
+        // Stock the copies first, then attach the new leaf and publish the new version of the tree
+        int slot = nextSlot++;
+        stock.init(slot, indexTitle(book), copies, 0, 0);
+        root = rebuildPath(path, entries, wentLeft, depth, new BookNode(book, slot, null, null));
+        indexBook(book);
+        return true;
+    }
+
+    // This deletes a book by ISBN (iteratively, then copies and rebalances the path back to the root)
+    // Returns false if no book has that ISBN
+    public synchronized boolean delete(String isbn) {
+        BookNode[] path = new BookNode[MAX_HEIGHT];
+        BookNode[] entries = new BookNode[MAX_HEIGHT];
+        boolean[] wentLeft = new boolean[MAX_HEIGHT];
+        int depth = 0;
 
         // Traverse left or right depending on ISBN comparison
-        if (isbn.compareTo(root.book.isbn) < 0)
-            root.left = deleteRec(root.left, isbn);
-        else if (isbn.compareTo(root.book.isbn) > 0)
-            root.right = deleteRec(root.right, isbn);
-        else {
-            // Found the book to delete
+        BookNode node = root;
+        while (node != null) {
+            int cmp = isbn.compareTo(node.book.isbn);
+            if (cmp == 0) break;
+            path[depth] = node;
+            entries[depth] = node;
+            wentLeft[depth++] = cmp < 0;
+            node = cmp < 0 ? node.left : node.right;
+        }
+        if (node == null) return false; // Book not found
+        BookNode removed = node;
 
-            // Case 1: Node has no left child → replace with the right child
-            if (root.left == null) return root.right;
+        BookNode replacement;
+        if (node.left != null && node.right != null) {
+            // Node has two children: its copy takes the inorder successor's book
+            // (smallest book in the right subtree) and the successor node is removed instead
+            int target = depth;
+            path[depth] = node;
+            wentLeft[depth++] = false;
+            BookNode successor = node.right;
+            while (successor.left != null) {
+                path[depth] = successor;
+                entries[depth] = successor;
+                wentLeft[depth++] = true;
+                successor = successor.left;
+            }
+            entries[target] = successor;
+            replacement = successor.right;
+        } else {
+            // Node has at most one child → replace it with that child
+            replacement = node.left != null ? node.left : node.right;
+        }
+
+        // Publish the new version of the tree, then stop tracking the book's copies
+        root = rebuildPath(path, entries, wentLeft, depth, replacement);
+        unindexBook(removed.book);
+        stock.clear(removed.slot);
+        return true;
+    }
 
-                // Case 2: Node has no right child → replace with left child
-            else if (root.right == null) return root.left;
+    // -------- Bulk load -------- //
 
-            // Case 3: Node has two children
-            // Replace a book with the smallest book in the right subtree (inorder successor)
-            root.book = minValue(root.right);
+    // Add many books (one copy each) at once: they are merged with the current books in ISBN order and the
+    // whole tree is rebuilt perfectly balanced in O(n + m) instead of m separate inserts; indexes are filled in
+    // the same pass. books must be sorted by ISBN without duplicates; books whose ISBN is already present are
+    // skipped. Returns how many books were added.
+    public synchronized int bulkLoad(List<Book> books) {
+        // Collect the current books in ISBN order (iterative in-order walk)
+        BookNode current = root;
+        BookNode[] existing = new BookNode[current == null ? 0 : current.size];
+        BookNode[] stack = new BookNode[MAX_HEIGHT];
+        int top = 0, count = 0;
+        for (BookNode node = current; node != null || top > 0; ) {
+            if (node != null) {
+                stack[top++] = node;
+                node = node.left;
+            } else {
+                node = stack[--top];
+                existing[count++] = node;
+                node = node.right;
+            }
+        }
+
+        // Merge both sorted sequences, keeping the existing book when an ISBN appears in both;
+        // new books are stocked with one copy as they are merged
+        BookNode[] merged = new BookNode[existing.length + books.size()];
+        Map<String, List<Book>> newByTitle = new HashMap<>();
+        TreeMap<String, Book> newTitleOrder = new TreeMap<>();
+        TreeMap<String, Book> newAuthorOrder = new TreeMap<>();
+        int n = 0, i = 0, added = 0;
+        String previous = null;
+        for (Book book : books) {
+            while (i < existing.length && existing[i].book.isbn.compareTo(book.isbn) < 0) merged[n++] = existing[i++];
+            if (i < existing.length && existing[i].book.isbn.equals(book.isbn)) continue;
+            if (book.isbn.equals(previous)) continue;
+            previous = book.isbn;
+            int slot = nextSlot++;
+            stock.init(slot, indexTitle(book), 1, 0, 0);
+            merged[n++] = new BookNode(book, slot, null, null);
+            added++;
+
+            // Same pass: collect the index entries (title lists grouped so each is copied only once)
+            newByTitle.computeIfAbsent(normalizeTitle(book.title), k -> new ArrayList<>(1)).add(book);
+            newTitleOrder.put(searchKey(book.title, book), book);
+            newAuthorOrder.put(searchKey(book.author, book), book);
+        }
+        while (i < existing.length) merged[n++] = existing[i++];
 
-            // Delete the inorder successor from the right subtree
-            root.right = deleteRec(root.right, root.book.isbn);
+        // Publish the rebuilt tree, then the indexes
+        root = buildBalanced(merged, 0, n - 1);
+        titleOrder = withEntries(titleOrder, newTitleOrder);
+        authorOrder = withEntries(authorOrder, newAuthorOrder);
+        for (Map.Entry<String, List<Book>> entry : newByTitle.entrySet()) {
+            List<Book> old = titleIndex.get(entry.getKey());
+            List<Book> titleBooks = entry.getValue();
+            if (old != null) {
+                titleBooks.addAll(old);
+                titleBooks.sort(Comparator.comparing(book -> book.isbn));
+            }
+            titleIndex.put(entry.getKey(), titleBooks);
         }
-        return root; // Return updated root
+        return added;
     }
 
-    // Public method to delete a book by ISBN (It calls recursive deleteRec helper)
-    public void delete(String isbn) {
-        root = deleteRec(root, isbn);
+    // A copy of a sorted search index with the added entries; copying from sorted maps is linear,
+    // which is much cheaper than inserting a large batch into the live skip list one key at a time
+    private static ConcurrentSkipListMap<String, Book> withEntries(ConcurrentSkipListMap<String, Book> index,
+                                                                  TreeMap<String, Book> added) {
+        if (index.isEmpty()) return new ConcurrentSkipListMap<>(added);
+        TreeMap<String, Book> merged = new TreeMap<>(index);
+        merged.putAll(added);
+        return new ConcurrentSkipListMap<>(merged);
     }
 
-    // Find the minimum value (leftmost node) in a subtree
-    private Book minValue(BookNode root) {
-        Book min = root.book;
-        while (root.left != null) {
-            root = root.left;
-            min = root.book;
+    // Build a perfectly balanced subtree from the books (and slots) of sorted entries[lo..hi] (each visited once)
+    private static BookNode buildBalanced(BookNode[] entries, int lo, int hi) {
+        if (lo > hi) return null;
+        int mid = (lo + hi) >>> 1;
+        BookNode left = buildBalanced(entries, lo, mid - 1);
+        BookNode right = buildBalanced(entries, mid + 1, hi);
+        return new BookNode(entries[mid], left, right);
+    }
+
+    // -------- Secondary indexes -------- //
+
+    // Normalize titles (and authors) for consistent lookups (trim and lowercase)
+    static String normalizeTitle(String title) {
+        return title == null ? "" : title.trim().toLowerCase();
+    }
+
+    // Key of a book in a sorted search index; the ISBN suffix keeps equal texts apart
+    static String searchKey(String text, Book book) {
+        return normalizeTitle(text) + '\0' + book.isbn;
+    }
+
+    // ID of a title that was ever in a catalog (see SymbolTable.TITLES), or -1
+    static int titleIdOf(String title) {
+        return SymbolTable.TITLES.idOf(normalizeTitle(title));
+    }
+
+    // Book ID of an ISBN with the given title ID (interned into SymbolTable.BOOKS if new); "" stands for
+    // "some book of the title" where the ISBN is not known
+    static int bookIdOf(String isbn, int titleId) {
+        String key = isbn.isEmpty() ? "\0" + SymbolTable.TITLES.key(titleId) : isbn;
+        return SymbolTable.BOOKS.intern(key, isbn, titleId);
+    }
+
+    // Title ID of a book being added (interned into SymbolTable.TITLES if new)
+    static int indexTitle(Book book) {
+        return SymbolTable.TITLES.intern(normalizeTitle(book.title), book.title);
+    }
+
+    // Add a newly inserted book to the secondary indexes (called by writers only)
+    private void indexBook(Book book) {
+        String key = normalizeTitle(book.title);
+        List<Book> old = titleIndex.get(key);
+        List<Book> books = old == null ? new ArrayList<>(1) : new ArrayList<>(old);
+        int at = 0;
+        while (at < books.size() && books.get(at).isbn.compareTo(book.isbn) < 0) at++;
+        books.add(at, book);
+        titleIndex.put(key, books);
+        titleOrder.put(searchKey(book.title, book), book);
+        authorOrder.put(searchKey(book.author, book), book);
+    }
+
+    // Remove a deleted book from the secondary indexes (called by writers only; drop the title key when no book is left)
+    private void unindexBook(Book book) {
+        String key = normalizeTitle(book.title);
+        List<Book> old = titleIndex.get(key);
+        if (old != null) {
+            List<Book> books = new ArrayList<>(old);
+            books.remove(book);
+            if (books.isEmpty()) titleIndex.remove(key);
+            else titleIndex.put(key, books);
         }
-        return min;
+        titleOrder.remove(searchKey(book.title, book));
+        authorOrder.remove(searchKey(book.author, book));
     }
 
     // -------- Lookup helpers to manage book inventory -------- //
 
-    // Recursive search by ISBN
-    private boolean containsIsbnRec(BookNode node, String isbn) {
-        if (node == null) return false; // Not found
+    // Iterative search by ISBN
+    private BookNode findNode(String isbn) {
+        BookNode node = root;
+        while (node != null) {
+            int cmp = isbn.compareTo(node.book.isbn);
+            if (cmp == 0) return node;                 // Found
+            node = cmp < 0 ? node.left : node.right;   // Search left or right
+        }
+        return null; // Not found
+    }
 
-        int cmp = isbn.compareTo(node.book.isbn);
-        if (cmp == 0) return true;             // Found
-        if (cmp < 0) return containsIsbnRec(node.left, isbn);  // Search left
-        return containsIsbnRec(node.right, isbn);              // Search right
+    // The book with the given ISBN, or null
+    public Book findBook(String isbn) {
+        BookNode node = findNode(isbn);
+        return node == null ? null : node.book;
     }
 
     // Check if a book exists in the tree by ISBN
     public boolean containsIsbn(String isbn) {
         if (isbn == null || isbn.trim().isEmpty()) return false; // Guard against invalid input
-        return containsIsbnRec(root, isbn.trim()); // Call recursive helper
+        return findNode(isbn.trim()) != null;
+    }
+
+    // This Checks if at least one book with the given title exists (ignoring case and surrounding whitespace)
+    public boolean hasTitle(String title) {
+        if (title == null || title.trim().isEmpty()) return false; // Edge case
+        return titleIndex.containsKey(normalizeTitle(title));
+    }
+
+    // Title ID (see SymbolTable.TITLES) of a title in the catalog, or -1 when no book has that title
+    public int titleId(String title) {
+        if (title == null) return -1;
+        String key = normalizeTitle(title);
+        return titleIndex.containsKey(key) ? SymbolTable.TITLES.idOf(key) : -1;
+    }
+
+    // This Checks if at least one book with the given title ID exists (allocation-free)
+    public boolean hasTitleId(int titleId) {
+        return titleId >= 0 && titleIndex.containsKey(SymbolTable.TITLES.key(titleId));
+    }
+
+    // ISBNs of all books with the given title, in ISBN order (empty list when the title is unknown)
+    public List<String> isbnsForTitle(String title) {
+        List<Book> books = titleIndex.get(normalizeTitle(title));
+        if (books == null) return Collections.emptyList();
+        List<String> isbns = new ArrayList<>(books.size());
+        for (Book book : books) isbns.add(book.isbn);
+        return isbns;
+    }
+
+    // -------- Copies -------- //
+    // Every ISBN has total, reserved and issued copy counts (available = total - reserved - issued).
+    // Transitions are one CAS on the book's stock slot and take no inventory lock, so concurrent issuers,
+    // returners and writers never wait for each other; titles with no available copy are rejected in O(1).
+
+    // Reject impossible copy counts
+    static void checkCopies(int copies) {
+        if (copies < 0 || copies > CopyStock.MAX_COPIES) {
+            throw new IllegalArgumentException("Copies must be between 0 and " + CopyStock.MAX_COPIES + ": " + copies);
+        }
+    }
+
+    // Copy counts of a book, or null when no book has that ISBN
+    public CopyCounts copies(String isbn) {
+        BookNode node = findNode(isbn);
+        return node == null ? null : stock.counts(node.slot);
+    }
+
+    // Copy counts summed over every book with the given title (all zero when the title is unknown)
+    public CopyCounts copiesOfTitle(String title) {
+        CopyCounts sum = new CopyCounts(0, 0, 0);
+        for (String isbn : isbnsForTitle(title)) {
+            CopyCounts counts = copies(isbn);
+            if (counts != null) sum = sum.plus(counts);
+        }
+        return sum;
+    }
+
+    // Add n copies of a book (n < 0 removes copies, which must be available);
+    // returns false when no book has that ISBN or the count cannot change that way
+    public boolean addCopies(String isbn, int n) {
+        BookNode node = findNode(isbn);
+        return node != null && stock.addCopies(node.slot, n);
+    }
+
+    // Available copies over every book with the given title ID (O(1), allocation-free)
+    public int availableCopies(int titleId) {
+        return stock.available(titleId);
+    }
+
+    // Available copies over every book with the given title
+    public int availableCopies(String title) {
+        return stock.available(titleId(title));
+    }
+
+    // Issued copies over every book with the given title ID (O(1), allocation-free)
+    public int issuedCopies(int titleId) {
+        return stock.issued(titleId);
     }
 
+    // Reserve an available copy of a title (available → reserved); returns the ISBN holding the reservation,
+    // or null when no copy is available
+    public String reserveCopy(int titleId) {
+        return transition(titleId, CopyStock.Transition.RESERVE);
+    }
+
+    // Hand out a reserved copy of a book (reserved → issued); false when it holds no reservation
+    public boolean issueReserved(String isbn) {
+        return transition(isbn, CopyStock.Transition.ISSUE_RESERVED);
+    }
+
+    // Give a reserved copy of a book back to the shelf (reserved → available)
+    public boolean cancelReservation(String isbn) {
+        return transition(isbn, CopyStock.Transition.CANCEL_RESERVATION);
+    }
+
+    // Issue an available copy of a title (available → issued); returns the ISBN issued, or null when out of stock
+    public String issueCopy(int titleId) {
+        return transition(titleId, CopyStock.Transition.ISSUE);
+    }
+
+    // Take back an issued copy of a title (issued → available); returns its ISBN, or null when none is issued
+    public String returnCopy(int titleId) {
+        return transition(titleId, CopyStock.Transition.RETURN);
+    }
+
+    // Apply a transition to the first book of the title (in ISBN order) whose counts allow it;
+    // returns that book's ISBN, or null
+    String transition(int titleId, CopyStock.Transition transition) {
+        if (titleId < 0 || (transition.takesAvailable() && stock.available(titleId) == 0)) return null;
+        List<Book> books = titleIndex.get(SymbolTable.TITLES.key(titleId));
+        if (books == null) return null;
+        for (Book book : books) {
+            BookNode node = findNode(book.isbn);
+            if (node != null && stock.apply(node.slot, transition)) return book.isbn;
+        }
+        return null;
+    }
+
+    // Apply a transition to one book; false when it is unknown or its counts do not allow it
+    boolean transition(String isbn, CopyStock.Transition transition) {
+        BookNode node = findNode(isbn);
+        return node != null && stock.apply(node.slot, transition);
+    }
 
-    // Recursive search by title
-    private boolean containsTitleRec(BookNode node, String lowerTitle) {
+    // Replace the copy counts of a book (used when restoring a saved library); false when the ISBN is unknown
+    boolean setCopies(String isbn, int total, int reserved, int issued) {
+        BookNode node = findNode(isbn);
         if (node == null) return false;
+        stock.clear(node.slot);
+        stock.init(node.slot, indexTitle(node.book), total, reserved, issued);
+        return true;
+    }
+
+    // -------- Paged searches -------- //
+    // Each page costs O(log n + limit): one seek into a sorted structure, then a walk over the page only.
+    // Pass cursor = null for the first page, then the previous page's nextCursor.
+    // ISBN range pages read one version of the tree; prefix pages are weakly consistent with concurrent writers.
 
-        // Compare ignoring case and whitespace
-        if (node.book.title != null && node.book.title.trim().toLowerCase().equals(lowerTitle))
-            return true;
+    // Books whose normalized title starts with the given prefix, ordered by title then ISBN
+    public BookPage searchTitlePrefix(String prefix, String cursor, int limit) {
+        return prefixPage(titleOrder, normalizeTitle(prefix), cursor, limit);
+    }
 
-        // Search both left and right subtrees
-        return containsTitleRec(node.left, lowerTitle) || containsTitleRec(node.right, lowerTitle);
+    // Books whose normalized author starts with the given prefix, ordered by author then ISBN
+    public BookPage searchAuthorPrefix(String prefix, String cursor, int limit) {
+        return prefixPage(authorOrder, normalizeTitle(prefix), cursor, limit);
     }
 
-    // This Checks if a book exists by title
-    public boolean containsTitle(String title) {
-        if (title == null || title.trim().isEmpty()) return true; // Edge case
-        String t = title.trim().toLowerCase();
-        // Return true if NOT found → Notice the negation here (!)
-        return !containsTitleRec(root, t);
+    // Walk a sorted search index from the prefix (or just past the cursor) until the prefix stops matching
+    private static BookPage prefixPage(NavigableMap<String, Book> index, String prefix, String cursor, int limit) {
+        if (limit < 1) limit = 1;
+        NavigableMap<String, Book> tail = cursor == null ? index.tailMap(prefix, true) : index.tailMap(cursor, false);
+        List<Book> books = new ArrayList<>(Math.min(limit, 64));
+        String lastKey = null;
+        for (Map.Entry<String, Book> entry : tail.entrySet()) {
+            if (!entry.getKey().startsWith(prefix)) break;
+            // One more match than the page holds → there is a next page
+            if (books.size() == limit) return new BookPage(books, lastKey);
+            books.add(entry.getValue());
+            lastKey = entry.getKey();
+        }
+        return new BookPage(books, null);
+    }
+
+    // Books with fromIsbn <= ISBN <= toIsbn in ISBN order (a null bound means unbounded)
+    public BookPage isbnRange(String fromIsbn, String toIsbn, String cursor, int limit) {
+        if (limit < 1) limit = 1;
+        // Seek: stack every node that is >= the start key on the way down, so the top is the first match
+        BookNode[] stack = new BookNode[MAX_HEIGHT];
+        int top = 0;
+        String start = cursor != null ? cursor : fromIsbn;
+        BookNode node = root;
+        while (node != null) {
+            int cmp = start == null ? 1 : node.book.isbn.compareTo(start);
+            if (cmp > 0 || (cmp == 0 && cursor == null)) {
+                stack[top++] = node;
+                node = node.left;
+            } else {
+                node = node.right;
+            }
+        }
+
+        // In-order walk from the seek position, stopping at the upper bound
+        List<Book> books = new ArrayList<>(Math.min(limit, 64));
+        while (top > 0) {
+            BookNode next = stack[--top];
+            if (toIsbn != null && next.book.isbn.compareTo(toIsbn) > 0) break;
+            if (books.size() == limit) return new BookPage(books, books.get(limit - 1).isbn);
+            books.add(next.book);
+            for (BookNode n = next.right; n != null; n = n.left) stack[top++] = n;
+        }
+        return new BookPage(books, null);
     }
 
     // -------- Traversal -------- //
 
+    // Iterators and visitors walk one version of the tree with an explicit stack (no recursion),
+    // so concurrent writers never affect a traversal that is already running.
+
+    // In-order iterator over all books (ISBN order)
+    @Override
+    public Iterator<Book> iterator() {
+        return iterator(null);
+    }
+
+    // In-order iterator over the books with ISBN >= fromIsbn (null starts at the smallest ISBN)
+    public Iterator<Book> iterator(String fromIsbn) {
+        return new InorderIterator(root, fromIsbn);
+    }
+
+    // One version of the tree for reads that take several steps: its size and its books always agree, whatever
+    // writers publish meanwhile (subclasses that do not keep old versions copy their books instead)
+    Snapshot snapshot() {
+        return new Snapshot(root);
+    }
+
+    // Visit every book in ISBN order
+    @Override
+    public void forEach(Consumer<? super Book> action) {
+        forEach(null, action);
+    }
+
+    // Visit the books with ISBN >= fromIsbn in ISBN order (null starts at the smallest ISBN)
+    public void forEach(String fromIsbn, Consumer<? super Book> action) {
+        BookNode[] stack = new BookNode[MAX_HEIGHT];
+        int top = seek(root, fromIsbn, stack);
+        while (top > 0) {
+            BookNode node = stack[--top];
+            action.accept(node.book);
+            for (BookNode n = node.right; n != null; n = n.left) stack[top++] = n;
+        }
+    }
+
+    // Push the nodes with ISBN >= fromIsbn met on the way down from node; the top of the stack is then
+    // the first book of the traversal. Returns the stack depth.
+    private static int seek(BookNode node, String fromIsbn, BookNode[] stack) {
+        int top = 0;
+        while (node != null) {
+            if (fromIsbn == null || node.book.isbn.compareTo(fromIsbn) >= 0) {
+                stack[top++] = node;
+                node = node.left;
+            } else {
+                node = node.right;
+            }
+        }
+        return top;
+    }
+
+    // -------- Whole-catalog queries -------- //
+    // One full scan each (ShardedBookInventory scans its shards in parallel).
+
+    // Number of books matching the filter
+    public long count(Predicate<? super Book> filter) {
+        long[] matches = new long[1];
+        forEach(book -> {
+            if (filter.test(book)) matches[0]++;
+        });
+        return matches[0];
+    }
+
+    // The first limit books matching the filter, in ISBN order
+    public List<Book> filter(Predicate<? super Book> filter, int limit) {
+        List<Book> books = new ArrayList<>(Math.min(Math.max(limit, 0), 64));
+        for (Iterator<Book> it = iterator(); it.hasNext() && books.size() < limit; ) {
+            Book book = it.next();
+            if (filter.test(book)) books.add(book);
+        }
+        return books;
+    }
+
+    // Books whose title or author contains the text (ignoring case and surrounding whitespace)
+    static Predicate<Book> titleOrAuthorContains(String text) {
+        String needle = normalizeTitle(text);
+        return book -> book.title.toLowerCase().contains(needle) || book.author.toLowerCase().contains(needle);
+    }
+
+    // Write the books with ISBN >= fromIsbn to out as TSV rows (ISBN, Title, Author, escaped) through one large buffer;
+    // an interrupted export resumes from the ISBN of the first missing row. out is flushed but not closed.
+    // Returns the number of books written.
+    public long export(Writer out, String fromIsbn) throws IOException {
+        BufferedWriter buffered = new BufferedWriter(out, EXPORT_BUFFER_SIZE);
+        long written = 0;
+        for (Iterator<Book> it = iterator(fromIsbn); it.hasNext(); written++) {
+            Book book = it.next();
+            buffered.write(escapeTsv(book.isbn));
+            buffered.write('\t');
+            buffered.write(escapeTsv(book.title));
+            buffered.write('\t');
+            buffered.write(escapeTsv(book.author));
+            buffered.write('\n');
+        }
+        buffered.flush();
+        return written;
+    }
+
+    // A field as written to a TSV export: backslash, tab, newline and carriage return become \\, \t, \n and \r
+    // (CatalogImporter undoes this); returns the field itself when it has none of them
+    static String escapeTsv(String field) {
+        int i = 0;
+        while (i < field.length() && "\\\t\n\r".indexOf(field.charAt(i)) < 0) i++;
+        if (i == field.length()) return field;
+        StringBuilder escaped = new StringBuilder(field.length() + 8).append(field, 0, i);
+        for (; i < field.length(); i++) {
+            char c = field.charAt(i);
+            if (c == '\\') escaped.append("\\\\");
+            else if (c == '\t') escaped.append("\\t");
+            else if (c == '\n') escaped.append("\\n");
+            else if (c == '\r') escaped.append("\\r");
+            else escaped.append(c);
+        }
+        return escaped.toString();
+    }
+
     // This is the Public method to display all books in sorted order using in-order traversal
+    // (one buffered write to the console instead of a locked println per book)
     public void inorder() {
-        inorderRec(root);
+        PrintWriter out = new PrintWriter(new BufferedWriter(new OutputStreamWriter(System.out), EXPORT_BUFFER_SIZE));
+        forEach(out::println);
+        out.flush(); // Not closed: that would close System.out
+    }
+
+    // In-order iterator over one version of the tree: Left → Node → Right with an explicit stack
+    private static final class InorderIterator implements Iterator<Book> {
+        private final BookNode[] stack = new BookNode[MAX_HEIGHT];
+        private int top;
+
+        InorderIterator(BookNode root, String fromIsbn) {
+            top = seek(root, fromIsbn, stack);
+        }
+
+        @Override
+        public boolean hasNext() {
+            return top > 0;
+        }
+
+        @Override
+        public Book next() {
+            if (top == 0) throw new NoSuchElementException();
+            BookNode node = stack[--top];
+            for (BookNode n = node.right; n != null; n = n.left) stack[top++] = n;
+            return node.book;
+        }
     }
 
-    // Recursive inorder traversal: Left → Node → Right
-    private void inorderRec(BookNode root) {
-        if (root != null) {
-            inorderRec(root.left);                 // Looking the left subtree
-            System.out.println(root.book);         // Looking current node
-            inorderRec(root.right);                // Looking the right subtree
+    // A read-only view of one published version of the tree, or of books copied out of an inventory
+    static final class Snapshot implements Iterable<Book> {
+        private final int size;
+        private final Iterable<Book> books;
+
+        Snapshot(BookNode root) {
+            this(root == null ? 0 : root.size, () -> new InorderIterator(root, null));
+        }
+
+        // books must iterate exactly size books in ISBN order, however often it is iterated
+        Snapshot(int size, Iterable<Book> books) {
+            this.size = size;
+            this.books = books;
+        }
+
+        // Number of books in this version
+        int size() {
+            return size;
+        }
+
+        // The books of this version in ISBN order
+        @Override
+        public Iterator<Book> iterator() {
+            return books.iterator();
         }
     }
 }
@@ -0,0 +1,18 @@
+import java.util.List;
+
+// This is one page of search results plus the cursor to fetch the next page
+// (nextCursor is null when there are no more results)
+class BookPage {
+    final List<Book> books;
+    final String nextCursor;
+
+    BookPage(List<Book> books, String nextCursor) {
+        this.books = books;
+        this.nextCursor = nextCursor;
+    }
+
+    // True when another page can be fetched with nextCursor
+    boolean hasMore() {
+        return nextCursor != null;
+    }
+}
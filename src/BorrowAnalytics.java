@@ -0,0 +1,464 @@
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+// This BorrowAnalytics keeps "most borrowed titles" and "most active users" over a sliding time window
+// (a week by default), fed by every issue the library makes. Nothing here scans histories: each issue
+// updates two SlidingTopK trackers in O(sketch depth + log candidates), and a top-K query sorts a fixed
+// number of candidates. Memory is fixed at construction, however many users or titles there are.
+// Counts are count-min sketch estimates: never below the true count, and close to it for popular keys.
+// Sketch cells are chosen by a hash of the normalized title or the username rather than an interned ID, so the
+// whole window can be saved in a snapshot and restored after a restart, when the IDs are handed out anew.
+// Users are tracked by that hash and name alone: ranking them holds on to no user ID.
+class BorrowAnalytics {
+    // Defaults: a 7-day window in 6-hour buckets, 4 x 2048 sketch cells, 64 ranking candidates per tracker
+    static final long DEFAULT_WINDOW_MILLIS = TimeUnit.DAYS.toMillis(7);
+    static final int DEFAULT_BUCKETS = 28;
+    static final int DEFAULT_SKETCH_DEPTH = 4;
+    static final int DEFAULT_SKETCH_WIDTH = 2048;
+    static final int DEFAULT_CANDIDATES = 64;
+
+    private static final double MILLIS_PER_DAY = TimeUnit.DAYS.toMillis(1);
+
+    private final long windowMillis;
+    private final SlidingTopK titles; // by title ID (SymbolTable.TITLES)
+    private final SlidingTopK users;  // by username hash
+
+    // Creates analytics with the default window and sizes
+    BorrowAnalytics() {
+        this(DEFAULT_WINDOW_MILLIS, DEFAULT_BUCKETS, DEFAULT_SKETCH_DEPTH, DEFAULT_SKETCH_WIDTH, DEFAULT_CANDIDATES);
+    }
+
+    // Creates analytics over a window of windowMillis split into buckets (the window slides one bucket at a time);
+    // candidates bounds the largest K a top-K query can answer
+    BorrowAnalytics(long windowMillis, int buckets, int depth, int width, int candidates) {
+        if (buckets < 1 || windowMillis < buckets) {
+            throw new IllegalArgumentException("Invalid window: " + windowMillis + " ms in " + buckets + " bucket(s)");
+        }
+        this.windowMillis = windowMillis;
+        long bucketMillis = windowMillis / buckets;
+        this.titles = new SlidingTopK(bucketMillis, buckets, depth, width, candidates);
+        this.users = new SlidingTopK(bucketMillis, buckets, depth, width, candidates);
+    }
+
+    // Length of the sliding window
+    long windowMillis() {
+        return windowMillis;
+    }
+
+    // Largest K a top-K query can answer
+    int maxK() {
+        return titles.capacity();
+    }
+
+    // Count one issue of a title to a user at the given time (events may arrive slightly out of order)
+    synchronized void recordIssue(int titleId, String user, long issuedAt) {
+        titles.add(titleId, SymbolTable.TITLES.key(titleId).hashCode(), SymbolTable.TITLES.name(titleId), issuedAt);
+        users.add(user.hashCode(), user.hashCode(), user, issuedAt);
+    }
+
+    // The k most borrowed titles in the window ending now, most borrowed first
+    synchronized List<RankedCount> topTitles(int k, long now) {
+        titles.advance(now);
+        return ranked(titles.top(k), titles);
+    }
+
+    // The k users with the most issues in the window ending now, most active first
+    synchronized List<RankedCount> topUsers(int k, long now) {
+        users.advance(now);
+        return ranked(users.top(k), users);
+    }
+
+    // Issues of a title in the window ending now (an estimate that is never too low)
+    synchronized long titleCount(int titleId, long now) {
+        titles.advance(now);
+        return titleId < 0 ? 0 : titles.estimate(SymbolTable.TITLES.key(titleId).hashCode());
+    }
+
+    // Average issues per day of a title over the window ending now
+    double titleRatePerDay(int titleId, long now) {
+        return titleCount(titleId, now) / (windowMillis / MILLIS_PER_DAY);
+    }
+
+    // All issues in the window ending now (exact)
+    synchronized long totalIssues(long now) {
+        titles.advance(now);
+        return titles.windowEvents();
+    }
+
+    // -------- Persistence -------- //
+
+    // Write both windows for a snapshot; candidates are written by name, as title IDs are not kept across restarts
+    synchronized void save(DataOutputStream out) throws IOException {
+        save(out, titles);
+        save(out, users);
+    }
+
+    private static void save(DataOutputStream out, SlidingTopK tracker) throws IOException {
+        tracker.writeWindow(out);
+        long[] candidates = tracker.candidates();
+        out.writeInt(candidates.length / 2);
+        for (int i = 0; i < candidates.length; i += 2) {
+            LibraryStore.writeString(out, tracker.nameOf((int) candidates[i]));
+            out.writeLong(candidates[i + 1]);
+        }
+    }
+
+    // Restore the windows written by save (into analytics that have not counted anything yet)
+    synchronized void restore(ByteBuffer in) throws IOException {
+        titles.readWindow(in);
+        for (int i = in.getInt(); i > 0; i--) {
+            String title = LibraryStore.readString(in);
+            int titleId = SymbolTable.TITLES.intern(BookInventory.normalizeTitle(title), title);
+            titles.restoreCandidate(titleId, SymbolTable.TITLES.key(titleId).hashCode(), title, in.getLong());
+        }
+        users.readWindow(in);
+        for (int i = in.getInt(); i > 0; i--) {
+            String user = LibraryStore.readString(in);
+            users.restoreCandidate(user.hashCode(), user.hashCode(), user, in.getLong());
+        }
+    }
+
+    // Attach names to (key, count) pairs packed as {key, count, key, count, ...}
+    private static List<RankedCount> ranked(long[] top, SlidingTopK tracker) {
+        List<RankedCount> ranked = new ArrayList<>(top.length / 2);
+        for (int i = 0; i < top.length; i += 2) {
+            int key = (int) top[i];
+            ranked.add(new RankedCount(key, tracker.nameOf(key), top[i + 1]));
+        }
+        return ranked;
+    }
+}
+
+// This SlidingTopK counts int keys over a sliding window and keeps the heaviest ones ranked.
+// Every key comes with a hash that picks its sketch cells (stable for the key, unlike an ID) and a display name
+// that is kept while the key is a candidate.
+// Counting: one count-min sketch per time bucket plus their running sum for the whole window; when the window
+// slides, the expired bucket's sketch is subtracted from the sum and cleared, so a key's window count is
+// the minimum of depth cells of the sum. Ranking: a min-heap of at most capacity candidates keyed by that
+// count; a key enters when it beats the smallest candidate, and counts are refreshed whenever a bucket expires.
+// Not thread-safe (BorrowAnalytics synchronizes).
+class SlidingTopK {
+    private static final int EMPTY = -1;
+
+    private final long bucketMillis;
+    private final int buckets;
+    private final int depth;
+    private final int widthMask;
+
+    private final int[][] bucketCells; // bucket -> depth * width sketch cells
+    private final long[] bucketEvents; // bucket -> events counted in it
+    private final long[] windowCells;  // sum of the live buckets' cells
+    private long windowEvents;         // sum of the live buckets' events
+    private long currentBucket = Long.MIN_VALUE; // newest bucket number (time / bucketMillis), MIN_VALUE before any event
+
+    // Candidate min-heap: parallel arrays of keys, their hashes, names and counts
+    private final int[] heapKeys;
+    private final int[] heapHashes;
+    private final String[] heapNames;
+    private final long[] heapCounts;
+    private int heapSize;
+
+    // Candidate key -> heap index (open addressing with linear probing; EMPTY marks a free slot)
+    private final int[] slotKeys;
+    private final int[] slotIndexes;
+    private final int slotMask;
+
+    SlidingTopK(long bucketMillis, int buckets, int depth, int width, int capacity) {
+        if (bucketMillis < 1 || buckets < 1 || depth < 1 || width < 1 || capacity < 1) {
+            throw new IllegalArgumentException("Sizes must be positive");
+        }
+        int cells = 1;
+        while (cells < width) cells <<= 1; // Width rounded up to a power of 2
+        this.bucketMillis = bucketMillis;
+        this.buckets = buckets;
+        this.depth = depth;
+        this.widthMask = cells - 1;
+        this.bucketCells = new int[buckets][depth * cells];
+        this.bucketEvents = new long[buckets];
+        this.windowCells = new long[depth * cells];
+        this.heapKeys = new int[capacity];
+        this.heapHashes = new int[capacity];
+        this.heapNames = new String[capacity];
+        this.heapCounts = new long[capacity];
+        int slots = Integer.highestOneBit(capacity) << 2; // load factor <= 1/2
+        this.slotKeys = new int[slots];
+        this.slotIndexes = new int[slots];
+        this.slotMask = slots - 1;
+        Arrays.fill(slotKeys, EMPTY);
+    }
+
+    // Maximum number of ranked candidates
+    int capacity() {
+        return heapKeys.length;
+    }
+
+    // Events in the live buckets
+    long windowEvents() {
+        return windowEvents;
+    }
+
+    // -------- Counting -------- //
+
+    // Count one event for key (whose cells are picked by hash) at the given time
+    void add(int key, int hash, String name, long time) {
+        advance(time);
+        long bucket = Math.floorDiv(time, bucketMillis);
+        if (bucket <= currentBucket - buckets) return; // Already outside the window
+        int[] cells = bucketCells[(int) Math.floorMod(bucket, (long) buckets)];
+        for (int row = 0; row < depth; row++) {
+            int cell = cell(hash, row);
+            cells[cell]++;
+            windowCells[cell]++;
+        }
+        bucketEvents[(int) Math.floorMod(bucket, (long) buckets)]++;
+        windowEvents++;
+        offer(key, hash, name, estimate(hash));
+    }
+
+    // Slide the window so that it ends at time: clear the buckets that fell out and refresh the candidates
+    void advance(long time) {
+        long bucket = Math.floorDiv(time, bucketMillis);
+        if (currentBucket == Long.MIN_VALUE) {
+            currentBucket = bucket;
+            return;
+        }
+        if (bucket <= currentBucket) return;
+        for (long expired = Math.max(currentBucket + 1, bucket - buckets + 1); expired <= bucket; expired++) {
+            int b = (int) Math.floorMod(expired, (long) buckets);
+            int[] cells = bucketCells[b];
+            for (int i = 0; i < cells.length; i++) windowCells[i] -= cells[i];
+            Arrays.fill(cells, 0);
+            windowEvents -= bucketEvents[b];
+            bucketEvents[b] = 0;
+        }
+        currentBucket = bucket;
+        refresh();
+    }
+
+    // Window count of the key with the given hash: the smallest of its cells (never below the true count)
+    long estimate(int hash) {
+        long min = Long.MAX_VALUE;
+        for (int row = 0; row < depth; row++) min = Math.min(min, windowCells[cell(hash, row)]);
+        return min;
+    }
+
+    // Cell of a key's hash in a sketch row (one independent hash per row)
+    private int cell(int hash, int row) {
+        int h = hash * 0x9E3779B9 + (row + 1) * 0x7F4A7C15;
+        h ^= h >>> 16;
+        h *= 0x85EBCA6B;
+        h ^= h >>> 13;
+        h *= 0xC2B2AE35;
+        h ^= h >>> 16;
+        return row * (widthMask + 1) + (h & widthMask);
+    }
+
+    // -------- Ranking -------- //
+
+    // The k heaviest candidates, heaviest first (ties by key), packed as {key, count, key, count, ...}
+    long[] top(int k) {
+        long[] packed = new long[heapSize];
+        for (int i = 0; i < heapSize; i++) packed[i] = heapCounts[i] << 32 | (0xFFFFFFFFL & ~heapKeys[i]);
+        Arrays.sort(packed); // Ascending count, then descending key
+        int n = Math.min(Math.max(k, 0), heapSize);
+        long[] top = new long[2 * n];
+        for (int i = 0; i < n; i++) {
+            long entry = packed[heapSize - 1 - i];
+            top[2 * i] = ~(int) entry;
+            top[2 * i + 1] = entry >>> 32;
+        }
+        return top;
+    }
+
+    // Update key's count among the candidates, or let it replace the smallest candidate if it is heavier
+    private void offer(int key, int hash, String name, long count) {
+        int index = indexOf(key);
+        if (index >= 0) {
+            heapCounts[index] = count;
+            siftDown(index); // Counts only grow between refreshes
+        } else if (heapSize < heapKeys.length) {
+            heapKeys[heapSize] = key;
+            heapHashes[heapSize] = hash;
+            heapNames[heapSize] = name;
+            heapCounts[heapSize] = count;
+            put(key, heapSize);
+            siftUp(heapSize++);
+        } else if (count > heapCounts[0]) {
+            remove(heapKeys[0]);
+            heapKeys[0] = key;
+            heapHashes[0] = hash;
+            heapNames[0] = name;
+            heapCounts[0] = count;
+            put(key, 0);
+            siftDown(0);
+        }
+    }
+
+    // Re-read every candidate's count after buckets expired, drop the ones that fell to 0 and rebuild the heap
+    private void refresh() {
+        int kept = 0;
+        for (int i = 0; i < heapSize; i++) {
+            int key = heapKeys[i], hash = heapHashes[i];
+            long count = estimate(hash);
+            remove(key);
+            if (count == 0) continue;
+            heapKeys[kept] = key;
+            heapHashes[kept] = hash;
+            heapNames[kept] = heapNames[i];
+            heapCounts[kept] = count;
+            kept++;
+        }
+        Arrays.fill(heapNames, kept, heapSize, null);
+        heapSize = kept;
+        for (int i = 0; i < heapSize; i++) put(heapKeys[i], i);
+        for (int i = heapSize / 2 - 1; i >= 0; i--) siftDown(i);
+    }
+
+    private void siftUp(int index) {
+        while (index > 0) {
+            int parent = (index - 1) / 2;
+            if (heapCounts[parent] <= heapCounts[index]) return;
+            swap(index, parent);
+            index = parent;
+        }
+    }
+
+    private void siftDown(int index) {
+        while (true) {
+            int smallest = index, left = 2 * index + 1, right = left + 1;
+            if (left < heapSize && heapCounts[left] < heapCounts[smallest]) smallest = left;
+            if (right < heapSize && heapCounts[right] < heapCounts[smallest]) smallest = right;
+            if (smallest == index) return;
+            swap(index, smallest);
+            index = smallest;
+        }
+    }
+
+    private void swap(int a, int b) {
+        int key = heapKeys[a], hash = heapHashes[a];
+        String name = heapNames[a];
+        long count = heapCounts[a];
+        heapKeys[a] = heapKeys[b];
+        heapHashes[a] = heapHashes[b];
+        heapNames[a] = heapNames[b];
+        heapCounts[a] = heapCounts[b];
+        heapKeys[b] = key;
+        heapHashes[b] = hash;
+        heapNames[b] = name;
+        heapCounts[b] = count;
+        put(heapKeys[a], a);
+        put(heapKeys[b], b);
+    }
+
+    // -------- Persistence -------- //
+
+    // Write the window: its shape, the newest bucket, then per bucket its events and non-zero cells as (cell, count)
+    void writeWindow(DataOutputStream out) throws IOException {
+        out.writeLong(bucketMillis);
+        out.writeInt(buckets);
+        out.writeInt(depth);
+        out.writeInt(widthMask + 1);
+        out.writeLong(currentBucket);
+        for (int b = 0; b < buckets; b++) {
+            int[] cells = bucketCells[b];
+            int used = 0;
+            for (int cell : cells) if (cell != 0) used++;
+            out.writeLong(bucketEvents[b]);
+            out.writeInt(used);
+            for (int i = 0; i < cells.length && used > 0; i++) {
+                if (cells[i] == 0) continue;
+                out.writeInt(i);
+                out.writeInt(cells[i]);
+                used--;
+            }
+        }
+    }
+
+    // Restore a window written by writeWindow into this empty tracker; its shape must match
+    void readWindow(ByteBuffer in) throws IOException {
+        long savedBucketMillis = in.getLong();
+        int savedBuckets = in.getInt(), savedDepth = in.getInt(), savedWidth = in.getInt();
+        if (savedBucketMillis != bucketMillis || savedBuckets != buckets || savedDepth != depth || savedWidth != widthMask + 1) {
+            throw new IOException("Saved analytics window (" + savedBuckets + " x " + savedBucketMillis + " ms, "
+                    + savedDepth + " x " + savedWidth + " cells) does not match this one");
+        }
+        currentBucket = in.getLong();
+        for (int b = 0; b < buckets; b++) {
+            bucketEvents[b] = in.getLong();
+            windowEvents += bucketEvents[b];
+            int[] cells = bucketCells[b];
+            for (int i = in.getInt(); i > 0; i--) {
+                int cell = in.getInt();
+                cells[cell] = in.getInt();
+                windowCells[cell] += cells[cell];
+            }
+        }
+    }
+
+    // The candidates (in no particular order), packed as {key, count, key, count, ...}
+    long[] candidates() {
+        long[] packed = new long[2 * heapSize];
+        for (int i = 0; i < heapSize; i++) {
+            packed[2 * i] = heapKeys[i];
+            packed[2 * i + 1] = heapCounts[i];
+        }
+        return packed;
+    }
+
+    // Add a saved candidate back with its saved count
+    void restoreCandidate(int key, int hash, String name, long count) {
+        offer(key, hash, name, count);
+    }
+
+    // Display name of a candidate key (null when the key is not a candidate)
+    String nameOf(int key) {
+        int index = indexOf(key);
+        return index < 0 ? null : heapNames[index];
+    }
+
+    // -------- Candidate index (key -> heap index) -------- //
+
+    private int slot(int key) {
+        int h = key * 0x9E3779B9;
+        return (h ^ h >>> 16) & slotMask;
+    }
+
+    private int indexOf(int key) {
+        for (int s = slot(key); slotKeys[s] != EMPTY; s = (s + 1) & slotMask) {
+            if (slotKeys[s] == key) return slotIndexes[s];
+        }
+        return -1;
+    }
+
+    private void put(int key, int index) {
+        int s = slot(key);
+        while (slotKeys[s] != EMPTY && slotKeys[s] != key) s = (s + 1) & slotMask;
+        slotKeys[s] = key;
+        slotIndexes[s] = index;
+    }
+
+    // Remove key, shifting later entries of its probe run back so lookups never stop early
+    private void remove(int key) {
+        int s = slot(key);
+        while (slotKeys[s] != key) {
+            if (slotKeys[s] == EMPTY) return;
+            s = (s + 1) & slotMask;
+        }
+        int hole = s;
+        for (int next = (hole + 1) & slotMask; slotKeys[next] != EMPTY; next = (next + 1) & slotMask) {
+            int home = slot(slotKeys[next]);
+            // Move the entry into the hole unless its home lies cyclically in (hole, next]
+            boolean stays = hole <= next ? hole < home && home <= next : hole < home || home <= next;
+            if (stays) continue;
+            slotKeys[hole] = slotKeys[next];
+            slotIndexes[hole] = slotIndexes[next];
+            hole = next;
+        }
+        slotKeys[hole] = EMPTY;
+    }
+}
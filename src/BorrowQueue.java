@@ -1,57 +1,239 @@
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
 // This BorrowQueue Implements a circular queue for handling borrow requests in the library
+// It is a lock-free multi-producer / multi-consumer ring buffer: every slot carries a sequence number
+// that tells producers when the slot is free and consumers when it holds a published request.
 class BorrowQueue {
+    // Default number of requests the queue can hold
+    private static final int DEFAULT_CAPACITY = 100;
+
+    // Longest pause between retries while a blocking call waits for space or a request
+    private static final long MAX_BACKOFF_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
     // Maximum number of requests the queue can hold
-    private static final int MAX = 100;
+    private final int capacity;
 
     // Array to store the borrow requests
-    private final String[] queue = new String[MAX];
+    private final BorrowRequest[] queue;
+
+    // Sequence number per slot: == position when free for the producer of that position,
+    // == position + 1 once the request is published for the consumer of that position
+    private final AtomicLongArray sequence;
+
+    // Positions only ever grow; slot index = position % capacity
+    private final AtomicLong tail = new AtomicLong(); // next position to enqueue into
+    private final AtomicLong head = new AtomicLong(); // next position to dequeue from
+
+    // Requests turned away because the queue was full (offer returned false)
+    private final LongAdder rejected = new LongAdder();
+
+    // Creates a queue with the default capacity
+    BorrowQueue() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    // Creates a queue holding at most capacity requests
+    BorrowQueue(int capacity) {
+        if (capacity < 1) throw new IllegalArgumentException("Capacity must be positive: " + capacity);
+        this.capacity = capacity;
+        this.queue = new BorrowRequest[capacity];
+        this.sequence = new AtomicLongArray(capacity);
+        for (int i = 0; i < capacity; i++) sequence.set(i, i);
+    }
+
+    // Maximum number of requests the queue can hold
+    public int capacity() {
+        return capacity;
+    }
 
-    // Pointers to track the front and rear of the queue
-    private int front = 0;   // first element
-    private int rear = -1;   // last element
-    private int size = 0;    // current queue size
+    // Current number of pending requests (a snapshot while other threads are active)
+    public int size() {
+        long h = head.get();
+        long t = tail.get();
+        return (int) Math.max(0, Math.min(capacity, t - h));
+    }
+
+    // True when no request is pending
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    // Number of requests rejected so far because the queue was full
+    public long rejectedCount() {
+        return rejected.sum();
+    }
+
+    // -------- Non-blocking operations -------- //
+
+    // Add a borrow request if there is room; returns false instead of waiting when the queue is full
+    public boolean offer(BorrowRequest request) {
+        if (tryOffer(request)) return true;
+        rejected.increment();
+        return false;
+    }
+
+    // One attempt to enqueue (blocking callers retry it without counting a rejection each time)
+    private boolean tryOffer(BorrowRequest request) {
+        while (true) {
+            long pos = tail.get();
+            int index = (int) (pos % capacity);
+            long diff = sequence.get(index) - pos;
+            if (diff == 0) {
+                // The slot is free for this position → claim it, store the request, then publish it
+                if (tail.compareAndSet(pos, pos + 1)) {
+                    queue[index] = request;
+                    sequence.set(index, pos + 1);
+                    return true;
+                }
+            } else if (diff < 0) {
+                return false; // The slot still holds a request from one lap ago → full
+            }
+            // Another producer claimed this position first → retry with the new tail
+        }
+    }
+
+    // Remove and return the oldest borrow request, or null when the queue is empty
+    public BorrowRequest poll() {
+        while (true) {
+            long pos = head.get();
+            int index = (int) (pos % capacity);
+            long diff = sequence.get(index) - (pos + 1);
+            if (diff == 0) {
+                // The slot holds the request for this position → claim it, take it, then free the slot
+                if (head.compareAndSet(pos, pos + 1)) {
+                    BorrowRequest request = queue[index];
+                    queue[index] = null;
+                    sequence.set(index, pos + capacity);
+                    return request;
+                }
+            } else if (diff < 0) {
+                return null; // Nothing published at this position yet → empty
+            }
+            // Another consumer claimed this position first → retry with the new head
+        }
+    }
+
+    // Move up to max pending requests into batch in FIFO order; returns how many were moved
+    public int drainTo(Collection<? super BorrowRequest> batch, int max) {
+        int moved = 0;
+        while (moved < max) {
+            BorrowRequest request = poll();
+            if (request == null) break;
+            batch.add(request);
+            moved++;
+        }
+        return moved;
+    }
+
+    // Pending requests in FIFO order without removing them (a best-effort view while other threads are active)
+    public List<BorrowRequest> snapshot() {
+        long h = head.get();
+        long t = tail.get();
+        List<BorrowRequest> requests = new ArrayList<>((int) Math.max(0, Math.min(capacity, t - h)));
+        for (long pos = h; pos < t; pos++) {
+            int index = (int) (pos % capacity);
+            BorrowRequest request = queue[index];
+            // Skip slots that were consumed or not yet published while we were reading
+            if (request != null && sequence.get(index) == pos + 1) requests.add(request);
+        }
+        return requests;
+    }
+
+    // -------- Blocking operations (backpressure) -------- //
+
+    // Add a borrow request, waiting as long as needed for room
+    public void put(BorrowRequest request) throws InterruptedException {
+        long backoff = 0;
+        while (!tryOffer(request)) {
+            backoff = pause(backoff);
+        }
+    }
+
+    // Add a borrow request, waiting up to the timeout for room; returns false if it timed out
+    public boolean offer(BorrowRequest request, long timeout, TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        long backoff = 0;
+        while (!tryOffer(request)) {
+            if (System.nanoTime() - deadline >= 0) {
+                rejected.increment();
+                return false;
+            }
+            backoff = pause(backoff);
+        }
+        return true;
+    }
+
+    // Remove and return the oldest borrow request, waiting as long as needed for one
+    public BorrowRequest take() throws InterruptedException {
+        long backoff = 0;
+        BorrowRequest request;
+        while ((request = poll()) == null) {
+            backoff = pause(backoff);
+        }
+        return request;
+    }
+
+    // Remove and return the oldest borrow request, waiting up to the timeout; returns null if it timed out
+    public BorrowRequest poll(long timeout, TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        long backoff = 0;
+        BorrowRequest request;
+        while ((request = poll()) == null) {
+            if (System.nanoTime() - deadline >= 0) return null;
+            backoff = pause(backoff);
+        }
+        return request;
+    }
+
+    // Wait a little before retrying: spin first, then park for exponentially longer (capped) pauses
+    private static long pause(long backoff) throws InterruptedException {
+        if (Thread.interrupted()) throw new InterruptedException();
+        if (backoff == 0) {
+            Thread.onSpinWait();
+            return 1;
+        }
+        LockSupport.parkNanos(backoff);
+        return Math.min(backoff * 2, MAX_BACKOFF_NANOS);
+    }
+
+    // -------- Menu helpers -------- //
 
     // This is the way to Add a borrow request to the queue
-    public void enqueue(String request) {
-        if (size == MAX) {
+    public void enqueue(BorrowRequest request) {
+        if (!offer(request)) {
             System.out.println("Queue is full!");
-            return;
         }
-        // Move the rear pointer in a circular manner using modulo
-        rear = (rear + 1) % MAX;
-        // Store the request at the rear position
-        queue[rear] = request;
-        // Increase the size for the coming element
-        size++;
     }
 
     // This is the way to Remove and return the oldest borrow request (FIFO order)
-    public String dequeue() {
-        if (size == 0) {
+    public BorrowRequest dequeue() {
+        BorrowRequest request = poll();
+        if (request == null) {
             System.out.println("Queue is empty!");
-            return null;
         }
-        // Get the request at the front of the queue
-        String request = queue[front];
-        // Move the front pointer to the next element circularly
-        front = (front + 1) % MAX;
-        // Decrease size since one element was removed
-        size--;
-        return request; // Return the removed request
+        return request;
     }
 
     // This is the way to Display all borrow requests in the queue in the correct order
+    // (a best-effort view while other threads are enqueueing or dequeueing)
     public void display() {
-        if (size == 0) {
+        List<BorrowRequest> requests = snapshot();
+        if (requests.isEmpty()) {
             System.out.println("Queue is empty!");
             return;
         }
-        System.out.print("Borrow Requests: ");
-        // Loop through all current elements in the queue
-        for (int i = 0; i < size; i++) {
-            // Use modulo to wrap around an array when necessary
-            System.out.print(queue[(front + i) % MAX] + " | ");
+        StringBuilder line = new StringBuilder("Borrow Requests: ");
+        // Loop through all pending requests in FIFO order
+        for (BorrowRequest request : requests) {
+            line.append(request).append(" | ");
         }
-        System.out.println(); // New line after displaying all requests
+        System.out.println(line); // New line after displaying all requests
     }
 }
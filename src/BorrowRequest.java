@@ -0,0 +1,39 @@
+// This is a borrow request: who wants which title, when it was queued and how urgent it is.
+// Titles are interned int IDs (see SymbolTable) and users are their username, so queueing and issuing never
+// build or parse strings, and a request does not depend on its user having a history.
+class BorrowRequest {
+    // Priorities: they order the waitlist of a title whose copies are all out (the borrow queue stays FIFO)
+    static final int NORMAL_PRIORITY = 0; // Regular members
+    static final int STAFF_PRIORITY = 1;  // Library staff
+    static final int HOLD_PRIORITY = 2;   // A hold placed at the desk: first in line for the next copy
+    static final int MAX_PRIORITY = HOLD_PRIORITY;
+
+    final String user;      // Username of the borrower
+    final int titleId;      // ID in SymbolTable.TITLES (normalized title)
+    final long enqueuedAt;  // System.currentTimeMillis() when the request was made
+    final int priority;     // Higher is more urgent (NORMAL_PRIORITY for regular members)
+
+    // Constructor
+    BorrowRequest(String user, int titleId, long enqueuedAt, int priority) {
+        this.user = user;
+        this.titleId = titleId;
+        this.enqueuedAt = enqueuedAt;
+        this.priority = priority;
+    }
+
+    // Username of the borrower
+    String user() {
+        return user;
+    }
+
+    // Catalog title of the requested book
+    String title() {
+        return SymbolTable.TITLES.name(titleId);
+    }
+
+    // Overriding toString() method
+    @Override
+    public String toString() {
+        return user() + "|" + title();
+    }
+}
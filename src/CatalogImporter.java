@@ -0,0 +1,182 @@
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+// This CatalogImporter bulk-loads a publisher file of books into a Library.
+// The file is CSV or TSV with the columns ISBN, Title, Author and an optional header row. The separator is chosen
+// once per file: from the extension (.csv / .tsv), else from the first non-blank line (a tab means TSV), so a
+// stray tab inside a CSV title cannot switch one row to the other format. TSV fields are unescaped (\t, \n, \r
+// and \\, as BookInventory.escapeTsv writes them), so titles and authors with tabs or newlines round-trip.
+// Rows are streamed through a large buffered reader, sorted and deduplicated by ISBN off the main tree,
+// then handed to BookInventory.bulkLoad, which rebuilds a perfectly balanced tree in linear time.
+// Malformed and duplicate rows are written to a side file (reason <TAB> line number <TAB> row) and skipped.
+// exportFile writes the inventory back out in the same TSV format, so an export can be imported again.
+class CatalogImporter {
+    // Read and write buffer size
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    // This is the result of one import
+    static class Report {
+        long rowsRead;      // Data rows in the file (header and blank lines excluded)
+        long imported;      // Books added to the inventory
+        long rejected;      // Rows written to the rejects file
+        long elapsedNanos;  // Wall-clock time of the whole import
+
+        // Rows processed per second
+        double rowsPerSecond() {
+            return elapsedNanos == 0 ? 0 : rowsRead * 1_000_000_000.0 / elapsedNanos;
+        }
+
+        // Overriding toString() method
+        @Override
+        public String toString() {
+            return String.format("Read %d row(s): %d imported, %d rejected in %.1f ms (%.0f rows/sec)",
+                    rowsRead, imported, rejected, elapsedNanos / 1_000_000.0, rowsPerSecond());
+        }
+    }
+
+    // A parsed row and its line number (kept to report duplicates)
+    private static final class Row {
+        final Book book;
+        final long line;
+
+        Row(Book book, long line) {
+            this.book = book;
+            this.line = line;
+        }
+    }
+
+    // Import file into library, writing rejected rows to rejectsFile
+    static Report importFile(Library library, Path file, Path rejectsFile) throws IOException {
+        long start = System.nanoTime();
+        Report report = new Report();
+        List<Row> rows = new ArrayList<>();
+
+        try (BufferedReader in = new BufferedReader(Files.newBufferedReader(file, StandardCharsets.UTF_8), BUFFER_SIZE);
+             BufferedWriter rejects = Files.newBufferedWriter(rejectsFile, StandardCharsets.UTF_8)) {
+            // 1) Stream and parse every row
+            String line;
+            long lineNo = 0;
+            char separator = separatorOf(file);
+            while ((line = in.readLine()) != null) {
+                lineNo++;
+                if (line.trim().isEmpty()) continue;
+                if (separator == 0) separator = line.indexOf('\t') >= 0 ? '\t' : ',';
+                List<String> fields = split(line, separator);
+                if (lineNo == 1 && !fields.isEmpty() && fields.get(0).trim().equalsIgnoreCase("isbn")) continue; // Header
+
+                report.rowsRead++;
+                if (fields.size() != 3) {
+                    reject(rejects, report, "malformed: expected 3 fields, found " + fields.size(), lineNo, line);
+                    continue;
+                }
+                String isbn = fields.get(0).trim();
+                String title = fields.get(1).trim();
+                String author = fields.get(2).trim();
+                if (isbn.isEmpty() || title.isEmpty() || author.isEmpty()) {
+                    reject(rejects, report, "malformed: empty field", lineNo, line);
+                    continue;
+                }
+                rows.add(new Row(new Book(isbn, title, author), lineNo));
+            }
+
+            // 2) Sort by ISBN (stable, so the first row of a duplicate ISBN wins) and drop duplicates
+            rows.sort(Comparator.comparing(row -> row.book.isbn));
+            BookInventory inventory = library.inventory();
+            List<Book> books = new ArrayList<>(rows.size());
+            String previous = null;
+            for (Row row : rows) {
+                String isbn = row.book.isbn;
+                if (isbn.equals(previous)) {
+                    reject(rejects, report, "duplicate ISBN in file", row.line, format(row.book));
+                } else if (inventory.containsIsbn(isbn)) {
+                    reject(rejects, report, "ISBN already in inventory", row.line, format(row.book));
+                } else {
+                    books.add(row.book);
+                }
+                previous = isbn;
+            }
+
+            // 3) Build the balanced tree and the indexes in one pass
+            report.imported = library.importBooks(books);
+        }
+
+        report.elapsedNanos = System.nanoTime() - start;
+        return report;
+    }
+
+    // Write the books with ISBN >= fromIsbn (null for all of them) to a TSV file with a header row;
+    // returns the number of books written
+    static long exportFile(BookInventory inventory, Path file, String fromIsbn) throws IOException {
+        try (Writer out = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+            out.write("ISBN\tTitle\tAuthor\n");
+            return inventory.export(out, fromIsbn);
+        }
+    }
+
+    // Separator given by the file extension, or 0 when the first line has to decide
+    static char separatorOf(Path file) {
+        String name = file.getFileName().toString().toLowerCase();
+        if (name.endsWith(".tsv")) return '\t';
+        if (name.endsWith(".csv")) return ',';
+        return 0;
+    }
+
+    // Split a CSV or TSV line on the file's separator; CSV fields may be quoted ("a, b" and "" for a literal quote),
+    // TSV fields are unescaped (\ followed by t, n, r or \)
+    static List<String> split(String line, char separator) {
+        List<String> fields = new ArrayList<>(3);
+        StringBuilder field = new StringBuilder();
+        boolean quoted = false;
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (quoted) {
+                if (c == '"' && i + 1 < line.length() && line.charAt(i + 1) == '"') {
+                    field.append('"');
+                    i++;
+                } else if (c == '"') {
+                    quoted = false;
+                } else {
+                    field.append(c);
+                }
+            } else if (c == '"' && separator == ',' && field.toString().trim().isEmpty()) {
+                field.setLength(0);
+                quoted = true;
+            } else if (c == '\\' && separator == '\t' && i + 1 < line.length()) {
+                char escaped = line.charAt(++i);
+                field.append(escaped == 't' ? '\t' : escaped == 'n' ? '\n' : escaped == 'r' ? '\r' : escaped);
+            } else if (c == separator) {
+                fields.add(field.toString());
+                field.setLength(0);
+            } else {
+                field.append(c);
+            }
+        }
+        fields.add(field.toString());
+        return fields;
+    }
+
+    // Write one rejected row to the side file
+    private static void reject(BufferedWriter rejects, Report report, String reason, long lineNo, String row) throws IOException {
+        rejects.write(reason);
+        rejects.write('\t');
+        rejects.write(Long.toString(lineNo));
+        rejects.write('\t');
+        rejects.write(row);
+        rejects.newLine();
+        report.rejected++;
+    }
+
+    // A parsed book as an escaped TSV row
+    private static String format(Book book) {
+        return BookInventory.escapeTsv(book.isbn) + '\t' + BookInventory.escapeTsv(book.title) + '\t'
+                + BookInventory.escapeTsv(book.author);
+    }
+}
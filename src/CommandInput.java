@@ -0,0 +1,76 @@
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.util.NoSuchElementException;
+
+// This CommandInput feeds the menu its answers: lines typed at the console, or a command file in batch mode.
+// A command file holds exactly what a user would type, one answer per line; in batch mode a line may also
+// carry several answers separated by tabs (e.g. "1<TAB>978-0132350884<TAB>Clean Code<TAB>Robert Martin"),
+// which are handed out one prompt at a time. Input is read through one large buffer and prompts are only
+// printed in interactive mode, so a replay prints exactly the results an interactive session would.
+class CommandInput implements Closeable {
+    // Read buffer size for command files
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    private final BufferedReader reader;
+    private final boolean interactive;
+
+    // Answers left over from the current tab-separated line (batch mode only)
+    private String[] pending;
+    private int next;
+
+    private CommandInput(BufferedReader reader, boolean interactive) {
+        this.reader = reader;
+        this.interactive = interactive;
+    }
+
+    // Answers typed at the console
+    static CommandInput interactive() {
+        return new CommandInput(new BufferedReader(new InputStreamReader(System.in)), true);
+    }
+
+    // Answers read from a command file (or piped stdin)
+    static CommandInput batch(Reader commands) {
+        return new CommandInput(new BufferedReader(commands, BUFFER_SIZE), false);
+    }
+
+    // True when a person is typing (menus and prompts are shown)
+    boolean isInteractive() {
+        return interactive;
+    }
+
+    // Show a prompt (interactive mode only)
+    void prompt(String text) {
+        if (interactive) System.out.print(text);
+    }
+
+    // The next answer; throws NoSuchElementException at the end of the input (as Scanner.nextLine does)
+    String nextLine() {
+        if (pending != null) {
+            String answer = pending[next++];
+            if (next == pending.length) pending = null;
+            return answer;
+        }
+        String line;
+        try {
+            line = reader.readLine();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        if (line == null) throw new NoSuchElementException("End of input");
+        if (interactive || line.indexOf('\t') < 0) return line;
+        String[] answers = line.split("\t", -1);
+        pending = answers;
+        next = 1;
+        return answers[0];
+    }
+
+    // Close the underlying reader
+    @Override
+    public void close() throws IOException {
+        reader.close();
+    }
+}
@@ -0,0 +1,942 @@
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
+import java.util.function.IntFunction;
+import java.util.function.IntPredicate;
+import java.util.function.IntUnaryOperator;
+
+// This CompactBookInventory is a BookInventory for multi-million-title catalogs: same API and orderings,
+// but a handful of primitive arrays instead of a Book + BookNode object graph (and three index entries) per book.
+//  - ISBNs and titles are packed as UTF-8 into one byte arena, on-heap or off-heap (direct ByteBuffer)
+//  - Authors are stored once each in a dictionary and referenced by an int ID
+//  - The ISBN tree and the two prefix-search orders (title, author) are AVL trees linked by int node IDs
+//  - Copy counts live in the inherited CopyStock, with node IDs as stock slots
+// Book objects are only created for the results of a read. Reads share a read lock and writers take the
+// write lock (instead of the lock-free snapshots of BookInventory); iterators fetch one page per lock,
+// so a long traversal never blocks writers and sees their changes weakly, like the prefix searches do.
+// Run InventoryFootprint (benchmarks module) to compare the bytes per book of both inventories.
+class CompactBookInventory extends BookInventory {
+    private static final int NIL = IntAvlTree.NIL;
+
+    // Node slots allocated up front (the arrays grow by half when full)
+    private static final int INITIAL_CAPACITY = 1024;
+
+    // Books fetched per lock acquisition while iterating
+    private static final int ITERATOR_PAGE = 256;
+
+    // Rewrite the arena once deleted records waste more than half of it (and at least this much)
+    private static final int MIN_ARENA_GARBAGE = 1 << 20;
+
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private final boolean offHeap;
+    private ByteArena arena;
+
+    // Per node ID: arena offset of the (ISBN, title) record, author ID, title ID (see SymbolTable.TITLES)
+    // and the next node with the same title (NIL at the end of the chain)
+    private int[] record = new int[INITIAL_CAPACITY];
+    private int[] authorOf = new int[INITIAL_CAPACITY];
+    private int[] titleOf = new int[INITIAL_CAPACITY];
+    private int[] nextSameTitle = new int[INITIAL_CAPACITY];
+    private int nodes;          // Node IDs handed out so far
+    private int freeHead = NIL; // Deleted node IDs, chained through record[]
+    private int count;          // Books in the inventory
+
+    // Title ID -> first node of its chain (NIL when no book has that title)
+    private int[] titleHead = new int[0];
+
+    // Author dictionary: ID -> display name and normalized name, display name -> ID (never shrinks)
+    private final Map<String, Integer> authorIds = new HashMap<>();
+    private String[] authorNames = new String[16];
+    private String[] authorKeys = new String[16];
+
+    private final IntAvlTree byIsbn;   // ISBN order
+    private final IntAvlTree byTitle;  // Normalized title, then ISBN
+    private final IntAvlTree byAuthor; // Normalized author, then ISBN
+
+    // Creates an empty compact inventory; offHeap keeps the ISBN and title bytes outside the Java heap
+    CompactBookInventory(boolean offHeap) {
+        this.offHeap = offHeap;
+        this.arena = new ByteArena(INITIAL_CAPACITY * 32, offHeap);
+        byIsbn = new IntAvlTree(INITIAL_CAPACITY, (a, b) -> arena.compareFirst(record[a], record[b]));
+        byTitle = new IntAvlTree(INITIAL_CAPACITY, (a, b) -> {
+            int cmp = titleOf[a] == titleOf[b] ? 0
+                    : SymbolTable.TITLES.key(titleOf[a]).compareTo(SymbolTable.TITLES.key(titleOf[b]));
+            return cmp != 0 ? cmp : arena.compareFirst(record[a], record[b]);
+        });
+        byAuthor = new IntAvlTree(INITIAL_CAPACITY, (a, b) -> {
+            int cmp = authorOf[a] == authorOf[b] ? 0 : authorKeys[authorOf[a]].compareTo(authorKeys[authorOf[b]]);
+            return cmp != 0 ? cmp : arena.compareFirst(record[a], record[b]);
+        });
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    @Override
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return count;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // A new empty compact inventory with the same arena placement
+    @Override
+    BookInventory emptyCopy() {
+        return new CompactBookInventory(offHeap);
+    }
+
+    // No old versions to keep: every book is copied out under one hold of the read lock (isbnRange reads its
+    // whole page under it), so the copy is the latest version and later writes do not touch it
+    @Override
+    Snapshot snapshot() {
+        List<Book> books = Collections.unmodifiableList(isbnRange(null, null, null, Integer.MAX_VALUE).books);
+        return new Snapshot(books.size(), books);
+    }
+
+    @Override
+    public int height() {
+        lock.readLock().lock();
+        try {
+            return byIsbn.height();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // -------- Insert / Delete -------- //
+
+    // Returns false if a book with the same ISBN is already in the inventory
+    @Override
+    public boolean insert(Book book, int copies) {
+        checkCopies(copies);
+        byte[] isbn = utf8(book.isbn);
+        lock.writeLock().lock();
+        try {
+            if (find(isbn) != NIL) return false;
+            add(book, isbn, copies);
+            return true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    // Returns false if no book has that ISBN
+    @Override
+    public boolean delete(String isbn) {
+        byte[] probe = utf8(isbn);
+        lock.writeLock().lock();
+        try {
+            int node = find(probe);
+            if (node == NIL) return false;
+            byIsbn.delete(node);
+            byTitle.delete(node);
+            byAuthor.delete(node);
+            unlinkTitle(node);
+            stock.clear(node);
+            arena.free(record[node]);
+            record[node] = freeHead;
+            freeHead = node;
+            count--;
+            if (arena.garbage() > Math.max(MIN_ARENA_GARBAGE, arena.used() / 2)) compactArena();
+            return true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    // Books are inserted one by one (O(m log n)): unlike the object tree, the int-linked trees are
+    // updated in place, so there is no path-copying garbage to avoid. Duplicate ISBNs are skipped.
+    @Override
+    public int bulkLoad(List<Book> books) {
+        lock.writeLock().lock();
+        try {
+            int added = 0;
+            for (Book book : books) {
+                byte[] isbn = utf8(book.isbn);
+                if (find(isbn) != NIL) continue;
+                add(book, isbn, 1);
+                added++;
+            }
+            return added;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    // Store a book under a new node ID and link it into every tree (caller holds the write lock)
+    private void add(Book book, byte[] isbn, int copies) {
+        int node = newNode();
+        record[node] = arena.append(isbn, utf8(book.title));
+        authorOf[node] = authorId(book.author);
+        int titleId = indexTitle(book);
+        titleOf[node] = titleId;
+        stock.init(node, titleId, copies, 0, 0);
+        linkTitle(node, titleId);
+        byIsbn.insert(node);
+        byTitle.insert(node);
+        byAuthor.insert(node);
+        count++;
+    }
+
+    // A free node ID, growing every per-node array when all are in use
+    private int newNode() {
+        if (freeHead != NIL) {
+            int node = freeHead;
+            freeHead = record[node];
+            return node;
+        }
+        if (nodes == record.length) {
+            int capacity = record.length + (record.length >> 1);
+            record = Arrays.copyOf(record, capacity);
+            authorOf = Arrays.copyOf(authorOf, capacity);
+            titleOf = Arrays.copyOf(titleOf, capacity);
+            nextSameTitle = Arrays.copyOf(nextSameTitle, capacity);
+            byIsbn.grow(capacity);
+            byTitle.grow(capacity);
+            byAuthor.grow(capacity);
+        }
+        return nodes++;
+    }
+
+    // ID of an author in the dictionary, adding it if needed
+    private int authorId(String author) {
+        Integer id = authorIds.get(author);
+        if (id != null) return id;
+        int newId = authorIds.size();
+        if (newId == authorNames.length) {
+            authorNames = Arrays.copyOf(authorNames, newId * 2);
+            authorKeys = Arrays.copyOf(authorKeys, newId * 2);
+        }
+        authorNames[newId] = author;
+        authorKeys[newId] = normalizeTitle(author);
+        authorIds.put(author, newId);
+        return newId;
+    }
+
+    // Link a node into the chain of its title (ISBN order, as BookInventory lists them)
+    private void linkTitle(int node, int titleId) {
+        if (titleId >= titleHead.length) {
+            int old = titleHead.length;
+            titleHead = Arrays.copyOf(titleHead, Math.max(titleId + 1, old + (old >> 1) + 16));
+            Arrays.fill(titleHead, old, titleHead.length, NIL);
+        }
+        String isbn = arena.first(record[node]);
+        int head = titleHead[titleId];
+        if (head == NIL || arena.first(record[head]).compareTo(isbn) > 0) {
+            nextSameTitle[node] = head;
+            titleHead[titleId] = node;
+            return;
+        }
+        int previous = head;
+        while (nextSameTitle[previous] != NIL && arena.first(record[nextSameTitle[previous]]).compareTo(isbn) < 0) {
+            previous = nextSameTitle[previous];
+        }
+        nextSameTitle[node] = nextSameTitle[previous];
+        nextSameTitle[previous] = node;
+    }
+
+    // Remove a node from the chain of its title
+    private void unlinkTitle(int node) {
+        int titleId = titleOf[node];
+        if (titleHead[titleId] == node) {
+            titleHead[titleId] = nextSameTitle[node];
+            return;
+        }
+        int previous = titleHead[titleId];
+        while (nextSameTitle[previous] != node) previous = nextSameTitle[previous];
+        nextSameTitle[previous] = nextSameTitle[node];
+    }
+
+    // Copy the live records into a fresh arena, dropping the bytes of deleted books
+    private void compactArena() {
+        ByteArena fresh = new ByteArena(Math.max(arena.used() - arena.garbage(), INITIAL_CAPACITY), offHeap);
+        int[] stack = new int[IntAvlTree.MAX_HEIGHT];
+        int top = byIsbn.seek(n -> -1, true, stack);
+        while (top > 0) {
+            int node = stack[--top];
+            record[node] = fresh.copy(arena, record[node]);
+            top = byIsbn.pushLeftSpine(byIsbn.right(node), stack, top);
+        }
+        arena.release();
+        arena = fresh;
+    }
+
+    // -------- Lookups -------- //
+
+    // Node with the given UTF-8 ISBN, or NIL (caller holds a lock)
+    private int find(byte[] isbn) {
+        return byIsbn.find(n -> arena.compareFirst(isbn, record[n]));
+    }
+
+    // A new Book object for a node (caller holds a lock)
+    private Book book(int node) {
+        int offset = record[node];
+        return new Book(arena.first(offset), arena.second(offset), authorNames[authorOf[node]]);
+    }
+
+    @Override
+    public Book findBook(String isbn) {
+        byte[] probe = utf8(isbn);
+        lock.readLock().lock();
+        try {
+            int node = find(probe);
+            return node == NIL ? null : book(node);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public boolean containsIsbn(String isbn) {
+        if (isbn == null || isbn.trim().isEmpty()) return false; // Guard against invalid input
+        byte[] probe = utf8(isbn.trim());
+        lock.readLock().lock();
+        try {
+            return find(probe) != NIL;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public boolean hasTitle(String title) {
+        if (title == null || title.trim().isEmpty()) return false; // Edge case
+        return hasTitleId(SymbolTable.TITLES.idOf(normalizeTitle(title)));
+    }
+
+    @Override
+    public int titleId(String title) {
+        if (title == null) return -1;
+        int id = SymbolTable.TITLES.idOf(normalizeTitle(title));
+        return hasTitleId(id) ? id : -1;
+    }
+
+    @Override
+    public boolean hasTitleId(int titleId) {
+        if (titleId < 0) return false;
+        lock.readLock().lock();
+        try {
+            return titleId < titleHead.length && titleHead[titleId] != NIL;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public List<String> isbnsForTitle(String title) {
+        int titleId = SymbolTable.TITLES.idOf(normalizeTitle(title));
+        if (titleId < 0) return Collections.emptyList();
+        lock.readLock().lock();
+        try {
+            if (titleId >= titleHead.length) return Collections.emptyList();
+            List<String> isbns = new ArrayList<>(1);
+            for (int node = titleHead[titleId]; node != NIL; node = nextSameTitle[node]) {
+                isbns.add(arena.first(record[node]));
+            }
+            return isbns;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // -------- Copies -------- //
+    // Transitions run under the read lock, so they proceed in parallel (one CAS each) and a node ID
+    // is never reused by a writer while a transition is looking at it.
+
+    @Override
+    public CopyCounts copies(String isbn) {
+        byte[] probe = utf8(isbn);
+        lock.readLock().lock();
+        try {
+            int node = find(probe);
+            return node == NIL ? null : stock.counts(node);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public boolean addCopies(String isbn, int n) {
+        return transition(isbn, node -> stock.addCopies(node, n));
+    }
+
+    @Override
+    String transition(int titleId, CopyStock.Transition transition) {
+        if (titleId < 0 || (transition.takesAvailable() && stock.available(titleId) == 0)) return null;
+        lock.readLock().lock();
+        try {
+            if (titleId >= titleHead.length) return null;
+            for (int node = titleHead[titleId]; node != NIL; node = nextSameTitle[node]) {
+                if (stock.apply(node, transition)) return arena.first(record[node]);
+            }
+            return null;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    boolean transition(String isbn, CopyStock.Transition transition) {
+        return transition(isbn, node -> stock.apply(node, transition));
+    }
+
+    // Run an update on the node of an ISBN under the read lock; false when the ISBN is unknown
+    private boolean transition(String isbn, IntPredicate update) {
+        byte[] probe = utf8(isbn);
+        lock.readLock().lock();
+        try {
+            int node = find(probe);
+            return node != NIL && update.test(node);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    boolean setCopies(String isbn, int total, int reserved, int issued) {
+        byte[] probe = utf8(isbn);
+        lock.writeLock().lock();
+        try {
+            int node = find(probe);
+            if (node == NIL) return false;
+            stock.clear(node);
+            stock.init(node, titleOf[node], total, reserved, issued);
+            return true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    // -------- Paged searches -------- //
+    // Same orderings and cursors as BookInventory; ISBNs are compared as UTF-8 bytes, which orders them like
+    // String.compareTo except around supplementary characters.
+
+    @Override
+    public BookPage searchTitlePrefix(String prefix, String cursor, int limit) {
+        return prefixPage(byTitle, n -> SymbolTable.TITLES.key(titleOf[n]), normalizeTitle(prefix), cursor, limit);
+    }
+
+    @Override
+    public BookPage searchAuthorPrefix(String prefix, String cursor, int limit) {
+        return prefixPage(byAuthor, n -> authorKeys[authorOf[n]], normalizeTitle(prefix), cursor, limit);
+    }
+
+    // Walk a text order from the prefix (or just past the cursor "text \0 ISBN") until the prefix stops matching
+    private BookPage prefixPage(IntAvlTree tree, IntFunction<String> textOf, String prefix, String cursor, int limit) {
+        if (limit < 1) limit = 1;
+        IntUnaryOperator start;
+        if (cursor == null) {
+            // "prefix" sorts before every "text \0 ISBN" key whose text is >= prefix
+            start = n -> prefix.compareTo(textOf.apply(n)) <= 0 ? -1 : 1;
+        } else {
+            int split = cursor.lastIndexOf('\0');
+            String text = cursor.substring(0, Math.max(split, 0));
+            byte[] isbn = utf8(cursor.substring(split + 1));
+            start = n -> {
+                int cmp = text.compareTo(textOf.apply(n));
+                return cmp != 0 ? cmp : arena.compareFirst(isbn, record[n]);
+            };
+        }
+
+        List<Book> books = new ArrayList<>(Math.min(limit, 64));
+        lock.readLock().lock();
+        try {
+            int[] stack = new int[IntAvlTree.MAX_HEIGHT];
+            int top = tree.seek(start, false, stack);
+            int last = NIL;
+            while (top > 0) {
+                int node = stack[--top];
+                if (!textOf.apply(node).startsWith(prefix)) break;
+                // One more match than the page holds → there is a next page
+                if (books.size() == limit) {
+                    return new BookPage(books, textOf.apply(last) + '\0' + books.get(limit - 1).isbn);
+                }
+                books.add(book(node));
+                last = node;
+                top = tree.pushLeftSpine(tree.right(node), stack, top);
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        return new BookPage(books, null);
+    }
+
+    @Override
+    public BookPage isbnRange(String fromIsbn, String toIsbn, String cursor, int limit) {
+        if (limit < 1) limit = 1;
+        String start = cursor != null ? cursor : fromIsbn;
+        byte[] startBytes = start == null ? null : utf8(start);
+        byte[] toBytes = toIsbn == null ? null : utf8(toIsbn);
+        List<Book> books = new ArrayList<>(Math.min(limit, 64));
+        lock.readLock().lock();
+        try {
+            int[] stack = new int[IntAvlTree.MAX_HEIGHT];
+            int top = byIsbn.seek(startBytes == null ? n -> -1 : n -> arena.compareFirst(startBytes, record[n]),
+                    cursor == null, stack);
+            while (top > 0) {
+                int node = stack[--top];
+                if (toBytes != null && arena.compareFirst(toBytes, record[node]) < 0) break;
+                if (books.size() == limit) return new BookPage(books, books.get(limit - 1).isbn);
+                books.add(book(node));
+                top = byIsbn.pushLeftSpine(byIsbn.right(node), stack, top);
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        return new BookPage(books, null);
+    }
+
+    // -------- Traversal -------- //
+
+    @Override
+    public Iterator<Book> iterator(String fromIsbn) {
+        return new PagedIterator(fromIsbn);
+    }
+
+    // The action runs outside the lock, so it may call back into the inventory
+    @Override
+    public void forEach(String fromIsbn, Consumer<? super Book> action) {
+        for (Iterator<Book> it = iterator(fromIsbn); it.hasNext(); ) action.accept(it.next());
+    }
+
+    // -------- Footprint -------- //
+
+    // Bytes held by the per-node arrays, the trees, the title heads and the author dictionary (estimated:
+    // ~64 bytes of map entry and strings per author plus 2 bytes per character), excluding the arena
+    long indexBytes() {
+        lock.readLock().lock();
+        try {
+            long bytes = 4L * (record.length + authorOf.length + titleOf.length + nextSameTitle.length)
+                    + byIsbn.bytes() + byTitle.bytes() + byAuthor.bytes() + 4L * titleHead.length
+                    + 8L * (authorNames.length + authorKeys.length);
+            for (int i = 0; i < authorIds.size(); i++) {
+                bytes += 64 + 2L * authorNames[i].length()
+                        + (authorKeys[i].equals(authorNames[i]) ? 0 : 40 + 2L * authorKeys[i].length());
+            }
+            return bytes;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // Capacity of the ISBN/title arena in bytes (on or off the heap, see isOffHeap())
+    long arenaBytes() {
+        lock.readLock().lock();
+        try {
+            return arena.capacity();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // True when the arena lives outside the Java heap
+    boolean isOffHeap() {
+        return offHeap;
+    }
+
+    // Number of distinct authors in the dictionary
+    int authorCount() {
+        lock.readLock().lock();
+        try {
+            return authorIds.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // UTF-8 bytes of a string
+    private static byte[] utf8(String text) {
+        return text.getBytes(StandardCharsets.UTF_8);
+    }
+
+    // Iterator that fetches one ISBN page at a time, each under its own read lock
+    private final class PagedIterator implements Iterator<Book> {
+        private List<Book> page;
+        private String cursor;
+        private int next;
+
+        PagedIterator(String fromIsbn) {
+            BookPage first = isbnRange(fromIsbn, null, null, ITERATOR_PAGE);
+            page = first.books;
+            cursor = first.nextCursor;
+        }
+
+        @Override
+        public boolean hasNext() {
+            if (next < page.size()) return true;
+            if (cursor == null) return false;
+            BookPage more = isbnRange(null, null, cursor, ITERATOR_PAGE);
+            page = more.books;
+            cursor = more.nextCursor;
+            next = 0;
+            return !page.isEmpty();
+        }
+
+        @Override
+        public Book next() {
+            if (!hasNext()) throw new NoSuchElementException();
+            return page.get(next++);
+        }
+    }
+}
+
+// This ByteArena packs records of two UTF-8 strings back to back into one growable ByteBuffer
+// (heap or direct): [length varint][bytes][length varint][bytes]. A record is addressed by its int offset.
+// Freed records are only counted; the owner copies the live ones into a new arena to reclaim them.
+// Not thread-safe: the owner locks around it.
+class ByteArena {
+    private ByteBuffer buffer;
+    private final boolean direct;
+    private int used;     // Bytes written so far
+    private int garbage;  // Bytes of freed records
+
+    ByteArena(int capacity, boolean direct) {
+        this.direct = direct;
+        this.buffer = allocate(capacity);
+    }
+
+    private ByteBuffer allocate(int capacity) {
+        return direct ? ByteBuffer.allocateDirect(capacity) : ByteBuffer.allocate(capacity);
+    }
+
+    // Append a record of two strings; returns its offset
+    int append(byte[] first, byte[] second) {
+        ensure(varintSize(first.length) + first.length + varintSize(second.length) + second.length);
+        int offset = used;
+        used = put(second, put(first, used));
+        return offset;
+    }
+
+    // Copy one record of another arena into this one; returns its offset here
+    int copy(ByteArena from, int offset) {
+        int length = from.recordLength(offset);
+        ensure(length);
+        buffer.put(used, from.buffer, offset, length);
+        used += length;
+        return used - length;
+    }
+
+    // Count a record as garbage
+    void free(int offset) {
+        garbage += recordLength(offset);
+    }
+
+    // First and second string of a record
+    String first(int offset) {
+        return string(offset);
+    }
+
+    String second(int offset) {
+        return string(skip(offset));
+    }
+
+    // Compare UTF-8 bytes (unsigned) with the first string of a record
+    int compareFirst(byte[] probe, int offset) {
+        int length = varint(offset);
+        int start = offset + varintSize(length);
+        int common = Math.min(probe.length, length);
+        for (int i = 0; i < common; i++) {
+            int cmp = (probe[i] & 0xFF) - (buffer.get(start + i) & 0xFF);
+            if (cmp != 0) return cmp;
+        }
+        return probe.length - length;
+    }
+
+    // Compare the first strings of two records
+    int compareFirst(int a, int b) {
+        int lengthA = varint(a), lengthB = varint(b);
+        int startA = a + varintSize(lengthA), startB = b + varintSize(lengthB);
+        int common = Math.min(lengthA, lengthB);
+        for (int i = 0; i < common; i++) {
+            int cmp = (buffer.get(startA + i) & 0xFF) - (buffer.get(startB + i) & 0xFF);
+            if (cmp != 0) return cmp;
+        }
+        return lengthA - lengthB;
+    }
+
+    int used() {
+        return used;
+    }
+
+    int garbage() {
+        return garbage;
+    }
+
+    int capacity() {
+        return buffer.capacity();
+    }
+
+    // Drop the buffer (a direct one is freed once collected)
+    void release() {
+        buffer = null;
+    }
+
+    // -------- Encoding helpers -------- //
+
+    private String string(int offset) {
+        int length = varint(offset);
+        byte[] bytes = new byte[length];
+        buffer.get(offset + varintSize(length), bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    // Offset of the second string of a record
+    private int skip(int offset) {
+        int length = varint(offset);
+        return offset + varintSize(length) + length;
+    }
+
+    private int recordLength(int offset) {
+        int second = skip(offset);
+        int length = varint(second);
+        return second + varintSize(length) + length - offset;
+    }
+
+    // Write a length-prefixed string at position; returns the position after it
+    private int put(byte[] bytes, int position) {
+        int length = bytes.length;
+        while (length >= 0x80) {
+            buffer.put(position++, (byte) (length | 0x80));
+            length >>>= 7;
+        }
+        buffer.put(position++, (byte) length);
+        buffer.put(position, bytes);
+        return position + bytes.length;
+    }
+
+    // Read the length prefix at offset (7 bits per byte, low bits first)
+    private int varint(int offset) {
+        int value = 0;
+        for (int shift = 0; ; shift += 7) {
+            byte b = buffer.get(offset++);
+            value |= (b & 0x7F) << shift;
+            if (b >= 0) return value;
+        }
+    }
+
+    private static int varintSize(int value) {
+        int size = 1;
+        while (value >= 0x80) {
+            value >>>= 7;
+            size++;
+        }
+        return size;
+    }
+
+    // Make room for more bytes, growing by half (at most to the largest possible buffer)
+    private void ensure(int more) {
+        if (used + more <= buffer.capacity()) return;
+        long wanted = Math.max((long) used + more, (long) buffer.capacity() + (buffer.capacity() >> 1));
+        if ((long) used + more > Integer.MAX_VALUE - 8) throw new IllegalStateException("Book arena is full (2 GB)");
+        ByteBuffer bigger = allocate((int) Math.min(wanted, Integer.MAX_VALUE - 8));
+        bigger.put(0, buffer, 0, used);
+        buffer = bigger;
+    }
+}
+
+// This IntAvlTree is an AVL tree over int node IDs whose links and heights live in primitive arrays indexed
+// by node ID, so several trees can order the same nodes with no per-node objects. The order of two nodes is
+// given by a comparator over their IDs; searches take a probe that compares a search key with a node.
+// Updates are in place and iterative. Not thread-safe: the owner locks around it.
+class IntAvlTree {
+    static final int NIL = -1;
+
+    // An AVL tree with 2^31 nodes is at most ~45 levels deep, so 64 slots always fit a root-to-leaf path
+    static final int MAX_HEIGHT = 64;
+
+    // Order of two nodes (negative, zero or positive like Comparator.compare)
+    interface NodeOrder {
+        int compare(int a, int b);
+    }
+
+    private final NodeOrder order;
+    private int[] left;
+    private int[] right;
+    private byte[] height;
+    private int root = NIL;
+
+    IntAvlTree(int capacity, NodeOrder order) {
+        this.order = order;
+        this.left = new int[capacity];
+        this.right = new int[capacity];
+        this.height = new byte[capacity];
+    }
+
+    // Make room for node IDs below capacity
+    void grow(int capacity) {
+        left = Arrays.copyOf(left, capacity);
+        right = Arrays.copyOf(right, capacity);
+        height = Arrays.copyOf(height, capacity);
+    }
+
+    // Bytes held by the link and height arrays
+    long bytes() {
+        return 4L * (left.length + right.length) + height.length;
+    }
+
+    int height() {
+        return height(root);
+    }
+
+    int right(int node) {
+        return right[node];
+    }
+
+    private int height(int node) {
+        return node == NIL ? 0 : height[node];
+    }
+
+    private void update(int node) {
+        height[node] = (byte) (Math.max(height(left[node]), height(right[node])) + 1);
+    }
+
+    private int rotateRight(int node) {
+        int pivot = left[node];
+        left[node] = right[pivot];
+        right[pivot] = node;
+        update(node);
+        update(pivot);
+        return pivot;
+    }
+
+    private int rotateLeft(int node) {
+        int pivot = right[node];
+        right[node] = left[pivot];
+        left[pivot] = node;
+        update(node);
+        update(pivot);
+        return pivot;
+    }
+
+    // Restore the AVL property at node after one of its subtrees changed height by one; returns the new subtree root
+    private int rebalance(int node) {
+        update(node);
+        int diff = height(left[node]) - height(right[node]);
+        if (diff > 1) {
+            if (height(left[left[node]]) < height(right[left[node]])) left[node] = rotateLeft(left[node]); // Left-Right
+            return rotateRight(node);
+        }
+        if (diff < -1) {
+            if (height(right[right[node]]) < height(left[right[node]])) right[node] = rotateRight(right[node]); // Right-Left
+            return rotateLeft(node);
+        }
+        return node;
+    }
+
+    // Rebalance the recorded path bottom-up, relinking every subtree into its parent
+    private void fixPath(int[] path, boolean[] wentLeft, int depth) {
+        for (int i = depth - 1; i >= 0; i--) {
+            link(path, wentLeft, i, rebalance(path[i]));
+        }
+    }
+
+    // Make subtree the child of path[i - 1] that path[i] was (or the root when i == 0)
+    private void link(int[] path, boolean[] wentLeft, int i, int subtree) {
+        if (i == 0) root = subtree;
+        else if (wentLeft[i - 1]) left[path[i - 1]] = subtree;
+        else right[path[i - 1]] = subtree;
+    }
+
+    // Insert a node that is not in the tree yet (no two nodes may compare equal)
+    void insert(int node) {
+        left[node] = NIL;
+        right[node] = NIL;
+        height[node] = 1;
+        int[] path = new int[MAX_HEIGHT];
+        boolean[] wentLeft = new boolean[MAX_HEIGHT];
+        int depth = 0;
+        for (int n = root; n != NIL; ) {
+            boolean goLeft = order.compare(node, n) < 0;
+            path[depth] = n;
+            wentLeft[depth++] = goLeft;
+            n = goLeft ? left[n] : right[n];
+        }
+        path[depth] = node;
+        link(path, wentLeft, depth, node);
+        fixPath(path, wentLeft, depth);
+    }
+
+    // Remove a node that is in the tree
+    void delete(int node) {
+        int[] path = new int[MAX_HEIGHT];
+        boolean[] wentLeft = new boolean[MAX_HEIGHT];
+        int depth = 0;
+        for (int n = root; n != node; ) {
+            boolean goLeft = order.compare(node, n) < 0;
+            path[depth] = n;
+            wentLeft[depth++] = goLeft;
+            n = goLeft ? left[n] : right[n];
+        }
+
+        if (left[node] != NIL && right[node] != NIL) {
+            // Two children: unlink the inorder successor and put it in the node's place
+            int target = depth;
+            path[depth] = node;
+            wentLeft[depth++] = false;
+            int successor = right[node];
+            while (left[successor] != NIL) {
+                path[depth] = successor;
+                wentLeft[depth++] = true;
+                successor = left[successor];
+            }
+            link(path, wentLeft, depth, right[successor]);
+            left[successor] = left[node];
+            right[successor] = right[node];
+            height[successor] = height[node];
+            path[target] = successor;
+            link(path, wentLeft, target, successor);
+        } else {
+            // At most one child: it takes the node's place
+            link(path, wentLeft, depth, left[node] != NIL ? left[node] : right[node]);
+        }
+        fixPath(path, wentLeft, depth);
+    }
+
+    // Node for which the probe (search key compared with a node) returns 0, or NIL
+    int find(IntUnaryOperator probe) {
+        int node = root;
+        while (node != NIL) {
+            int cmp = probe.applyAsInt(node);
+            if (cmp == 0) return node;
+            node = cmp < 0 ? left[node] : right[node];
+        }
+        return NIL;
+    }
+
+    // Push the nodes after the search key (and equal to it when inclusive) met on the way down;
+    // the top of the stack is then the first node of an in-order walk from the key. Returns the stack depth.
+    int seek(IntUnaryOperator probe, boolean inclusive, int[] stack) {
+        int top = 0;
+        int node = root;
+        while (node != NIL) {
+            int cmp = probe.applyAsInt(node);
+            if (cmp < 0 || (cmp == 0 && inclusive)) {
+                stack[top++] = node;
+                node = left[node];
+            } else {
+                node = right[node];
+            }
+        }
+        return top;
+    }
+
+    // Push node and its chain of left children (the next step of an in-order walk); returns the stack depth
+    int pushLeftSpine(int node, int[] stack, int top) {
+        for (int n = node; n != NIL; n = left[n]) stack[top++] = n;
+        return top;
+    }
+}
@@ -0,0 +1,28 @@
+// This CopyCounts is one consistent reading of a book's copies (or the sum over the books of a title)
+class CopyCounts {
+    final int total;
+    final int reserved;
+    final int issued;
+
+    CopyCounts(int total, int reserved, int issued) {
+        this.total = total;
+        this.reserved = reserved;
+        this.issued = issued;
+    }
+
+    // Copies on the shelf
+    int available() {
+        return total - reserved - issued;
+    }
+
+    // Sum of two readings (for a title with several ISBNs)
+    CopyCounts plus(CopyCounts other) {
+        return new CopyCounts(total + other.total, reserved + other.reserved, issued + other.issued);
+    }
+
+    // Overriding toString() method
+    @Override
+    public String toString() {
+        return available() + " of " + total + " available (" + reserved + " reserved, " + issued + " issued)";
+    }
+}
@@ -0,0 +1,223 @@
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+// This CopyStock tracks the copies of every book in the inventory: total, reserved and issued counts
+// (available = total - reserved - issued) in one stock slot per ISBN, handed out by the inventory.
+// The three counts of a slot are packed into one long, so every transition (reserve, issue, return, ...)
+// is a single CAS: concurrent issuers and returners never take a lock and never see a torn state.
+// Per title, the available and the issued copies of all its books are also summed (updated right after every
+// slot transition), so an out-of-stock title is rejected and a title's issued copies are counted in O(1)
+// without visiting its books.
+// Clearing a slot CASes it to the CLEARED marker, which every transition rejects: a transition either
+// lands before the clear (which then subtracts its effect from the title's sums) or fails, so a transition
+// racing with a delete can never update the sums of a title its slot no longer belongs to.
+class CopyStock {
+    // Copy transitions of one slot, with their effect on the available and issued counts
+    enum Transition {
+        RESERVE(-1, 0),            // available → reserved
+        ISSUE(-1, 1),              // available → issued
+        ISSUE_RESERVED(0, 1),      // reserved → issued
+        CANCEL_RESERVATION(1, 0),  // reserved → available
+        RETURN(1, -1);             // issued → available
+
+        final int availableDelta;
+        final int issuedDelta;
+
+        Transition(int availableDelta, int issuedDelta) {
+            this.availableDelta = availableDelta;
+            this.issuedDelta = issuedDelta;
+        }
+
+        // True when the transition needs an available copy
+        boolean takesAvailable() {
+            return availableDelta < 0;
+        }
+    }
+
+    // Each count has 21 bits: total | reserved << 21 | issued << 42
+    private static final int COUNT_BITS = 21;
+    static final int MAX_COPIES = (1 << COUNT_BITS) - 1;
+
+    // State of a cleared slot: only the sign bit, which no packed counts use (it reads as all counts 0)
+    private static final long CLEARED = Long.MIN_VALUE;
+
+    private final LongChunks states = new LongChunks();    // slot -> packed counts
+    private final LongChunks titles = new LongChunks();    // slot -> title ID + 1 (0 = unused slot)
+    private final LongChunks available = new LongChunks(); // title ID -> available copies of all its books
+    private final LongChunks issued = new LongChunks();    // title ID -> issued copies of all its books
+
+    // -------- Packing -------- //
+
+    private static long pack(long total, long reserved, long issued) {
+        return total | reserved << COUNT_BITS | issued << (2 * COUNT_BITS);
+    }
+
+    private static int total(long state) {
+        return (int) (state & MAX_COPIES);
+    }
+
+    private static int reserved(long state) {
+        return (int) (state >>> COUNT_BITS & MAX_COPIES);
+    }
+
+    private static int issued(long state) {
+        return (int) (state >>> (2 * COUNT_BITS) & MAX_COPIES);
+    }
+
+    private static int available(long state) {
+        return total(state) - reserved(state) - issued(state);
+    }
+
+    // -------- Slots -------- //
+
+    // Start tracking a book of the given title in an unused slot
+    void init(int slot, int titleId, int total, int reserved, int issued) {
+        if (total < 0 || total > MAX_COPIES || reserved < 0 || issued < 0 || reserved + issued > total) {
+            throw new IllegalArgumentException("Invalid copy counts: " + total + " total, " + reserved
+                    + " reserved, " + issued + " issued");
+        }
+        titles.set(slot, titleId + 1L);
+        states.set(slot, pack(total, reserved, issued));
+        available.addAndGet(titleId, total - reserved - issued);
+        if (issued != 0) this.issued.addAndGet(titleId, issued);
+    }
+
+    // Stop tracking a slot (its book was deleted); returns its last counts
+    CopyCounts clear(int slot) {
+        long state;
+        do {
+            state = states.get(slot);
+            if (state == CLEARED) return new CopyCounts(0, 0, 0);
+        } while (!states.compareAndSet(slot, state, CLEARED));
+        int titleId = (int) titles.get(slot) - 1;
+        titles.set(slot, 0);
+        if (titleId >= 0) {
+            available.addAndGet(titleId, -available(state));
+            if (issued(state) != 0) issued.addAndGet(titleId, -issued(state));
+        }
+        return new CopyCounts(total(state), reserved(state), issued(state));
+    }
+
+    // Current counts of a slot
+    CopyCounts counts(int slot) {
+        long state = states.get(slot);
+        return new CopyCounts(total(state), reserved(state), issued(state));
+    }
+
+    // Apply a transition if the slot's counts allow it; returns false (and changes nothing) otherwise,
+    // also when the slot is unused or cleared
+    boolean apply(int slot, Transition transition) {
+        int titleId = (int) titles.get(slot) - 1; // Read before the state: a clear CASes the state first
+        if (titleId < 0) return false;
+        while (true) {
+            long state = states.get(slot);
+            if (state == CLEARED) return false;
+            long total = total(state), reserved = reserved(state), issuedCount = issued(state);
+            switch (transition) {
+                case RESERVE:
+                    if (available(state) <= 0) return false;
+                    reserved++;
+                    break;
+                case ISSUE:
+                    if (available(state) <= 0) return false;
+                    issuedCount++;
+                    break;
+                case ISSUE_RESERVED:
+                    if (reserved <= 0) return false;
+                    reserved--;
+                    issuedCount++;
+                    break;
+                case CANCEL_RESERVATION:
+                    if (reserved <= 0) return false;
+                    reserved--;
+                    break;
+                case RETURN:
+                    if (issuedCount <= 0) return false;
+                    issuedCount--;
+                    break;
+            }
+            if (states.compareAndSet(slot, state, pack(total, reserved, issuedCount))) {
+                if (transition.availableDelta != 0) available.addAndGet(titleId, transition.availableDelta);
+                if (transition.issuedDelta != 0) issued.addAndGet(titleId, transition.issuedDelta);
+                return true;
+            }
+        }
+    }
+
+    // Add n copies to a slot (n < 0 removes available copies); returns false when the result is impossible
+    boolean addCopies(int slot, int n) {
+        int titleId = (int) titles.get(slot) - 1;
+        if (titleId < 0) return false;
+        while (true) {
+            long state = states.get(slot);
+            long total = total(state) + (long) n;
+            if (state == CLEARED || total > MAX_COPIES || available(state) + (long) n < 0) return false;
+            if (states.compareAndSet(slot, state, pack(total, reserved(state), issued(state)))) {
+                available.addAndGet(titleId, n);
+                return true;
+            }
+        }
+    }
+
+    // Available copies of all books with the given title ID (O(1); 0 for an unknown title)
+    int available(int titleId) {
+        return titleId < 0 ? 0 : (int) Math.max(0, available.get(titleId));
+    }
+
+    // Issued copies of all books with the given title ID (O(1); 0 for an unknown title)
+    int issued(int titleId) {
+        return titleId < 0 ? 0 : (int) Math.max(0, issued.get(titleId));
+    }
+
+    // This LongChunks is a growable array of atomic longs kept in fixed-size chunks that never move,
+    // so growing it loses no concurrent update (chunks are allocated on first use); missing entries read as 0
+    private static final class LongChunks {
+        private static final int CHUNK_BITS = 10;
+        private static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+        private static final int CHUNK_MASK = CHUNK_SIZE - 1;
+
+        private volatile AtomicLongArray[] chunks = new AtomicLongArray[0];
+
+        long get(int index) {
+            AtomicLongArray[] current = chunks;
+            int c = index >>> CHUNK_BITS;
+            AtomicLongArray chunk = c < current.length ? current[c] : null;
+            return chunk == null ? 0 : chunk.get(index & CHUNK_MASK);
+        }
+
+        void set(int index, long value) {
+            chunk(index).set(index & CHUNK_MASK, value);
+        }
+
+        long getAndSet(int index, long value) {
+            return chunk(index).getAndSet(index & CHUNK_MASK, value);
+        }
+
+        boolean compareAndSet(int index, long expected, long value) {
+            return chunk(index).compareAndSet(index & CHUNK_MASK, expected, value);
+        }
+
+        long addAndGet(int index, long delta) {
+            return chunk(index).addAndGet(index & CHUNK_MASK, delta);
+        }
+
+        private AtomicLongArray chunk(int index) {
+            AtomicLongArray[] current = chunks;
+            int c = index >>> CHUNK_BITS;
+            AtomicLongArray chunk = c < current.length ? current[c] : null;
+            return chunk != null ? chunk : allocate(c);
+        }
+
+        // Allocate chunk c; the directory is copied, the existing chunks are shared
+        private synchronized AtomicLongArray allocate(int c) {
+            AtomicLongArray[] current = chunks;
+            if (c < current.length && current[c] != null) return current[c];
+            // Only a chunk past the end grows the directory (filling a hole keeps its length)
+            int length = c < current.length ? current.length : Math.max(c + 1, current.length * 2);
+            AtomicLongArray[] grown = Arrays.copyOf(current, length);
+            grown[c] = new AtomicLongArray(CHUNK_SIZE);
+            chunks = grown;
+            return grown[c];
+        }
+    }
+}
@@ -0,0 +1,31 @@
+// This is one entry of a user's history: which book was issued and when
+class HistoryEntry {
+    final int bookId;     // ID in SymbolTable.BOOKS (the issued ISBN and its title)
+    final long issuedAt;  // System.currentTimeMillis() when the book was issued
+
+    HistoryEntry(int bookId, long issuedAt) {
+        this.bookId = bookId;
+        this.issuedAt = issuedAt;
+    }
+
+    // ISBN of the copy that was issued ("" for an entry added by title only)
+    String isbn() {
+        return SymbolTable.BOOKS.name(bookId);
+    }
+
+    // ID of the book's title in SymbolTable.TITLES
+    int titleId() {
+        return SymbolTable.BOOKS.value(bookId);
+    }
+
+    // Catalog title of the book
+    String title() {
+        return SymbolTable.TITLES.name(titleId());
+    }
+
+    // Overriding toString() method
+    @Override
+    public String toString() {
+        return title();
+    }
+}
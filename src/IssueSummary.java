@@ -0,0 +1,42 @@
+import java.util.List;
+
+// This IssueSummary is the result of issuing borrow requests in one pass:
+// the drained requests in FIFO order and one outcome per request
+class IssueSummary {
+    // What happened to a single request
+    enum Outcome {
+        ISSUED,           // A copy was handed out, added to the user's history and counted as issued
+        WAITLISTED,       // Every copy was out: the request now waits for a return on its title's waitlist
+        NOT_IN_INVENTORY, // The title was no longer in the catalog
+        OUT_OF_STOCK      // Every copy was out and the waitlists were full
+    }
+
+    final List<BorrowRequest> requests; // Requests in the order they were dequeued
+    final Outcome[] outcomes;           // outcomes[i] belongs to requests.get(i)
+    int issued;                         // Number of ISSUED outcomes
+    int waitlisted;                     // Number of WAITLISTED outcomes
+    int rejected;                       // Number of requests that were neither issued nor waitlisted
+
+    // Constructor (every outcome is filled in by the batch run)
+    IssueSummary(List<BorrowRequest> requests) {
+        this(requests, new Outcome[requests.size()]);
+    }
+
+    // Constructor for outcomes collected while the requests were drained
+    IssueSummary(List<BorrowRequest> requests, Outcome[] outcomes) {
+        this.requests = requests;
+        this.outcomes = outcomes;
+    }
+
+    // Total number of requests taken from the queue
+    int processed() {
+        return requests.size();
+    }
+
+    // Overriding toString() method
+    @Override
+    public String toString() {
+        return "Processed " + processed() + " request(s): " + issued + " issued, " + waitlisted + " waitlisted, "
+                + rejected + " rejected";
+    }
+}
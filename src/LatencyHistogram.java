@@ -0,0 +1,97 @@
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+// This LatencyHistogram records durations (nanoseconds) into HDR-style log-linear buckets:
+// values below 64 get a bucket each, and every larger power of two is split into 32 equal sub-buckets,
+// so any recorded value is known to within ~3% while the whole range up to an hour needs ~1200 buckets.
+// Every bucket is a striped LongAdder, so threads recording at the same time do not contend and
+// record() never allocates or locks. Reads (percentiles, counts) sum the buckets and are meant for dumps.
+class LatencyHistogram {
+    // 2^5 = 32 sub-buckets per power of two
+    private static final int SUB_BUCKET_BITS = 5;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+    // Larger values are recorded as this one
+    static final long MAX_VALUE = TimeUnit.HOURS.toNanos(1);
+
+    private final LongAdder[] buckets = new LongAdder[indexOf(MAX_VALUE) + 1];
+    private final LongAdder count = new LongAdder();
+    private final LongAdder total = new LongAdder();
+    private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+    // Creates an empty histogram
+    LatencyHistogram() {
+        for (int i = 0; i < buckets.length; i++) buckets[i] = new LongAdder();
+    }
+
+    // Bucket of a value: exact below 2 * SUB_BUCKETS, then the top SUB_BUCKET_BITS + 1 bits of the value
+    static int indexOf(long value) {
+        if (value < 2 * SUB_BUCKETS) return (int) Math.max(value, 0);
+        int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+        return (shift << SUB_BUCKET_BITS) + (int) (value >>> shift);
+    }
+
+    // Largest value that falls into a bucket
+    static long highestValueIn(int index) {
+        if (index < 2 * SUB_BUCKETS) return index;
+        int shift = (index >>> SUB_BUCKET_BITS) - 1;
+        long top = (index & (SUB_BUCKETS - 1)) + SUB_BUCKETS;
+        return ((top + 1) << shift) - 1;
+    }
+
+    // Record one duration in nanoseconds
+    void record(long nanos) {
+        long value = Math.min(Math.max(nanos, 0), MAX_VALUE);
+        buckets[indexOf(value)].increment();
+        count.increment();
+        total.add(value);
+        max.accumulate(value);
+    }
+
+    // Number of recorded values
+    long count() {
+        return count.sum();
+    }
+
+    // Mean of the recorded values (0 when empty)
+    double mean() {
+        long n = count.sum();
+        return n == 0 ? 0 : (double) total.sum() / n;
+    }
+
+    // Largest recorded value (0 when empty)
+    long max() {
+        return max.get();
+    }
+
+    // Values at the given percentiles (0-100, ascending) from one pass over the buckets;
+    // each is the top of the bucket holding that percentile, never more than the recorded maximum
+    long[] percentiles(double... percentiles) {
+        long[] counts = new long[buckets.length];
+        long n = 0;
+        for (int i = 0; i < buckets.length; i++) {
+            counts[i] = buckets[i].sum();
+            n += counts[i];
+        }
+        long[] values = new long[percentiles.length];
+        long largest = max.get();
+        int bucket = 0;
+        long seen = 0;
+        for (int p = 0; p < percentiles.length; p++) {
+            if (n == 0) break;
+            long rank = Math.max(1, (long) Math.ceil(percentiles[p] / 100.0 * n));
+            while (bucket < counts.length - 1 && seen + counts[bucket] < rank) seen += counts[bucket++];
+            values[p] = Math.min(highestValueIn(bucket), largest);
+        }
+        return values;
+    }
+
+    // Forget every recorded value (not atomic with concurrent record() calls)
+    void reset() {
+        for (LongAdder bucket : buckets) bucket.reset();
+        count.reset();
+        total.reset();
+        max.reset();
+    }
+}
@@ -0,0 +1,629 @@
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+// This Library ties the 4 main modules and the waitlists together and performs every menu operation.
+// Each mutating operation is applied under the library lock and, when the library is persistent,
+// appended to the write-ahead log in the same order; the fsync happens after the lock is released,
+// so concurrent callers share it (group commit). Reads go straight to the modules.
+// Durability guarantee: an operation that returns normally is durable. A change is visible to other threads
+// from the moment it is applied, before its fsync. If writing or fsyncing the log fails, the failing call throws
+// and the library is rolled back to what a restart would recover (the snapshot plus the durable part of the log),
+// dropping every change whose record did not reach the disk; from then on every mutation is refused until the
+// library is reopened. An operation that threw may or may not survive a restart.
+// Every operation's latency (fsync included) is recorded in the library's Metrics.
+public class Library implements Closeable {
+    // Write-ahead log operation codes, one record format each (never renumber: existing logs depend on them)
+    private static final byte OP_ADD_BOOK = 1;        // isbn, title, author, copies, issuedAt
+    private static final byte OP_DELETE_BOOK = 2;     // isbn
+    private static final byte OP_BORROW = 3;          // user, title, requestedAt, priority
+    private static final byte OP_ISSUE = 4;           // max, lookahead, issuedAt
+    private static final byte OP_RECORD_RETURN = 5;   // title
+    private static final byte OP_PROCESS_RETURNS = 6; // max, issuedAt
+    private static final byte OP_REMOVE_HISTORY = 7;  // user, title
+    private static final byte OP_ADD_COPIES = 8;      // isbn, n, issuedAt
+    private static final byte OP_IMPORT = 9;          // issuedAt, count, then (isbn, title, author) per book
+
+    // An import is logged and applied in batches whose records stay well below the log's record size limit
+    private static final int IMPORT_RECORD_BYTES = 512 << 10;
+
+    // Requests issue(max) may drain past max to look beyond titles with no copy on the shelf
+    // (those move to their waitlists); the rest stay queued for the next call
+    private static final int ISSUE_LOOKAHEAD = 64;
+
+    // Result of a borrow request
+    enum BorrowResult { ADDED, NOT_IN_INVENTORY, QUEUE_FULL }
+
+    // Result of recording a returned book
+    enum ReturnResult { RECORDED, NOT_IN_INVENTORY, NOT_ISSUED, STACK_FULL }
+
+    // Writes the fields of one log record
+    private interface RecordBody {
+        void write(DataOutputStream out) throws IOException;
+    }
+
+    // --- These are Our 4 main modules ---
+    // (replaced together, under the library lock, only when a failed log write is rolled back)
+    private volatile BookInventory inventory;
+    private volatile BorrowQueue borrowQueue;
+    private volatile ReturnStack returnStack;
+    private volatile UserHistory history;
+
+    // Requests waiting for a copy of a title to come back
+    private volatile Waitlists waitlists;
+
+    // Top titles and users over a sliding window, fed by every issue
+    private volatile BorrowAnalytics analytics = new BorrowAnalytics();
+
+    // Call counts, latencies and module gauges
+    private final Metrics metrics;
+
+    // Persistence (null for an in-memory library and while a persistent one is being recovered)
+    private volatile LibraryStore store;
+
+    // When false, operations return once logged and the log is fsynced at the next snapshot or on close
+    private volatile boolean syncOnCommit = true;
+
+    // Set once a failed log write has been rolled back (guarded by this)
+    private boolean rolledBack;
+
+    // Creates an empty in-memory library
+    public Library() {
+        this(new BookInventory());
+    }
+
+    // Creates an empty in-memory library over the given (empty) inventory, e.g. a CompactBookInventory
+    public Library(BookInventory inventory) {
+        this(inventory, new BorrowQueue(), new ReturnStack(), new UserHistory());
+    }
+
+    // Creates a library over the given modules (issued copies are counted by the inventory)
+    Library(BookInventory inventory, BorrowQueue borrowQueue, ReturnStack returnStack, UserHistory history) {
+        this.inventory = inventory;
+        this.borrowQueue = borrowQueue;
+        this.returnStack = returnStack;
+        this.history = history;
+        this.waitlists = new Waitlists();
+        this.metrics = new Metrics(this);
+    }
+
+    // Opens a persistent library stored in dir: loads the latest snapshot and replays the log tail
+    public static Library open(Path dir) throws IOException {
+        return LibraryStore.open(dir);
+    }
+
+    // Opens a persistent library stored in dir, loading its books into the given (empty) inventory
+    public static Library open(Path dir, BookInventory inventory) throws IOException {
+        return LibraryStore.open(dir, inventory);
+    }
+
+    // Start logging mutations to store (called once recovery is complete)
+    void attach(LibraryStore store) {
+        this.store = store;
+    }
+
+    // Choose whether every operation waits for its log record to be fsynced (the default) or not (bulk replays);
+    // turning it back on makes everything logged so far durable
+    void setSyncOnCommit(boolean sync) {
+        syncOnCommit = sync;
+        LibraryStore current = store;
+        if (sync && current != null) {
+            try {
+                current.syncAll();
+            } catch (IOException e) {
+                throw persistFailed(current, e);
+            }
+        }
+    }
+
+    public BookInventory inventory() {
+        return inventory;
+    }
+
+    public BorrowQueue borrowQueue() {
+        return borrowQueue;
+    }
+
+    public ReturnStack returnStack() {
+        return returnStack;
+    }
+
+    public UserHistory history() {
+        return history;
+    }
+
+    public Waitlists waitlists() {
+        return waitlists;
+    }
+
+    BorrowAnalytics analytics() {
+        return analytics;
+    }
+
+    Metrics metrics() {
+        return metrics;
+    }
+
+    // -------- Operations -------- //
+
+    // Add a book with one copy to the inventory; returns false if the ISBN is already taken
+    public boolean addBook(String isbn, String title, String author) {
+        return addBook(isbn, title, author, 1);
+    }
+
+    // Add a book with the given number of copies; returns false if the ISBN is already taken.
+    // The new copies go to requests waiting for its title first.
+    public boolean addBook(String isbn, String title, String author, int copies) {
+        return addBook(isbn, title, author, copies, System.currentTimeMillis());
+    }
+
+    // Add a book with the given number of copies, issuing them at the given time to requests waiting for its title
+    boolean addBook(String isbn, String title, String author, int copies, long issuedAt) {
+        long startNanos = System.nanoTime();
+        try {
+            long position;
+            synchronized (this) {
+                checkWritable();
+                if (!inventory.insert(new Book(isbn, title, author), copies)) return false;
+                fulfillAll(BookInventory.titleIdOf(title), issuedAt);
+                position = log(OP_ADD_BOOK, out -> {
+                    out.writeUTF(isbn);
+                    out.writeUTF(title);
+                    out.writeUTF(author);
+                    out.writeInt(copies);
+                    out.writeLong(issuedAt);
+                });
+            }
+            commit(position);
+            return true;
+        } finally {
+            metrics.record(Metrics.Op.ADD_BOOK, startNanos);
+        }
+    }
+
+    // Delete a book by ISBN; returns false if no book has that ISBN
+    public boolean deleteBook(String isbn) {
+        long startNanos = System.nanoTime();
+        try {
+            long position;
+            synchronized (this) {
+                checkWritable();
+                // Copies still out are no longer expected back: clearing the book's stock slot stops counting them
+                Book book = inventory.findBook(isbn);
+                if (!inventory.delete(isbn)) return false;
+                // Nobody can be served once the last book with the title is gone
+                if (book != null && !inventory.hasTitle(book.title)) waitlists.clear(BookInventory.titleIdOf(book.title));
+                position = log(OP_DELETE_BOOK, out -> out.writeUTF(isbn));
+            }
+            commit(position);
+            return true;
+        } finally {
+            metrics.record(Metrics.Op.DELETE_BOOK, startNanos);
+        }
+    }
+
+    // Add many books at once (sorted by ISBN, no duplicates) by rebuilding the inventory in O(n) per batch;
+    // each batch is logged as one record before it is loaded. New copies go to waiting requests first.
+    // Returns how many were added.
+    public int importBooks(List<Book> sortedBooks) {
+        return importBooks(sortedBooks, System.currentTimeMillis());
+    }
+
+    // Add many books at once, issuing their copies at the given time to requests waiting for their titles
+    int importBooks(List<Book> sortedBooks, long issuedAt) {
+        long position = 0;
+        int added = 0;
+        synchronized (this) {
+            checkWritable();
+            for (int from = 0, to; from < sortedBooks.size(); from = to) {
+                // Modified UTF-8 takes at most 3 bytes per char, plus a 2-byte length per string
+                long bytes = 12;
+                for (to = from; to < sortedBooks.size() && bytes < IMPORT_RECORD_BYTES; to++) {
+                    Book book = sortedBooks.get(to);
+                    bytes += 6 + 3L * (book.isbn.length() + book.title.length() + book.author.length());
+                }
+                List<Book> batch = sortedBooks.subList(from, to);
+                position = log(OP_IMPORT, out -> {
+                    out.writeLong(issuedAt);
+                    out.writeInt(batch.size());
+                    for (Book book : batch) {
+                        out.writeUTF(book.isbn);
+                        out.writeUTF(book.title);
+                        out.writeUTF(book.author);
+                    }
+                });
+                int loaded = inventory.bulkLoad(batch);
+                added += loaded;
+                // New copies go to requests waiting for their titles first (an empty waitlist is skipped in O(1))
+                if (loaded > 0) for (Book book : batch) fulfillAll(BookInventory.titleIdOf(book.title), issuedAt);
+            }
+        }
+        commit(position);
+        return added;
+    }
+
+    // Add n copies of a book (n < 0 removes available copies); returns false if the ISBN is unknown
+    // or the book does not have that many copies on the shelf. New copies go to waiting requests first.
+    public boolean addCopies(String isbn, int n) {
+        return addCopies(isbn, n, System.currentTimeMillis());
+    }
+
+    // Add n copies of a book, issuing them at the given time to requests waiting for its title
+    boolean addCopies(String isbn, int n, long issuedAt) {
+        long position;
+        synchronized (this) {
+            checkWritable();
+            if (!inventory.addCopies(isbn, n)) return false;
+            Book book = inventory.findBook(isbn);
+            if (book != null) fulfillAll(BookInventory.titleIdOf(book.title), issuedAt);
+            position = log(OP_ADD_COPIES, out -> {
+                out.writeUTF(isbn);
+                out.writeInt(n);
+                out.writeLong(issuedAt);
+            });
+        }
+        commit(position);
+        return true;
+    }
+
+    // Queue a borrow request for a title in the catalog
+    public BorrowResult borrow(String username, String title) {
+        return borrow(username, title, System.currentTimeMillis(), BorrowRequest.NORMAL_PRIORITY);
+    }
+
+    // Queue a borrow request with a priority (staff or hold): it decides the place on the title's waitlist
+    public BorrowResult borrow(String username, String title, int priority) {
+        return borrow(username, title, System.currentTimeMillis(), priority);
+    }
+
+    // Queue a borrow request made at the given time with the given priority
+    BorrowResult borrow(String username, String title, long requestedAt, int priority) {
+        long startNanos = System.nanoTime();
+        try {
+            long position;
+            synchronized (this) {
+                checkWritable();
+                int titleId = inventory.titleId(title);
+                if (titleId < 0) return BorrowResult.NOT_IN_INVENTORY;
+                BorrowRequest request = new BorrowRequest(username, titleId, requestedAt, priority);
+                if (!borrowQueue.offer(request)) return BorrowResult.QUEUE_FULL;
+                position = log(OP_BORROW, out -> {
+                    out.writeUTF(username);
+                    out.writeUTF(title);
+                    out.writeLong(requestedAt);
+                    out.writeInt(priority);
+                });
+            }
+            commit(position);
+            return BorrowResult.ADDED;
+        } finally {
+            metrics.record(Metrics.Op.BORROW, startNanos);
+        }
+    }
+
+    // Issue up to max pending borrow requests, available titles first (max = 1 issues the next request that
+    // can be served); requests for titles whose copies are all out move to their waitlist on the way
+    public IssueSummary issue(int max) {
+        return issue(max, System.currentTimeMillis());
+    }
+
+    // Issue up to max pending borrow requests in FIFO order without letting an unavailable title block the queue
+    IssueSummary issue(int max, long issuedAt) {
+        return issue(max, ISSUE_LOOKAHEAD, issuedAt);
+    }
+
+    // Requests are drained in rounds of (max - issued so far) and grouped by title; each takes an available copy
+    // (one CAS in the copy stock). A request whose title has no copy on the shelf, or already has waiters,
+    // joins the title's waitlist instead, and the next round drains further requests in its place, up to
+    // max + lookahead requests in all, so one call never empties a queue of unavailable titles into the waitlists.
+    // The outcome of every drained request is returned, and each issue is recorded with the ISBN it took
+    private IssueSummary issue(int max, int lookahead, long issuedAt) {
+        long startNanos = System.nanoTime();
+        try {
+            long position;
+            IssueSummary summary;
+            synchronized (this) {
+                checkWritable();
+                List<BorrowRequest> drained = new ArrayList<>(Math.min(max, borrowQueue.size()));
+                IssueSummary.Outcome[] outcomes = new IssueSummary.Outcome[0];
+                int[] bookIds = new int[0]; // Book issued to each request, by drained position
+                int limit = (int) Math.min(Integer.MAX_VALUE, (long) max + lookahead);
+                int issuedTotal = 0, waitlisted = 0;
+                while (issuedTotal < max && drained.size() < limit) {
+                    int from = drained.size();
+                    if (borrowQueue.drainTo(drained, Math.min(max - issuedTotal, limit - from)) == 0) break;
+                    int n = drained.size() - from;
+                    outcomes = Arrays.copyOf(outcomes, drained.size());
+                    bookIds = Arrays.copyOf(bookIds, drained.size());
+
+                    // Group by title: sort (title ID, position) pairs packed into longs, so equal titles form runs
+                    long[] byTitle = new long[n];
+                    for (int i = 0; i < n; i++) byTitle[i] = ((long) drained.get(from + i).titleId << 32) | (from + i);
+                    Arrays.sort(byTitle);
+
+                    for (int start = 0; start < n; ) {
+                        int titleId = (int) (byTitle[start] >>> 32);
+                        int end = start;
+                        while (end < n && (int) (byTitle[end] >>> 32) == titleId) end++;
+
+                        // Hand out one copy per request (in FIFO order) until the title runs out; waiters keep their turn
+                        boolean inCatalog = inventory.hasTitleId(titleId);
+                        int issued = 0;
+                        for (int k = start; k < end; k++) {
+                            int index = (int) byTitle[k];
+                            IssueSummary.Outcome outcome;
+                            String isbn;
+                            if (!inCatalog) {
+                                outcome = IssueSummary.Outcome.NOT_IN_INVENTORY;
+                            } else if (waitlists.size(titleId) == 0 && (isbn = inventory.issueCopy(titleId)) != null) {
+                                outcome = IssueSummary.Outcome.ISSUED;
+                                bookIds[index] = BookInventory.bookIdOf(isbn, titleId);
+                            } else if (waitlists.offer(drained.get(index))) {
+                                outcome = IssueSummary.Outcome.WAITLISTED;
+                            } else {
+                                outcome = IssueSummary.Outcome.OUT_OF_STOCK;
+                            }
+                            outcomes[index] = outcome;
+                            if (outcome == IssueSummary.Outcome.ISSUED) issued++;
+                            else if (outcome == IssueSummary.Outcome.WAITLISTED) waitlisted++;
+                        }
+                        issuedTotal += issued;
+                        start = end;
+                    }
+                }
+                summary = new IssueSummary(drained, outcomes);
+                summary.issued = issuedTotal;
+                summary.waitlisted = waitlisted;
+                summary.rejected = drained.size() - issuedTotal - waitlisted;
+                if (drained.isEmpty()) return summary;
+
+                // Histories are updated in FIFO order, so the latest issue ends up first as with single issues
+                for (int i = 0; i < drained.size(); i++) {
+                    if (outcomes[i] != IssueSummary.Outcome.ISSUED) continue;
+                    BorrowRequest request = drained.get(i);
+                    history.addBook(request.user(), bookIds[i], issuedAt);
+                    analytics.recordIssue(request.titleId, request.user, issuedAt);
+                }
+
+                position = log(OP_ISSUE, out -> {
+                    out.writeInt(max);
+                    out.writeInt(lookahead);
+                    out.writeLong(issuedAt);
+                });
+            }
+            commit(position);
+            return summary;
+        } finally {
+            metrics.record(Metrics.Op.ISSUE, startNanos);
+        }
+    }
+
+    // Issue a copy of a title to its next waiting request, if it has one and a copy is on the shelf
+    // (caller holds the library lock); returns the request served, or null
+    private BorrowRequest fulfillNext(int titleId, long issuedAt) {
+        if (waitlists.size(titleId) == 0) return null;
+        String isbn = inventory.issueCopy(titleId);
+        if (isbn == null) return null;
+        BorrowRequest request = waitlists.poll(titleId);
+        history.addBook(request.user(), BookInventory.bookIdOf(isbn, titleId), issuedAt);
+        analytics.recordIssue(titleId, request.user, issuedAt);
+        return request;
+    }
+
+    // Serve a title's waitlist while copies of it are on the shelf (caller holds the library lock)
+    private void fulfillAll(int titleId, long issuedAt) {
+        while (fulfillNext(titleId, issuedAt) != null) {
+            // Keep serving the waitlist
+        }
+    }
+
+    // Record a returned book; it must be in the catalog and currently issued
+    public ReturnResult recordReturn(String title) {
+        long startNanos = System.nanoTime();
+        try {
+            long position;
+            synchronized (this) {
+                checkWritable();
+                // Validate: the title must exist in the catalog
+                if (!inventory.hasTitle(title)) return ReturnResult.NOT_IN_INVENTORY;
+                // Validate: a copy of it must be out (the same count processReturns puts copies back from)
+                if (inventory.issuedCopies(inventory.titleId(title)) == 0) return ReturnResult.NOT_ISSUED;
+                // Record a pending return
+                if (!returnStack.tryPush(title)) return ReturnResult.STACK_FULL;
+                position = log(OP_RECORD_RETURN, out -> out.writeUTF(title));
+            }
+            commit(position);
+            return ReturnResult.RECORDED;
+        } finally {
+            metrics.record(Metrics.Op.RECORD_RETURN, startNanos);
+        }
+    }
+
+    // Finalize up to max pending returns, most recent first (Integer.MAX_VALUE processes all of them);
+    // each returned copy goes straight to the next request waiting for its title, if any
+    public ReturnSummary processReturns(int max) {
+        return processReturns(max, System.currentTimeMillis());
+    }
+
+    // Finalize up to max pending returns, issuing returned copies to waiting requests at the given time
+    ReturnSummary processReturns(int max, long issuedAt) {
+        long startNanos = System.nanoTime();
+        try {
+            long position;
+            ReturnSummary summary;
+            synchronized (this) {
+                checkWritable();
+                List<String> books = max == Integer.MAX_VALUE ? returnStack.drainAll() : returnStack.popBatch(max);
+                summary = new ReturnSummary(books);
+                if (books.isEmpty()) return summary;
+                for (int i = 0; i < books.size(); i++) {
+                    // Finalize the return only if a copy was issued: it goes back on the shelf
+                    int titleId = BookInventory.titleIdOf(books.get(i));
+                    if (inventory.returnCopy(titleId) != null) {
+                        summary.returned[i] = true;
+                        summary.finalized++;
+                        // Match the copy with the title's next waiter in O(1)
+                        summary.handedOver[i] = fulfillNext(titleId, issuedAt);
+                        if (summary.handedOver[i] != null) summary.fulfilled++;
+                    }
+                }
+                position = log(OP_PROCESS_RETURNS, out -> {
+                    out.writeInt(max);
+                    out.writeLong(issuedAt);
+                });
+            }
+            commit(position);
+            return summary;
+        } finally {
+            metrics.record(Metrics.Op.PROCESS_RETURNS, startNanos);
+        }
+    }
+
+    // Remove a title from a user's history
+    public void removeFromHistory(String username, String title) {
+        long position;
+        synchronized (this) {
+            checkWritable();
+            history.removeBook(username, title);
+            position = log(OP_REMOVE_HISTORY, out -> {
+                out.writeUTF(username);
+                out.writeUTF(title);
+            });
+        }
+        commit(position);
+    }
+
+    // -------- Persistence -------- //
+
+    // Append one mutation to the log (caller holds the library lock); returns the position to commit, or 0
+    private long log(byte op, RecordBody body) {
+        LibraryStore current = store;
+        if (current == null) return 0;
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(64);
+        DataOutputStream out = new DataOutputStream(bytes);
+        try {
+            out.writeByte(op);
+            body.write(out);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return current.append(bytes.toByteArray());
+    }
+
+    // Wait until the logged mutation is durable, then take a snapshot if the log has grown large
+    private void commit(long position) {
+        LibraryStore current = store;
+        if (current == null || position == 0) return;
+        try {
+            if (syncOnCommit) current.sync(position);
+            if (current.snapshotDue()) {
+                synchronized (this) {
+                    if (current.snapshotDue() && !current.failed()) current.snapshot(this);
+                }
+            }
+        } catch (IOException e) {
+            // A snapshot that failed before it was installed changes nothing: the log still covers everything
+            if (current.failed()) throw persistFailed(current, e);
+            throw new UncheckedIOException("Could not persist library state", e);
+        }
+    }
+
+    // Refuse mutations once the log has failed: they could never be made durable (caller holds the library lock)
+    private void checkWritable() {
+        LibraryStore current = store;
+        if (current != null && current.failed()) {
+            throw new IllegalStateException("The library is read-only: writing its log failed; reopen it to recover");
+        }
+    }
+
+    // The log can no longer be trusted: roll the modules back to what a restart would recover (once, whichever
+    // thread notices first) and return the exception to throw to the caller
+    private UncheckedIOException persistFailed(LibraryStore current, IOException cause) {
+        synchronized (this) {
+            if (!rolledBack) {
+                rolledBack = true;
+                // An interrupt closes the log's channel; the files must still be readable for the rollback
+                boolean interrupted = Thread.interrupted();
+                try {
+                    adopt(current.recoverDurable(inventory.emptyCopy()));
+                } catch (IOException | RuntimeException e) {
+                    cause.addSuppressed(e);
+                } finally {
+                    if (interrupted) Thread.currentThread().interrupt();
+                }
+            }
+        }
+        return new UncheckedIOException("Could not persist library state; changes that were not durable were rolled back", cause);
+    }
+
+    // Take over the modules of a library recovered from disk (caller holds the library lock)
+    private void adopt(Library recovered) {
+        inventory = recovered.inventory;
+        borrowQueue = recovered.borrowQueue;
+        returnStack = recovered.returnStack;
+        history = recovered.history;
+        waitlists = recovered.waitlists;
+        analytics = recovered.analytics;
+    }
+
+    // Apply one logged mutation again during recovery (the store is not attached yet, so nothing is re-logged)
+    void replay(DataInputStream in) throws IOException {
+        byte op = in.readByte();
+        switch (op) {
+            case OP_ADD_BOOK:
+                addBook(in.readUTF(), in.readUTF(), in.readUTF(), in.readInt(), in.readLong());
+                break;
+            case OP_DELETE_BOOK:
+                deleteBook(in.readUTF());
+                break;
+            case OP_BORROW:
+                borrow(in.readUTF(), in.readUTF(), in.readLong(), in.readInt());
+                break;
+            case OP_ISSUE:
+                issue(in.readInt(), in.readInt(), in.readLong());
+                break;
+            case OP_RECORD_RETURN:
+                recordReturn(in.readUTF());
+                break;
+            case OP_PROCESS_RETURNS:
+                processReturns(in.readInt(), in.readLong());
+                break;
+            case OP_REMOVE_HISTORY:
+                removeFromHistory(in.readUTF(), in.readUTF());
+                break;
+            case OP_ADD_COPIES:
+                addCopies(in.readUTF(), in.readInt(), in.readLong());
+                break;
+            case OP_IMPORT: {
+                long issuedAt = in.readLong();
+                List<Book> books = new ArrayList<>();
+                for (int i = in.readInt(); i > 0; i--) books.add(new Book(in.readUTF(), in.readUTF(), in.readUTF()));
+                importBooks(books, issuedAt);
+                break;
+            }
+            default:
+                throw new IOException("Unknown log operation: " + op);
+        }
+    }
+
+    // Snapshot the state (so the next start replays nothing) and close the log; no-op when in memory.
+    // After a failed log write the files are left as they are: they already hold what was rolled back to.
+    @Override
+    public synchronized void close() throws IOException {
+        LibraryStore current = store;
+        if (current == null) return;
+        store = null;
+        try {
+            if (!current.failed()) current.snapshot(this);
+        } finally {
+            current.close();
+        }
+    }
+}
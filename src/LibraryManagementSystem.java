@@ -1,240 +1,626 @@
-import java.util.Scanner;
-import java.util.HashMap;
-import java.util.Map;
+import java.io.BufferedOutputStream;
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+import javax.management.JMException;
 
 public class LibraryManagementSystem {
-    public static void main(String[] args) {
-        Scanner sc = new Scanner(System.in);
+    // Number of entries shown per page of search results, pending returns and user history
+    private static final int SEARCH_PAGE_SIZE = 10;
+
+    // Default directory for the snapshot and write-ahead log
+    private static final String DEFAULT_DATA_DIR = "lms-data";
+
+    // Default seconds between metrics dumps (with --metrics <file>)
+    private static final long DEFAULT_METRICS_INTERVAL = 60;
+
+    // How issue times are shown in history listings
+    private static final DateTimeFormatter ISSUE_TIME = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm");
+
+    // Output buffer size in batch mode
+    private static final int BATCH_OUTPUT_BUFFER = 1 << 16;
+
+    // Usage: LibraryManagementSystem [--data <dir>] [--in-memory] [--compact] [--off-heap] [--shards <n>]
+    //                                [--metrics <file>] [--metrics-interval <seconds>]
+    //                                [--batch <command file, or - for stdin>] [--serve <port>]
+    public static void main(String[] args) throws IOException {
+        // The library performs (and persists) every operation; the menu only reads input and prints results
+        Library library = openLibrary(args);
+        ScheduledExecutorService metricsDump = startMetrics(library, args);
+
+        String batch = option(args, "--batch");
+        String serve = option(args, "--serve");
+        if (serve != null) {
+            serve(library, Integer.parseInt(serve));
+        } else if (batch == null) {
+            try (CommandInput in = CommandInput.interactive()) {
+                runMenu(library, in);
+            }
+        } else {
+            runBatch(library, batch);
+        }
 
-        // --- These are Our 4 main modules ---
-        BookInventory inventory = new BookInventory();
-        BorrowQueue borrowQueue = new BorrowQueue();
-        ReturnStack returnStack = new ReturnStack();
-        UserHistory history = new UserHistory();
+        if (metricsDump != null) metricsDump.shutdown();
+        library.close(); // Saves a snapshot so the next start has no log to replay
+    }
 
-        // Track currently issued books by normalized title
-        Map<String, Integer> issuedCounts = new HashMap<>();
+    // Replay a command file without menus or prompts: every result goes through one buffered stream and
+    // the log is fsynced once at the end (a crash mid-replay loses the unsynced tail: run the replay again).
+    // The throughput is reported on stderr, so stdout can be diffed against an interactive session.
+    private static void runBatch(Library library, String source) throws IOException {
+        PrintStream console = System.out;
+        PrintStream out = new PrintStream(new BufferedOutputStream(new FileOutputStream(FileDescriptor.out), BATCH_OUTPUT_BUFFER), false);
+        System.setOut(out);
+        library.setSyncOnCommit(false);
+        long start = System.nanoTime();
+        long commands;
+        try (Reader reader = source.equals("-")
+                ? new InputStreamReader(System.in)
+                : Files.newBufferedReader(Paths.get(source), StandardCharsets.UTF_8);
+             CommandInput in = CommandInput.batch(reader)) {
+            commands = runMenu(library, in);
+        } finally {
+            out.flush();
+            System.setOut(console);
+            library.setSyncOnCommit(true);
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+        System.err.printf("Replayed %d command(s) in %.3f s (%.0f ops/sec)%n", commands, seconds, commands / Math.max(seconds, 1e-9));
+    }
 
+    // Serve the library to network clients (see LibraryServer): any other line typed prints the metrics,
+    // "quit" stops the server; with stdin closed (e.g. run in the background) it serves until killed
+    private static void serve(Library library, int port) throws IOException {
+        LibraryServer server = new LibraryServer(library, port);
+        server.start();
+        System.out.println("Serving the library on port " + server.port() + " (type quit to stop)");
+        try (CommandInput in = CommandInput.interactive()) {
+            while (!in.nextLine().trim().equalsIgnoreCase("quit")) {
+                System.out.print(library.metrics().report());
+            }
+        } catch (NoSuchElementException e) {
+            // stdin closed: keep serving until the process is stopped
+            try {
+                server.awaitTermination();
+            } catch (InterruptedException interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        server.close();
+    }
+
+    // The menu loop shared by the interactive and batch modes: read a choice, perform it, repeat until 0
+    // (or the end of the input). Returns the number of commands performed.
+    private static long runMenu(Library library, CommandInput in) {
         // menu selection variable
         int choice;
+        long commands = 0;
 
         do {
             // --- Display the Menu ---
-            System.out.println("===================================");
-            System.out.println("==== Library Management System ====");
-            System.out.println("===================================");
-
-            // ANSI escape codes for colorize the menu options
-            final String GREEN = "\u001B[32m";
-            final String RESET = "\u001B[0m";
-
-            // Menu Options
-            System.out.println(GREEN + "1. Add Book to Inventory" + RESET);
-            System.out.println(GREEN + "2. Delete Book from Inventory" + RESET);
-            System.out.println(GREEN + "3. Display Books (In-order)" + RESET);
-
-            System.out.println(GREEN + "4. Borrow a Book (Add Request)" + RESET);
-            System.out.println(GREEN + "5. Issue Book (Process Borrow Request)" + RESET);
-            System.out.println(GREEN + "6. Display Borrow Queue" + RESET);
+            if (in.isInteractive()) printMenu();
 
-            System.out.println(GREEN + "7. Return a Book" + RESET);
-            System.out.println(GREEN + "8. Process to Return a Book" + RESET);
-
-            System.out.println(GREEN + "9. Remove Book from User History" + RESET);
-            System.out.println(GREEN + "10. Display User History" + RESET);
-            System.out.println(GREEN + "11. Display All Users' Histories" + RESET);
-
-            System.out.println(GREEN + "0. Exit" + RESET);
-
-            // Read user input (choice must be between 0–11)
-            choice = readIntInRange(sc);
+            // Read user input (choice must be between 0–25); the end of the input exits like 0
+            try {
+                choice = readIntInRange(in);
+            } catch (NoSuchElementException e) {
+                break;
+            }
+            if (choice != 0) commands++;
 
             // --- Handle menu actions ---
-            switch (choice) {
-                // Add a new book to inventory (BST)
-                case 1:
-                    String isbn = readNonEmpty(sc, "Enter ISBN: ");
-                    String title = readNonEmpty(sc, "Enter Title: ");
-                    String author = readNonEmpty(sc, "Enter Author: ");
-                    inventory.insert(new Book(isbn, title, author));
-                    System.out.println("Book added!");
-                    break;
-
-                // Delete a book from inventory
-                case 2:
-                    String delIsbn = readNonEmpty(sc, "Enter ISBN to delete: ");
-                    if (!inventory.containsIsbn(delIsbn)) {
-                        System.out.println("Book with ISBN '" + delIsbn + "' not found in inventory.");
-                    } else {
-                        inventory.delete(delIsbn);
-                        System.out.println("Book deleted.");
-                    }
-                    break;
+            try {
+                handle(choice, library, in);
+            } catch (NoSuchElementException e) {
+                break; // The input ended in the middle of a command
+            } catch (UncheckedIOException | IllegalStateException e) {
+                // The log could not be written: the change was rolled back and the library is now read-only
+                System.out.println("Error: " + e.getMessage());
+            }
 
-                // Display all books in sorted order (in-order traversal of BST)
-                case 3:
-                    if (inventory.isEmpty()) {
-                        System.out.println("No books available.");
-                    } else {
-                        System.out.println("Books in Inventory (Sorted):");
-                        inventory.inorder();
-                    }
-                    break;
+        } while (choice != 0); // Keep looping until the user chooses Exit
 
-                // Borrow a book (add to borrow queue)
-                case 4:
-                    String borrowUser = readNonEmpty(sc, "Enter Username: ");
-                    String borrowTitle = readNonEmpty(sc, "Enter Book Title to Borrow: ");
-                    if (inventory.containsTitle(borrowTitle)) {
-                        System.out.println("Cannot request: '" + borrowTitle + "' is not available in inventory.");
-                    } else {
+        return commands;
+    }
 
-                        borrowQueue.enqueue(borrowUser + "|" + borrowTitle);
+    // Print the menu
+    private static void printMenu() {
+        System.out.println("===================================");
+        System.out.println("==== Library Management System ====");
+        System.out.println("===================================");
+
+        // ANSI escape codes for colorize the menu options
+        final String GREEN = "\u001B[32m";
+        final String RESET = "\u001B[0m";
+
+        // Menu Options
+        System.out.println(GREEN + "1. Add Book to Inventory" + RESET);
+        System.out.println(GREEN + "2. Delete Book from Inventory" + RESET);
+        System.out.println(GREEN + "3. Display Books (In-order)" + RESET);
+
+        System.out.println(GREEN + "4. Borrow a Book (Add Request)" + RESET);
+        System.out.println(GREEN + "5. Issue Book (Process Borrow Request)" + RESET);
+        System.out.println(GREEN + "6. Display Borrow Queue" + RESET);
+
+        System.out.println(GREEN + "7. Return a Book" + RESET);
+        System.out.println(GREEN + "8. Process to Return a Book" + RESET);
+
+        System.out.println(GREEN + "9. Remove Book from User History" + RESET);
+        System.out.println(GREEN + "10. Display User History" + RESET);
+        System.out.println(GREEN + "11. Display All Users' Histories" + RESET);
+
+        System.out.println(GREEN + "12. Search Books (Title/Author prefix, ISBN range)" + RESET);
+        System.out.println(GREEN + "13. Issue Batch (Process up to N Borrow Requests)" + RESET);
+        System.out.println(GREEN + "14. Process All Pending Returns" + RESET);
+        System.out.println(GREEN + "15. Display Pending Returns" + RESET);
+        System.out.println(GREEN + "16. Import Catalog from File (CSV/TSV)" + RESET);
+        System.out.println(GREEN + "17. Export Catalog to File (TSV)" + RESET);
+        System.out.println(GREEN + "18. Show Metrics (Latencies and Gauges)" + RESET);
+        System.out.println(GREEN + "19. Add Copies of a Book" + RESET);
+        System.out.println(GREEN + "20. Check Title Availability (Copies)" + RESET);
+        System.out.println(GREEN + "21. Borrow with Priority (Staff Request or Hold)" + RESET);
+        System.out.println(GREEN + "22. Display Waitlist of a Title" + RESET);
+        System.out.println(GREEN + "23. Borrowing Analytics (Top Titles and Users This Week)" + RESET);
+        System.out.println(GREEN + "24. Find Books by Text in Title or Author (Full Scan)" + RESET);
+        System.out.println(GREEN + "25. Display Books a User Borrowed in the Last N Days" + RESET);
+
+        System.out.println(GREEN + "0. Exit" + RESET);
+    }
 
+    // Perform one menu choice, reading its inputs from in
+    private static void handle(int choice, Library library, CommandInput in) {
+        // --- These are Our 4 main modules (read directly for displays and searches) ---
+        BookInventory inventory = library.inventory();
+        BorrowQueue borrowQueue = library.borrowQueue();
+        ReturnStack returnStack = library.returnStack();
+        UserHistory history = library.history();
+
+        switch (choice) {
+            // Add a new book to inventory (BST)
+            case 1:
+                String isbn = readNonEmpty(in, "Enter ISBN: ");
+                String title = readNonEmpty(in, "Enter Title: ");
+                String author = readNonEmpty(in, "Enter Author: ");
+                if (library.addBook(isbn, title, author)) {
+                    System.out.println("Book added!");
+                } else {
+                    System.out.println("A book with ISBN '" + isbn + "' is already in inventory.");
+                }
+                break;
+
+            // Delete a book from inventory
+            case 2:
+                String delIsbn = readNonEmpty(in, "Enter ISBN to delete: ");
+                if (!library.deleteBook(delIsbn)) {
+                    System.out.println("Book with ISBN '" + delIsbn + "' not found in inventory.");
+                } else {
+                    System.out.println("Book deleted.");
+                }
+                break;
+
+            // Display all books in sorted order (in-order traversal of BST)
+            case 3:
+                if (inventory.isEmpty()) {
+                    System.out.println("No books available.");
+                } else {
+                    System.out.println("Books in Inventory (Sorted):");
+                    inventory.inorder();
+                }
+                break;
+
+            // Borrow a book (add to borrow queue)
+            case 4:
+                String borrowUser = readNonEmpty(in, "Enter Username: ");
+                String borrowTitle = readNonEmpty(in, "Enter Book Title to Borrow: ");
+                switch (library.borrow(borrowUser, borrowTitle)) {
+                    case ADDED:
                         System.out.println("Borrow request added for " + borrowUser + " => " + borrowTitle);
-                    }
-                    break;
-
-                // Issue a book (dequeue from borrow queue and update user history)
-                case 5:
-                    String issuedItem = borrowQueue.dequeue();
-                    if (issuedItem == null) {
-                        System.out.println("No pending borrow requests.");
                         break;
-                    }
-
-                    // Split request into username and title
-                    String[] parts = issuedItem.split("\\|", 2);
-                    String issuedUser = parts.length > 0 ? parts[0].trim() : "";
-                    String issuedTitle = parts.length > 1 ? parts[1].trim() : "";
-
-                    if (issuedUser.isEmpty() || issuedTitle.isEmpty()) {
-                        System.out.println("Malformed borrow request: " + issuedItem);
+                    case NOT_IN_INVENTORY:
+                        System.out.println("Cannot request: '" + borrowTitle + "' is not available in inventory.");
                         break;
-                    }
-
-                    // Double-check if a book is still in inventory
-                    if (inventory.containsTitle(issuedTitle)) {
-                        System.out.println("Cannot issue: '" + issuedTitle + "' is not available in inventory.");
-                    } else {
-                        // Update a user's linked-list history on an issue
-                        history.addBook(issuedUser, issuedTitle);
-                        // Mark the book as issued (for return validation)
-                        incIssued(issuedCounts, issuedTitle);
-                        System.out.println("Issued: " + issuedTitle + " to " + issuedUser + " (history updated)");
-                    }
-                    break;
+                    case QUEUE_FULL:
+                        System.out.println("Queue is full! Borrow request not added.");
+                        break;
+                }
+                break;
 
-                // Display current borrow queue
-                case 6:
-                    borrowQueue.display();
+            // Issue a book (dequeue from borrow queue and update user history)
+            case 5:
+                IssueSummary next = library.issue(1);
+                if (next.processed() == 0) {
+                    System.out.println("No pending borrow requests.");
                     break;
+                }
 
-                // Record a book being returned (push onto stack)
-                case 7:
-                    String retBook = readNonEmpty(sc, "Enter Returned Book Title: ");
-                    // Validate: the title must exist in the catalog
-                    if (inventory.containsTitle(retBook)) {
+                // The library issues the first request whose title has a copy on the shelf (checked again here:
+                // the book may have left the inventory); requests ahead of it move to their title's waitlist
+                for (int i = 0; i < next.processed(); i++) {
+                    BorrowRequest issued = next.requests.get(i);
+                    switch (next.outcomes[i]) {
+                        case ISSUED:
+                            System.out.println("Issued: " + issued.title() + " to " + issued.user() + " (history updated)");
+                            break;
+                        case WAITLISTED:
+                            System.out.println("Waitlisted: every copy of '" + issued.title() + "' is out, so " + issued.user()
+                                    + " waits for a returned copy (" + library.waitlists().size(issued.titleId) + " waiting for it).");
+                            break;
+                        case NOT_IN_INVENTORY:
+                            System.out.println("Cannot issue: '" + issued.title() + "' is not available in inventory.");
+                            break;
+                        case OUT_OF_STOCK:
+                            System.out.println("Cannot issue: every copy of '" + issued.title() + "' is out ("
+                                    + inventory.copiesOfTitle(issued.title()) + ") and the waitlists are full.");
+                            break;
+                    }
+                }
+                break;
+
+            // Display current borrow queue
+            case 6:
+                borrowQueue.display();
+                break;
+
+            // Record a book being returned (push onto stack)
+            case 7:
+                String retBook = readNonEmpty(in, "Enter Returned Book Title: ");
+                switch (library.recordReturn(retBook)) {
+                    case RECORDED:
+                        System.out.println("Book return recorded (awaiting processing).");
+                        break;
+                    case NOT_IN_INVENTORY:
                         System.out.println("Cannot record return: '" + retBook + "' is not recognized in inventory.");
-                    } else if (!hasIssued(issuedCounts, retBook)) {
-                        // Validate: it must have been issued before
+                        break;
+                    case NOT_ISSUED:
                         System.out.println("Cannot record return: '" + retBook + "' was not issued.");
+                        break;
+                    case STACK_FULL:
+                        System.out.println("Stack is full! Return not recorded.");
+                        break;
+                }
+                break;
+
+            // Process the latest return (pop from stack)
+            case 8:
+                ReturnSummary latest = library.processReturns(1);
+                if (latest.processed() > 0) {
+                    String processed = latest.books.get(0);
+                    // The return is finalized only if it was issued
+                    if (latest.returned[0] && latest.handedOver[0] != null) {
+                        System.out.println(processed + " Book Has Been Returned and issued to "
+                                + latest.handedOver[0].user() + " (next on the waitlist)");
+                    } else if (latest.returned[0]) {
+                        System.out.println(processed + " Book Has Been Returned");
                     } else {
-                        // Record a pending return
-                        returnStack.push(retBook);
-                        System.out.println("Book return recorded (awaiting processing).");
-                    }
-                    break;
-
-                // Process the latest return (pop from stack)
-                case 8:
-                    String processed = returnStack.pop();
-                    if (processed != null) {
-                        // Finalize the return only if it was issued
-                        if (hasIssued(issuedCounts, processed)) {
-                            decIssued(issuedCounts, processed);
-                            System.out.println(processed + " Book Has Been Returned");
-                        } else {
-                            System.out.println("Warning: '" + processed + "' was not marked as issued. Skipping.");
-                        }
-                    } else {
-                        System.out.println("No books to process.");
+                        System.out.println("Warning: '" + processed + "' was not marked as issued. Skipping.");
                     }
-                    returnStack.display();
+                } else {
+                    System.out.println("No books to process.");
+                }
+                System.out.println(returnStack.size() + " return(s) still pending.");
+                break;
+
+            // Manually remove a book from a user's history
+            case 9:
+                String user2 = readNonEmpty(in, "Enter Username: ");
+                String remBook = readNonEmpty(in, "Enter Book Title to remove from History: ");
+                library.removeFromHistory(user2, remBook);
+                break;
+
+            // Display history for one user
+            case 10:
+                String userHis = readNonEmpty(in, "Enter Username: ");
+                int shown = 0;
+                do {
+                    history.displayHistory(userHis, shown, SEARCH_PAGE_SIZE);
+                    shown += SEARCH_PAGE_SIZE;
+                } while (shown < history.historySize(userHis) && readNonEmpty(in, "Show more? (y/n): ").toLowerCase().startsWith("y"));
+                break;
+
+            // Display all users' histories
+            case 11:
+                System.out.println("All Users' Histories:");
+                history.displayAllHistories();
+                break;
+
+            // Search the inventory page by page
+            case 12:
+                String mode = readNonEmpty(in, "Search by (t)itle prefix, (a)uthor prefix or (i)SBN range: ").toLowerCase();
+                String from = null, to = null, prefix = null;
+                if (mode.startsWith("i")) {
+                    from = readNonEmpty(in, "From ISBN: ");
+                    to = readNonEmpty(in, "To ISBN: ");
+                } else if (mode.startsWith("t") || mode.startsWith("a")) {
+                    prefix = readNonEmpty(in, "Enter prefix: ");
+                } else {
+                    System.out.println("Unknown search type.");
                     break;
+                }
 
-                // Manually remove a book from a user's history
-                case 9:
-                    String user2 = readNonEmpty(sc, "Enter Username: ");
-                    String remBook = readNonEmpty(sc, "Enter Book Title to remove from History: ");
-                    history.removeBook(user2, remBook);
+                String cursor = null;
+                do {
+                    BookPage page;
+                    if (mode.startsWith("i")) page = inventory.isbnRange(from, to, cursor, SEARCH_PAGE_SIZE);
+                    else if (mode.startsWith("t")) page = inventory.searchTitlePrefix(prefix, cursor, SEARCH_PAGE_SIZE);
+                    else page = inventory.searchAuthorPrefix(prefix, cursor, SEARCH_PAGE_SIZE);
+
+                    if (cursor == null && page.books.isEmpty()) System.out.println("No matching books.");
+                    for (Book book : page.books) System.out.println(book);
+                    cursor = page.nextCursor;
+                } while (cursor != null && readNonEmpty(in, "Show more? (y/n): ").toLowerCase().startsWith("y"));
+                break;
+
+            // Issue many pending borrow requests in one pass
+            case 13:
+                int maxRequests = readPositiveInt(in, "Enter maximum number of requests to issue: ");
+                IssueSummary summary = library.issue(maxRequests);
+                if (summary.processed() == 0) {
+                    System.out.println("No pending borrow requests.");
+                } else {
+                    System.out.println(summary);
+                }
+                break;
+
+            // Finalize every pending return in one run (end-of-day)
+            case 14:
+                ReturnSummary returns = library.processReturns(Integer.MAX_VALUE);
+                if (returns.processed() == 0) {
+                    System.out.println("No books to process.");
+                } else {
+                    System.out.println(returns);
+                }
+                break;
+
+            // Display pending returns page by page
+            case 15:
+                int skip = 0;
+                do {
+                    returnStack.display(skip, SEARCH_PAGE_SIZE);
+                    skip += SEARCH_PAGE_SIZE;
+                } while (skip < returnStack.size() && readNonEmpty(in, "Show more? (y/n): ").toLowerCase().startsWith("y"));
+                break;
+
+            // Bulk-load books from a CSV/TSV file (ISBN, Title, Author)
+            case 16:
+                Path catalog = Paths.get(readNonEmpty(in, "Enter catalog file path: "));
+                Path rejects = Paths.get(catalog + ".rejects");
+                try {
+                    CatalogImporter.Report report = CatalogImporter.importFile(library, catalog, rejects);
+                    System.out.println(report);
+                    if (report.rejected > 0) System.out.println("Rejected rows written to " + rejects);
+                } catch (IOException e) {
+                    System.out.println("Cannot import '" + catalog + "': " + e.getMessage());
+                }
+                break;
+
+            // Export the inventory in ISBN order, optionally resuming from a given ISBN
+            case 17:
+                Path exportFile = Paths.get(readNonEmpty(in, "Enter export file path: "));
+                in.prompt("Start from ISBN (blank for all books): ");
+                String fromIsbn = in.nextLine().trim();
+                try {
+                    long started = System.nanoTime();
+                    long exported = CatalogImporter.exportFile(inventory, exportFile, fromIsbn.isEmpty() ? null : fromIsbn);
+                    System.out.printf("Exported %d book(s) to %s in %.1f ms%n",
+                            exported, exportFile, (System.nanoTime() - started) / 1_000_000.0);
+                } catch (IOException e) {
+                    System.out.println("Cannot export to '" + exportFile + "': " + e.getMessage());
+                }
+                break;
+
+            // Operation latencies and the health of each module
+            case 18:
+                System.out.print(library.metrics().report());
+                break;
+
+            // Add copies of a book that is already in the inventory
+            case 19:
+                String copiesIsbn = readNonEmpty(in, "Enter ISBN: ");
+                int moreCopies = readPositiveInt(in, "Enter number of copies to add: ");
+                if (library.addCopies(copiesIsbn, moreCopies)) {
+                    // New copies are issued to the title's waitlist first
+                    System.out.println("Copies: " + inventory.copies(copiesIsbn));
+                } else {
+                    System.out.println("Cannot add copies: book with ISBN '" + copiesIsbn + "' not found or too many copies.");
+                }
+                break;
+
+            // Copies of a title on the shelf, reserved and issued (per ISBN, then the total)
+            case 20:
+                String stockTitle = readNonEmpty(in, "Enter Book Title: ");
+                List<String> stockIsbns = inventory.isbnsForTitle(stockTitle);
+                if (stockIsbns.isEmpty()) {
+                    System.out.println("'" + stockTitle + "' is not in inventory.");
                     break;
-
-                // Display history for one user
-                case 10:
-                    String userHis = readNonEmpty(sc, "Enter Username: ");
-                    history.displayHistory(userHis);
+                }
+                for (String stockIsbn : stockIsbns) {
+                    CopyCounts copies = inventory.copies(stockIsbn);
+                    if (copies != null) System.out.println("[" + stockIsbn + "] " + copies);
+                }
+                System.out.println("'" + stockTitle + "': " + inventory.copiesOfTitle(stockTitle));
+                long now = System.currentTimeMillis();
+                BorrowAnalytics analytics = library.analytics();
+                int stockTitleId = inventory.titleId(stockTitle);
+                System.out.printf("Borrowed %d time(s) in the last %d day(s) (%.1f per day)%n",
+                        analytics.titleCount(stockTitleId, now), TimeUnit.MILLISECONDS.toDays(analytics.windowMillis()),
+                        analytics.titleRatePerDay(stockTitleId, now));
+                break;
+
+            // Borrow request that goes ahead of regular members on the title's waitlist
+            case 21:
+                String priorityUser = readNonEmpty(in, "Enter Username: ");
+                String priorityTitle = readNonEmpty(in, "Enter Book Title to Borrow: ");
+                int priority = readIntBetween(in, "Priority (" + BorrowRequest.STAFF_PRIORITY + " = staff, "
+                        + BorrowRequest.HOLD_PRIORITY + " = hold): ", BorrowRequest.STAFF_PRIORITY, BorrowRequest.MAX_PRIORITY);
+                switch (library.borrow(priorityUser, priorityTitle, priority)) {
+                    case ADDED:
+                        System.out.println("Priority borrow request added for " + priorityUser + " => " + priorityTitle);
+                        break;
+                    case NOT_IN_INVENTORY:
+                        System.out.println("Cannot request: '" + priorityTitle + "' is not available in inventory.");
+                        break;
+                    case QUEUE_FULL:
+                        System.out.println("Queue is full! Borrow request not added.");
+                        break;
+                }
+                break;
+
+            // Requests waiting for a copy of a title, in the order they will be served
+            case 22:
+                String waitTitle = readNonEmpty(in, "Enter Book Title: ");
+                int waitTitleId = inventory.titleId(waitTitle);
+                List<BorrowRequest> waiting = library.waitlists().snapshot(waitTitleId);
+                if (waiting.isEmpty()) {
+                    System.out.println("Nobody is waiting for '" + waitTitle + "'.");
                     break;
-
-                // Display all users' histories
-                case 11:
-                    System.out.println("All Users' Histories:");
-                    history.displayAllHistories();
+                }
+                System.out.println("Waitlist for '" + waitTitle + "' (" + waiting.size() + " waiting):");
+                for (int i = 0; i < waiting.size(); i++) {
+                    BorrowRequest request = waiting.get(i);
+                    String level = request.priority >= BorrowRequest.HOLD_PRIORITY ? "hold"
+                            : request.priority >= BorrowRequest.STAFF_PRIORITY ? "staff" : "member";
+                    System.out.println((i + 1) + ". " + request.user() + " (" + level + ")");
+                }
+                break;
+
+            // Most borrowed titles and most active users over the sliding window (no history is scanned)
+            case 23:
+                int k = Math.min(readPositiveInt(in, "How many titles/users to show: "), library.analytics().maxK());
+                long at = System.currentTimeMillis();
+                BorrowAnalytics stats = library.analytics();
+                double days = stats.windowMillis() / (double) TimeUnit.DAYS.toMillis(1);
+                System.out.printf("%d issue(s) in the last %.0f day(s).%n", stats.totalIssues(at), days);
+                List<RankedCount> topTitles = stats.topTitles(k, at);
+                System.out.println("Most borrowed titles:" + (topTitles.isEmpty() ? " none" : ""));
+                for (int i = 0; i < topTitles.size(); i++) {
+                    RankedCount top = topTitles.get(i);
+                    System.out.printf("%d. %s - %d issue(s), %.1f per day%n", i + 1, top.name, top.count, top.count / days);
+                }
+                List<RankedCount> topUsers = stats.topUsers(k, at);
+                System.out.println("Most active users:" + (topUsers.isEmpty() ? " none" : ""));
+                for (int i = 0; i < topUsers.size(); i++) {
+                    System.out.println((i + 1) + ". " + topUsers.get(i).name + " - " + topUsers.get(i).count + " issue(s)");
+                }
+                break;
+
+            // Substring search over the whole catalog (the prefix searches of option 12 cannot do this)
+            case 24:
+                String text = readNonEmpty(in, "Enter text to find in titles and authors: ");
+                Predicate<Book> matches = BookInventory.titleOrAuthorContains(text);
+                long found = inventory.count(matches);
+                if (found == 0) {
+                    System.out.println("No matching books.");
                     break;
-
-                case 0:
-                    System.out.println("Exiting System...");
+                }
+                System.out.println(found + " matching book(s)" + (found > SEARCH_PAGE_SIZE ? ", the first " + SEARCH_PAGE_SIZE + " by ISBN:" : ":"));
+                for (Book book : inventory.filter(matches, SEARCH_PAGE_SIZE)) System.out.println(book);
+                break;
+
+            // One user's issues since a point in time (a binary search over the history blocks, not a full walk)
+            case 25:
+                String reader = readNonEmpty(in, "Enter Username: ");
+                int lastDays = readPositiveInt(in, "Enter number of days: ");
+                List<HistoryEntry> recent = history.since(reader, System.currentTimeMillis() - TimeUnit.DAYS.toMillis(lastDays));
+                if (recent.isEmpty()) {
+                    System.out.println(reader + " borrowed nothing in the last " + lastDays + " day(s).");
                     break;
+                }
+                System.out.println(reader + " borrowed " + recent.size() + " book(s) in the last " + lastDays + " day(s):");
+                for (HistoryEntry entry : recent) {
+                    LocalDateTime issued = LocalDateTime.ofInstant(Instant.ofEpochMilli(entry.issuedAt), ZoneId.systemDefault());
+                    String copy = entry.isbn().isEmpty() ? "" : ", ISBN " + entry.isbn();
+                    System.out.println(entry.title() + " (issued " + issued.format(ISSUE_TIME) + copy + ")");
+                }
+                break;
 
-                // Invalid option handling
-                default:
-                    System.out.println("Invalid choice. Try again!");
-            }
-
-        } while (choice != 0); // Keep looping until the user chooses Exit
+            case 0:
+                System.out.println("Exiting System...");
+                break;
 
-        sc.close();
+            // Invalid option handling
+            default:
+                System.out.println("Invalid choice. Try again!");
+        }
     }
 
     // --- Helper Methods ---
 
-    // Normalize titles for consistent lookups (trim and lowercase)
-    private static String normTitle(String s) {
-        return s == null ? "" : s.trim().toLowerCase();
-    }
-
-    // Increase issued count for a title
-    private static void incIssued(Map<String, Integer> issuedCounts, String title) {
-        String key = normTitle(title);
-        issuedCounts.put(key, issuedCounts.getOrDefault(key, 0) + 1);
+    // Open the persistent library in the data directory, or an in-memory one with --in-memory;
+    // --compact stores the books in a CompactBookInventory (--off-heap: with its arena outside the heap);
+    // --shards <n> splits them over n such inventories by ISBN, scanned in parallel
+    private static Library openLibrary(String[] args) throws IOException {
+        Path dataDir = Paths.get(DEFAULT_DATA_DIR);
+        boolean inMemory = false, compact = false, offHeap = false;
+        int shards = 0;
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("--in-memory")) inMemory = true;
+            if (args[i].equals("--compact")) compact = true;
+            if (args[i].equals("--off-heap")) offHeap = true;
+            if (args[i].equals("--data") && i + 1 < args.length) dataDir = Paths.get(args[++i]);
+            if (args[i].equals("--shards") && i + 1 < args.length) shards = Integer.parseInt(args[++i]);
+        }
+        boolean compactInventory = compact || offHeap, offHeapArena = offHeap;
+        Supplier<BookInventory> newInventory = () -> compactInventory ? new CompactBookInventory(offHeapArena) : new BookInventory();
+        BookInventory inventory = shards > 0
+                ? new ShardedBookInventory(shards, newInventory, ForkJoinPool.commonPool())
+                : newInventory.get();
+        return inMemory ? new Library(inventory) : Library.open(dataDir, inventory);
     }
 
-    // Check if a title is currently issued
-    private static boolean hasIssued(Map<String, Integer> issuedCounts, String title) {
-        return issuedCounts.getOrDefault(normTitle(title), 0) > 0;
+    // Value given for a command-line option, or null when the option is absent
+    private static String option(String[] args, String name) {
+        for (int i = 0; i < args.length - 1; i++) {
+            if (args[i].equals(name)) return args[i + 1];
+        }
+        return null;
     }
 
-    // Decrease issued count (remove key when it reaches zero)
-    private static void decIssued(Map<String, Integer> issuedCounts, String title) {
-        String key = normTitle(title);
-        int c = issuedCounts.getOrDefault(key, 0);
-        if (c <= 1) {
-            issuedCounts.remove(key);
-        } else {
-            issuedCounts.put(key, c - 1);
+    // Publish the library's metrics over JMX and, with --metrics <file>, dump them to that file periodically;
+    // returns the dump scheduler (null when there is no dump)
+    private static ScheduledExecutorService startMetrics(Library library, String[] args) {
+        try {
+            library.metrics().registerMBean();
+        } catch (JMException e) {
+            System.out.println("Metrics are not available over JMX: " + e.getMessage());
         }
+        Path file = null;
+        long interval = DEFAULT_METRICS_INTERVAL;
+        for (int i = 0; i < args.length - 1; i++) {
+            if (args[i].equals("--metrics")) file = Paths.get(args[++i]);
+            else if (args[i].equals("--metrics-interval")) interval = Math.max(1, Long.parseLong(args[++i]));
+        }
+        return file == null ? null : library.metrics().startDump(file, interval, TimeUnit.SECONDS);
     }
 
     // Simple validations for the menu options
-    // Read a valid menu choice (0–11)
-    private static int readIntInRange(Scanner sc) {
+    // Read a valid menu choice (0–25)
+    private static int readIntInRange(CommandInput in) {
         while (true) {
-            System.out.print("Enter choice: ");
-            String line = sc.nextLine().trim();
+            in.prompt("Enter choice: ");
+            String line = in.nextLine().trim();
             try {
                 int value = Integer.parseInt(line);
-                if (value < 0 || value > 11) {
-                    System.out.println("Please enter a number between 0 and 11.");
+                if (value < 0 || value > 25) {
+                    System.out.println("Please enter a number between 0 and 25.");
                     continue;
                 }
                 return value;
@@ -244,11 +630,39 @@ public class LibraryManagementSystem {
         }
     }
 
+    // Read a positive whole number
+    private static int readPositiveInt(CommandInput in, String prompt) {
+        while (true) {
+            String line = readNonEmpty(in, prompt);
+            try {
+                int value = Integer.parseInt(line);
+                if (value > 0) return value;
+                System.out.println("Please enter a number greater than 0.");
+            } catch (NumberFormatException e) {
+                System.out.println("Invalid number. Try again.");
+            }
+        }
+    }
+
+    // Read a whole number between min and max (inclusive)
+    private static int readIntBetween(CommandInput in, String prompt, int min, int max) {
+        while (true) {
+            String line = readNonEmpty(in, prompt);
+            try {
+                int value = Integer.parseInt(line);
+                if (value >= min && value <= max) return value;
+                System.out.println("Please enter a number between " + min + " and " + max + ".");
+            } catch (NumberFormatException e) {
+                System.out.println("Invalid number. Try again.");
+            }
+        }
+    }
+
     // Read a non-empty string input
-    private static String readNonEmpty(Scanner sc, String prompt) {
+    private static String readNonEmpty(CommandInput in, String prompt) {
         while (true) {
-            System.out.print(prompt);
-            String line = sc.nextLine().trim();
+            in.prompt(prompt);
+            String line = in.nextLine().trim();
             if (!line.isEmpty()) return line;
             System.out.println("Input cannot be empty. Try again.");
         }
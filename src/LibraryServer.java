@@ -0,0 +1,331 @@
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+// This LibraryServer lets many clients use one Library at the same time over a simple line protocol (TCP).
+// Every connection is served by its own platform thread from a bounded pool (idle threads are reused); once
+// MAX_CONNECTIONS are being served, a new connection gets "ERR server busy" and is closed.
+// A request is one line of tab-separated fields, the command first (case-insensitive):
+//   ADD isbn title author | DELETE isbn | BOOKS [afterIsbn] [limit] | BORROW user title [priority] | ISSUE | QUEUE
+//   RETURN title | PROCESS | FORGET user title | HISTORY user [skip] [limit] | HISTORIES | WAITLIST title
+//   TOP titles|users [k] | QUIT
+// (menu options 1-11 in that order, then 22 and 23). Every reply starts with "OK" or "ERR"; listings reply "OK <n>" followed
+// by n data lines (ISSUE too: one line per request it took from the queue). Replies are flushed once no more
+// pipelined requests are waiting, so a client may send several requests before reading.
+class LibraryServer implements Closeable {
+    // Pending connections the OS may queue while the acceptor catches up
+    private static final int BACKLOG = 4096;
+
+    // Default and maximum number of lines returned by one listing
+    private static final int DEFAULT_PAGE = 100;
+    private static final int MAX_PAGE = 10_000;
+
+    // Connections served at the same time (one platform thread each)
+    static final int MAX_CONNECTIONS = 1024;
+
+    // Seconds an idle connection thread waits for the next connection before it exits
+    private static final long IDLE_SECONDS = 60;
+
+    private final Library library;
+    private final ServerSocket serverSocket;
+    private final ExecutorService connections = newThreadPool("lms-connection", MAX_CONNECTIONS);
+    private final Set<Socket> open = ConcurrentHashMap.newKeySet();
+    private final Thread acceptor;
+
+    // Listen on the given port of the loopback interface (0 picks a free port)
+    LibraryServer(Library library, int port) throws IOException {
+        this.library = library;
+        this.serverSocket = new ServerSocket();
+        serverSocket.setReuseAddress(true);
+        serverSocket.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), BACKLOG);
+        this.acceptor = new Thread(this::acceptLoop, "lms-acceptor");
+    }
+
+    // A pool of up to max daemon threads that hands every task to an idle thread or starts a new one, and
+    // rejects the task (RejectedExecutionException) when max threads are busy
+    static ExecutorService newThreadPool(String name, int max) {
+        ThreadFactory factory = task -> {
+            Thread thread = new Thread(task, name);
+            thread.setDaemon(true);
+            return thread;
+        };
+        return new ThreadPoolExecutor(0, max, IDLE_SECONDS, TimeUnit.SECONDS, new SynchronousQueue<>(), factory);
+    }
+
+    // Port the server listens on
+    int port() {
+        return serverSocket.getLocalPort();
+    }
+
+    // Start accepting connections
+    void start() {
+        acceptor.start();
+    }
+
+    // Wait until the server is closed
+    void awaitTermination() throws InterruptedException {
+        acceptor.join();
+    }
+
+    // Accept connections until the server socket is closed
+    private void acceptLoop() {
+        while (!serverSocket.isClosed()) {
+            try {
+                Socket socket = serverSocket.accept();
+                socket.setTcpNoDelay(true);
+                open.add(socket);
+                try {
+                    connections.execute(() -> serve(socket));
+                } catch (RejectedExecutionException e) {
+                    refuse(socket);
+                }
+            } catch (IOException e) {
+                if (serverSocket.isClosed()) return;
+                System.err.println("Accept failed: " + e.getMessage());
+            }
+        }
+    }
+
+    // Tell a client that every connection thread is busy and hang up (on the acceptor: a short write, no read)
+    private void refuse(Socket socket) {
+        try (Socket s = socket) {
+            s.getOutputStream().write("ERR server busy\n".getBytes(StandardCharsets.UTF_8));
+        } catch (IOException e) {
+            // Client went away
+        } finally {
+            open.remove(socket);
+        }
+    }
+
+    // Serve one connection until the client quits or disconnects
+    private void serve(Socket socket) {
+        try (Socket s = socket;
+             BufferedReader in = new BufferedReader(new InputStreamReader(s.getInputStream(), StandardCharsets.UTF_8));
+             BufferedWriter out = new BufferedWriter(new OutputStreamWriter(s.getOutputStream(), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = in.readLine()) != null) {
+                if (line.isEmpty()) continue;
+                String[] fields = line.split("\t", -1);
+                if (fields[0].equalsIgnoreCase("QUIT")) {
+                    out.write("OK bye\n");
+                    break;
+                }
+                try {
+                    execute(fields, out);
+                } catch (RuntimeException e) {
+                    out.write("ERR " + (e.getMessage() != null ? e.getMessage() : e.toString()) + "\n");
+                }
+                if (!in.ready()) out.flush(); // Batch the replies to pipelined requests
+            }
+            out.flush();
+        } catch (SocketException e) {
+            // Client went away
+        } catch (IOException e) {
+            System.err.println("Connection failed: " + e.getMessage());
+        } finally {
+            open.remove(socket);
+        }
+    }
+
+    // Perform one request and write its reply
+    private void execute(String[] f, BufferedWriter out) throws IOException {
+        switch (f[0].toUpperCase()) {
+            case "ADD":
+                require(f, 4, "ADD isbn title author");
+                out.write(library.addBook(f[1], f[2], f[3]) ? "OK added\n" : "ERR duplicate ISBN\n");
+                break;
+            case "DELETE":
+                require(f, 2, "DELETE isbn");
+                out.write(library.deleteBook(f[1]) ? "OK deleted\n" : "ERR not found\n");
+                break;
+            case "BOOKS": {
+                BookPage page = library.inventory().isbnRange(null, null, arg(f, 1, null), limit(f, 2));
+                out.write("OK " + page.books.size() + "\n");
+                for (Book book : page.books) out.write(book.isbn + "\t" + book.title + "\t" + book.author + "\n");
+                break;
+            }
+            case "BORROW":
+                require(f, 3, "BORROW user title [priority]");
+                int priority = priority(f, 3);
+                switch (library.borrow(f[1], f[2], priority)) {
+                    case ADDED:
+                        out.write("OK queued\n");
+                        break;
+                    case NOT_IN_INVENTORY:
+                        out.write("ERR not in inventory\n");
+                        break;
+                    case QUEUE_FULL:
+                        out.write("ERR queue full\n");
+                        break;
+                }
+                break;
+            case "ISSUE": {
+                // Issues the next request that can be served; requests passed over on the way to it went to their
+                // waitlists, so every request taken from the queue gets a line: outcome, title, user
+                IssueSummary summary = library.issue(1);
+                out.write("OK " + summary.processed() + "\n");
+                for (int i = 0; i < summary.processed(); i++) {
+                    BorrowRequest request = summary.requests.get(i);
+                    out.write(outcome(summary.outcomes[i]) + "\t" + request.title() + "\t" + request.user() + "\n");
+                }
+                break;
+            }
+            case "QUEUE": {
+                List<BorrowRequest> requests = library.borrowQueue().snapshot();
+                out.write("OK " + requests.size() + "\n");
+                for (BorrowRequest request : requests) out.write(request.user() + "\t" + request.title() + "\n");
+                break;
+            }
+            case "RETURN":
+                require(f, 2, "RETURN title");
+                switch (library.recordReturn(f[1])) {
+                    case RECORDED:
+                        out.write("OK recorded\n");
+                        break;
+                    case NOT_IN_INVENTORY:
+                        out.write("ERR not in inventory\n");
+                        break;
+                    case NOT_ISSUED:
+                        out.write("ERR not issued\n");
+                        break;
+                    case STACK_FULL:
+                        out.write("ERR stack full\n");
+                        break;
+                }
+                break;
+            case "PROCESS": {
+                ReturnSummary summary = library.processReturns(1);
+                if (summary.processed() == 0) out.write("OK none\n");
+                else if (summary.returned[0]) out.write("OK returned\t" + summary.books.get(0) + "\n");
+                else out.write("ERR not issued\t" + summary.books.get(0) + "\n");
+                break;
+            }
+            case "FORGET":
+                require(f, 3, "FORGET user title");
+                library.removeFromHistory(f[1], f[2]);
+                out.write("OK removed\n");
+                break;
+            case "HISTORY": {
+                require(f, 2, "HISTORY user [skip] [limit]");
+                List<String> titles = library.history().page(f[1], Integer.parseInt(arg(f, 2, "0")), limit(f, 3));
+                out.write("OK " + titles.size() + "\n");
+                for (String title : titles) out.write(title + "\n");
+                break;
+            }
+            case "HISTORIES": {
+                UserHistory history = library.history();
+                List<String> users = history.users();
+                out.write("OK " + users.size() + "\n");
+                for (String user : users) {
+                    out.write(user);
+                    for (String title : history.page(user, 0, MAX_PAGE)) out.write("\t" + title);
+                    out.write("\n");
+                }
+                break;
+            }
+            case "WAITLIST": {
+                require(f, 2, "WAITLIST title");
+                List<BorrowRequest> waiting = library.waitlists().snapshot(library.inventory().titleId(f[1]));
+                out.write("OK " + waiting.size() + "\n");
+                for (BorrowRequest request : waiting) out.write(request.user() + "\t" + request.priority + "\n");
+                break;
+            }
+            case "TOP": {
+                require(f, 2, "TOP titles|users [k]");
+                BorrowAnalytics analytics = library.analytics();
+                int k = Math.max(1, Math.min(Integer.parseInt(arg(f, 2, "10")), analytics.maxK()));
+                long now = System.currentTimeMillis();
+                List<RankedCount> top;
+                if (f[1].equalsIgnoreCase("titles")) top = analytics.topTitles(k, now);
+                else if (f[1].equalsIgnoreCase("users")) top = analytics.topUsers(k, now);
+                else throw new IllegalArgumentException("usage: TOP titles|users [k]");
+                out.write("OK " + top.size() + "\n");
+                for (RankedCount entry : top) out.write(entry.name + "\t" + entry.count + "\n");
+                break;
+            }
+            default:
+                out.write("ERR unknown command: " + f[0] + "\n");
+        }
+    }
+
+    // Word for the outcome of one issued request
+    private static String outcome(IssueSummary.Outcome outcome) {
+        switch (outcome) {
+            case ISSUED:
+                return "issued";
+            case WAITLISTED:
+                return "waitlisted";
+            case OUT_OF_STOCK:
+                return "out of stock";
+            default:
+                return "not in inventory";
+        }
+    }
+
+    // Reject a request with too few fields
+    private static void require(String[] fields, int count, String usage) {
+        if (fields.length < count) throw new IllegalArgumentException("usage: " + usage);
+        for (int i = 1; i < count; i++) {
+            if (fields[i].trim().isEmpty()) throw new IllegalArgumentException("usage: " + usage);
+        }
+    }
+
+    // Optional field, or the default when it is missing or empty
+    private static String arg(String[] fields, int index, String def) {
+        return index < fields.length && !fields[index].isEmpty() ? fields[index] : def;
+    }
+
+    // Optional BORROW priority (NORMAL_PRIORITY when missing); a non-number is a usage error, a number
+    // outside NORMAL_PRIORITY..MAX_PRIORITY is rejected
+    private static int priority(String[] fields, int index) {
+        int priority;
+        try {
+            priority = Integer.parseInt(arg(fields, index, Integer.toString(BorrowRequest.NORMAL_PRIORITY)).trim());
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("usage: BORROW user title [priority]");
+        }
+        if (priority < BorrowRequest.NORMAL_PRIORITY || priority > BorrowRequest.MAX_PRIORITY) {
+            throw new IllegalArgumentException("priority must be between " + BorrowRequest.NORMAL_PRIORITY
+                    + " and " + BorrowRequest.MAX_PRIORITY + ": " + priority);
+        }
+        return priority;
+    }
+
+    // Page size of a listing (DEFAULT_PAGE when missing, at most MAX_PAGE)
+    private static int limit(String[] fields, int index) {
+        int limit = Integer.parseInt(arg(fields, index, Integer.toString(DEFAULT_PAGE)));
+        return Math.max(1, Math.min(limit, MAX_PAGE));
+    }
+
+    // Stop accepting and disconnect every client
+    @Override
+    public void close() throws IOException {
+        serverSocket.close();
+        for (Socket socket : open) {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                // Already closed
+            }
+        }
+        connections.shutdown();
+    }
+}
@@ -0,0 +1,341 @@
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+
+// This LibraryStore keeps a Library on disk as a compact binary snapshot plus a write-ahead log of the
+// mutations made since that snapshot. Files in the data directory:
+//   snapshot.bin   - the state of all modules at the start of generation G (absent before the first snapshot)
+//   wal-G.log      - every mutation made during generation G
+// Taking a snapshot writes snapshot.tmp, fsyncs it, renames it over snapshot.bin and starts wal-(G+1).log,
+// so recovery = map the snapshot + replay one log, and startup time depends only on the log tail.
+class LibraryStore implements Closeable {
+    // "LMS1" snapshot header and format version
+    private static final int MAGIC = 0x4C4D5331;
+    private static final int VERSION = 1;
+
+    private static final String SNAPSHOT_FILE = "snapshot.bin";
+    private static final String SNAPSHOT_TMP_FILE = "snapshot.tmp";
+
+    // Take a new snapshot once the current log grows past this many bytes
+    static final long DEFAULT_SNAPSHOT_BYTES = 8L << 20;
+
+    private final Path dir;
+    private final long snapshotBytes;
+    private long generation;             // guarded by the library lock
+    private volatile WriteAheadLog log;  // log of the current generation
+    private volatile IOException rotationFailure; // A snapshot was installed but its new log could not be started
+
+    private LibraryStore(Path dir, long generation, WriteAheadLog log, long snapshotBytes) {
+        this.dir = dir;
+        this.generation = generation;
+        this.log = log;
+        this.snapshotBytes = snapshotBytes;
+    }
+
+    // Open the library stored in dir (creating an empty one if needed)
+    static Library open(Path dir) throws IOException {
+        return open(dir, new BookInventory());
+    }
+
+    // Open the library stored in dir with its books in the given (empty) inventory
+    static Library open(Path dir, BookInventory inventory) throws IOException {
+        return open(dir, DEFAULT_SNAPSHOT_BYTES, inventory);
+    }
+
+    // Open the library stored in dir, snapshotting whenever the log grows past snapshotBytes
+    static Library open(Path dir, long snapshotBytes, BookInventory inventory) throws IOException {
+        Files.createDirectories(dir);
+        Files.deleteIfExists(dir.resolve(SNAPSHOT_TMP_FILE)); // Left over from a crash during a snapshot
+
+        // 1) Load the latest snapshot, 2) drop logs it already covers, 3) replay the tail
+        Library library = new Library(inventory);
+        Path snapshot = dir.resolve(SNAPSHOT_FILE);
+        long generation = Files.exists(snapshot) ? readSnapshot(snapshot, library) : 0;
+        deleteOldLogs(dir, generation);
+        WriteAheadLog log = WriteAheadLog.open(logFile(dir, generation), library::replay);
+
+        library.attach(new LibraryStore(dir, generation, log, snapshotBytes));
+        return library;
+    }
+
+    // Log file of a generation
+    private static Path logFile(Path dir, long generation) {
+        return dir.resolve("wal-" + generation + ".log");
+    }
+
+    // Delete logs of generations before the given one (they are covered by the snapshot)
+    private static void deleteOldLogs(Path dir, long generation) throws IOException {
+        try (DirectoryStream<Path> logs = Files.newDirectoryStream(dir, "wal-*.log")) {
+            for (Path file : logs) {
+                String name = file.getFileName().toString();
+                try {
+                    long g = Long.parseLong(name.substring(4, name.length() - 4));
+                    if (g < generation) Files.deleteIfExists(file);
+                } catch (NumberFormatException e) {
+                    // Not one of our logs
+                }
+            }
+        }
+    }
+
+    // -------- Log -------- //
+
+    // Append a mutation record; returns the position to pass to sync()
+    long append(byte[] record) {
+        return log.append(record);
+    }
+
+    // Make the log durable up to position (one fsync covers every caller waiting at the same time)
+    void sync(long position) throws IOException {
+        log.sync(position);
+    }
+
+    // Make everything appended so far durable
+    void syncAll() throws IOException {
+        WriteAheadLog current = log;
+        current.sync(current.size());
+    }
+
+    // True when the current log is big enough to be folded into a new snapshot
+    boolean snapshotDue() {
+        return log.size() >= snapshotBytes;
+    }
+
+    // True once changes can no longer be made durable: the log failed, or a snapshot replaced the files that
+    // recovery reads but no new log could be started after it
+    boolean failed() {
+        return rotationFailure != null || log.failed();
+    }
+
+    // The library as a restart would recover it now: the snapshot plus the durable part of its log, loaded into
+    // a new library over the given empty inventory. Files are only read, so this also works after a failure.
+    Library recoverDurable(BookInventory inventory) throws IOException {
+        Library library = new Library(inventory);
+        Path snapshot = dir.resolve(SNAPSHOT_FILE);
+        long recovered = Files.exists(snapshot) ? readSnapshot(snapshot, library) : 0;
+        Path file = logFile(dir, recovered);
+        // Only the current log can hold records that are not durable; an older snapshot's log is complete
+        long limit = recovered == generation ? log.durable() : Long.MAX_VALUE;
+        if (Files.exists(file)) WriteAheadLog.replay(file, limit, library::replay);
+        return library;
+    }
+
+    // -------- Snapshots -------- //
+
+    // Write a snapshot of the library and start a new log generation (caller holds the library lock)
+    void snapshot(Library library) throws IOException {
+        long next = generation + 1;
+        Path tmp = dir.resolve(SNAPSHOT_TMP_FILE);
+        writeSnapshot(tmp, library, next);
+        Files.move(tmp, dir.resolve(SNAPSHOT_FILE), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        syncDirectory();
+
+        // The snapshot now covers everything in the old log, so switch to a fresh one. Recovery already starts
+        // from the new snapshot: if no log can follow it, nothing more can be made durable.
+        WriteAheadLog old = log;
+        try {
+            Files.deleteIfExists(logFile(dir, next));
+            log = WriteAheadLog.open(logFile(dir, next), record -> { });
+        } catch (IOException e) {
+            rotationFailure = e;
+            throw e;
+        }
+        generation = next;
+        try {
+            old.close();
+            Files.deleteIfExists(logFile(dir, next - 1));
+        } catch (IOException e) {
+            // The old log is covered by the snapshot; recovery deletes it if it is still there
+        }
+    }
+
+    // Make the rename durable (best effort: not every platform can fsync a directory)
+    private void syncDirectory() {
+        try (FileChannel channel = FileChannel.open(dir, StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (IOException e) {
+            // Directory fsync is not supported here; the rename is still atomic
+        }
+    }
+
+    // Snapshot layout (all integers big-endian, strings as int length + UTF-8 bytes):
+    //   magic, version, generation
+    //   books:   count, then (isbn, title, author, total, reserved, issued copies) in ISBN order
+    //   queue:   count, then (user, title, requestedAt, priority) in FIFO order
+    //   returns: count, then titles from the bottom of the stack to the top
+    //   history: users, then per user (name, count, then (isbn or "", title, issuedAt) oldest first)
+    //   analytics: titles, then users window (see BorrowAnalytics.save)
+    //   waitlists: titles, then per title (normalized title, display title, count,
+    //              then (user, requestedAt, priority) in the order they will be served)
+    //   CRC32 of everything above (long)
+    private static void writeSnapshot(Path file, Library library, long generation) throws IOException {
+        try (FileOutputStream fileOut = new FileOutputStream(file.toFile())) {
+            CheckedOutputStream checked = new CheckedOutputStream(new BufferedOutputStream(fileOut, 1 << 16), new CRC32());
+            DataOutputStream out = new DataOutputStream(checked);
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(generation);
+
+            BookInventory inventory = library.inventory();
+            out.writeInt(inventory.size());
+            for (Book book : inventory) {
+                CopyCounts copies = inventory.copies(book.isbn);
+                if (copies == null) copies = new CopyCounts(0, 0, 0); // Deleted during the snapshot
+                writeString(out, book.isbn);
+                writeString(out, book.title);
+                writeString(out, book.author);
+                out.writeInt(copies.total);
+                out.writeInt(copies.reserved);
+                out.writeInt(copies.issued);
+            }
+
+            List<BorrowRequest> requests = library.borrowQueue().snapshot();
+            out.writeInt(requests.size());
+            for (BorrowRequest request : requests) {
+                writeString(out, request.user());
+                writeString(out, request.title());
+                out.writeLong(request.enqueuedAt);
+                out.writeInt(request.priority);
+            }
+
+            List<String> returns = library.returnStack().page(0, Integer.MAX_VALUE);
+            Collections.reverse(returns);
+            out.writeInt(returns.size());
+            for (String title : returns) writeString(out, title);
+
+            UserHistory history = library.history();
+            List<String> users = history.users();
+            out.writeInt(users.size());
+            for (String user : users) {
+                List<HistoryEntry> entries = history.entriesOldestFirst(user);
+                writeString(out, user);
+                out.writeInt(entries.size());
+                for (HistoryEntry entry : entries) {
+                    writeString(out, entry.isbn());
+                    writeString(out, entry.title());
+                    out.writeLong(entry.issuedAt);
+                }
+            }
+
+            library.analytics().save(out);
+
+            Waitlists waitlists = library.waitlists();
+            List<Integer> waitedFor = waitlists.titles();
+            out.writeInt(waitedFor.size());
+            for (int titleId : waitedFor) {
+                List<BorrowRequest> waiting = waitlists.snapshot(titleId);
+                writeString(out, SymbolTable.TITLES.key(titleId));
+                writeString(out, SymbolTable.TITLES.name(titleId));
+                out.writeInt(waiting.size());
+                for (BorrowRequest request : waiting) {
+                    writeString(out, request.user());
+                    out.writeLong(request.enqueuedAt);
+                    out.writeInt(request.priority);
+                }
+            }
+
+            out.flush();
+            long crc = checked.getChecksum().getValue();
+            out.writeLong(crc);
+            out.flush();
+            fileOut.getFD().sync();
+        }
+    }
+
+    // Load a snapshot into an empty library through a memory-mapped view; returns its generation
+    private static long readSnapshot(Path file, Library library) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            MappedByteBuffer in = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (in.limit() < 24 || in.getInt(0) != MAGIC) throw new IOException("Not a library snapshot: " + file);
+            if (in.getInt(4) != VERSION) throw new IOException("Unsupported snapshot version " + in.getInt(4) + ": " + file);
+            CRC32 crc = new CRC32();
+            ByteBuffer body = in.duplicate();
+            body.limit(in.limit() - 8);
+            crc.update(body);
+            if (crc.getValue() != in.getLong(in.limit() - 8)) throw new IOException("Corrupt library snapshot: " + file);
+
+            in.position(8);
+            long generation = in.getLong();
+
+            // Books are stored in ISBN order, so the tree is rebuilt balanced in one linear pass;
+            // copy counts other than the single copy bulkLoad stocks are set afterwards
+            BookInventory inventory = library.inventory();
+            int bookCount = in.getInt();
+            List<Book> books = new ArrayList<>(bookCount);
+            List<int[]> stocked = new ArrayList<>();
+            for (int i = 0; i < bookCount; i++) {
+                books.add(new Book(readString(in), readString(in), readString(in)));
+                int total = in.getInt(), reserved = in.getInt(), issued = in.getInt();
+                if (total != 1 || reserved != 0 || issued != 0) stocked.add(new int[]{i, total, reserved, issued});
+            }
+            inventory.bulkLoad(books);
+            for (int[] copies : stocked) inventory.setCopies(books.get(copies[0]).isbn, copies[1], copies[2], copies[3]);
+
+            BorrowQueue borrowQueue = library.borrowQueue();
+            for (int i = in.getInt(); i > 0; i--) {
+                String user = readString(in);
+                String title = readString(in);
+                int titleId = SymbolTable.TITLES.intern(BookInventory.normalizeTitle(title), title);
+                borrowQueue.offer(new BorrowRequest(user, titleId, in.getLong(), in.getInt()));
+            }
+
+            ReturnStack returnStack = library.returnStack();
+            for (int i = in.getInt(); i > 0; i--) returnStack.tryPush(readString(in));
+
+            UserHistory history = library.history();
+            for (int users = in.getInt(); users > 0; users--) {
+                String user = readString(in);
+                for (int i = in.getInt(); i > 0; i--) history.addBook(user, readString(in), readString(in), in.getLong());
+            }
+
+            // The analytics window is restored as saved: it also counts issues no longer in any history
+            library.analytics().restore(in);
+
+            // Re-adding the requests in service order keeps the order within each priority level
+            Waitlists waitlists = library.waitlists();
+            for (int titles = in.getInt(); titles > 0; titles--) {
+                int titleId = SymbolTable.TITLES.intern(readString(in), readString(in));
+                for (int i = in.getInt(); i > 0; i--) {
+                    waitlists.offer(new BorrowRequest(readString(in), titleId, in.getLong(), in.getInt()));
+                }
+            }
+            return generation;
+        }
+    }
+
+    // Write a string as its UTF-8 length followed by the bytes
+    static void writeString(DataOutputStream out, String s) throws IOException {
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    // Read a string written by writeString
+    static String readString(ByteBuffer in) {
+        byte[] bytes = new byte[in.getInt()];
+        in.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    // Flush and close the current log
+    @Override
+    public void close() throws IOException {
+        log.close();
+    }
+}
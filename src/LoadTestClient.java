@@ -0,0 +1,173 @@
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+// This LoadTestClient drives a LibraryServer with many concurrent connections and reports throughput and
+// latency percentiles. Every connection loops over borrow → issue → return → process for random users and
+// titles, waiting for each reply before sending the next request, so latency = one request's round trip.
+// Usage: LoadTestClient [port] [connections] [seconds] [books]
+// (without a port, an in-memory library and server are started in this JVM)
+public class LoadTestClient {
+    // Run without measuring first, so the JIT has compiled the hot paths
+    private static final long WARMUP_SECONDS = 3;
+
+    // Requests sent before reading their replies while seeding (small enough to never fill the socket buffers)
+    private static final int SEED_BATCH = 256;
+
+    public static void main(String[] args) throws Exception {
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : 0;
+        int connections = args.length > 1 ? Integer.parseInt(args[1]) : 1000;
+        long seconds = args.length > 2 ? Long.parseLong(args[2]) : 10;
+        int books = args.length > 3 ? Integer.parseInt(args[3]) : 10_000;
+
+        LibraryServer localServer = null;
+        if (port == 0) {
+            localServer = new LibraryServer(new Library(), 0);
+            localServer.start();
+            port = localServer.port();
+            System.out.println("Started an in-memory server on port " + port);
+        }
+        try {
+            seed(port, books);
+            Result result = run(port, connections, seconds, books);
+            System.out.println(result);
+        } finally {
+            if (localServer != null) localServer.close();
+        }
+    }
+
+    // Results of one run
+    static class Result {
+        int connections;
+        long requests;
+        long errors;       // Failed connections (replies with ERR are normal outcomes and not counted)
+        long elapsedNanos;
+        LatencyHistogram latency;
+
+        // Requests answered per second
+        double throughput() {
+            return requests * 1_000_000_000.0 / elapsedNanos;
+        }
+
+        // Overriding toString() method
+        @Override
+        public String toString() {
+            long[] p = latency.percentiles(50, 99, 99.9);
+            return String.format("%d connection(s): %d request(s) in %.1f s = %.0f req/s; latency p50 %.1f ms, "
+                            + "p99 %.1f ms, p99.9 %.1f ms, max %.1f ms; %d connection error(s)",
+                    connections, requests, elapsedNanos / 1e9, throughput(), p[0] / 1e6, p[1] / 1e6, p[2] / 1e6,
+                    latency.max() / 1e6, errors);
+        }
+    }
+
+    // Add the catalog the workload borrows from (over one connection, pipelined in small batches)
+    private static void seed(int port, int books) throws IOException {
+        try (Connection connection = new Connection(port)) {
+            for (int from = 0; from < books; from += SEED_BATCH) {
+                int to = Math.min(books, from + SEED_BATCH);
+                for (int i = from; i < to; i++) {
+                    connection.send("ADD\tLT-" + i + "\tLoad Title " + i + "\tLoad Author " + i % 100);
+                }
+                for (int i = from; i < to; i++) connection.receive();
+            }
+        }
+    }
+
+    // Open connections, warm up, then measure for the given time
+    static Result run(int port, int connections, long seconds, int books) throws InterruptedException {
+        Result result = new Result();
+        result.connections = connections;
+        result.latency = new LatencyHistogram();
+        AtomicLong requests = new AtomicLong();
+        AtomicLong errors = new AtomicLong();
+        CountDownLatch done = new CountDownLatch(connections);
+
+        long start = System.nanoTime();
+        long measureFrom = start + TimeUnit.SECONDS.toNanos(WARMUP_SECONDS);
+        long end = measureFrom + TimeUnit.SECONDS.toNanos(seconds);
+        ExecutorService clients = LibraryServer.newThreadPool("lms-load-client", connections);
+        for (int c = 0; c < connections; c++) {
+            String user = "load-user-" + c;
+            clients.execute(() -> {
+                try (Connection connection = new Connection(port)) {
+                    ThreadLocalRandom random = ThreadLocalRandom.current();
+                    while (true) {
+                        String title = "Load Title " + random.nextInt(books);
+                        String[] script = {"BORROW\t" + user + "\t" + title, "ISSUE", "RETURN\t" + title, "PROCESS"};
+                        for (String request : script) {
+                            long sent = System.nanoTime();
+                            if (sent >= end) return;
+                            connection.send(request);
+                            connection.receive();
+                            long received = System.nanoTime();
+                            if (sent >= measureFrom) {
+                                result.latency.record(received - sent);
+                                requests.incrementAndGet();
+                            }
+                        }
+                    }
+                } catch (IOException e) {
+                    errors.incrementAndGet();
+                } finally {
+                    done.countDown();
+                }
+            });
+        }
+        done.await();
+        clients.shutdown();
+        result.requests = requests.get();
+        result.errors = errors.get();
+        result.elapsedNanos = Math.max(1, Math.min(System.nanoTime(), end) - measureFrom);
+        return result;
+    }
+
+    // One client connection speaking the line protocol
+    private static final class Connection implements AutoCloseable {
+        private final Socket socket;
+        private final BufferedReader in;
+        private final BufferedWriter out;
+
+        Connection(int port) throws IOException {
+            socket = new Socket(InetAddress.getLoopbackAddress(), port);
+            socket.setTcpNoDelay(true);
+            in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+            out = new BufferedWriter(new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8));
+        }
+
+        void send(String request) throws IOException {
+            out.write(request);
+            out.write('\n');
+        }
+
+        // Flush, then read one reply and return its status line (the data lines of an "OK <n>" listing are skipped)
+        String receive() throws IOException {
+            out.flush();
+            String status = readLine();
+            if (status.startsWith("OK ") && status.length() > 3 && status.chars().skip(3).allMatch(Character::isDigit)) {
+                for (int n = Integer.parseInt(status.substring(3)); n > 0; n--) readLine();
+            }
+            return status;
+        }
+
+        private String readLine() throws IOException {
+            String line = in.readLine();
+            if (line == null) throw new IOException("Server closed the connection");
+            return line;
+        }
+
+        @Override
+        public void close() throws IOException {
+            socket.close();
+        }
+    }
+}
@@ -0,0 +1,227 @@
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.AttributeNotFoundException;
+import javax.management.DynamicMBean;
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.JMException;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanInfo;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+// This Metrics class instruments a Library: a call counter and latency histogram per operation
+// (recorded by the Library on every call, including the fsync of a persistent library) and gauges
+// that read the health of the modules when asked. Recording is allocation-free and contention-free
+// (see LatencyHistogram); everything else builds a snapshot and is meant for a dump or a JMX client.
+// The same numbers are available as a text report, a periodic dump to a file and a JMX MBean.
+class Metrics {
+    // Instrumented operations (name = prefix of their metrics)
+    enum Op {
+        ADD_BOOK("add"),
+        DELETE_BOOK("delete"),
+        BORROW("borrow"),
+        ISSUE("issue"),
+        RECORD_RETURN("return"),
+        PROCESS_RETURNS("processReturn");
+
+        final String metric;
+
+        Op(String metric) {
+            this.metric = metric;
+        }
+    }
+
+    // Percentiles reported for every operation
+    private static final double[] PERCENTILES = {50, 99, 99.9};
+    private static final String[] PERCENTILE_NAMES = {"p50", "p99", "p999"};
+
+    // JMX name of the library's metrics
+    static final String OBJECT_NAME = "lms:type=Library,name=Metrics";
+
+    private final Library library;
+    private final LatencyHistogram[] latencies = new LatencyHistogram[Op.values().length];
+
+    // Creates the metrics of a library (gauges read its modules)
+    Metrics(Library library) {
+        this.library = library;
+        for (int i = 0; i < latencies.length; i++) latencies[i] = new LatencyHistogram();
+    }
+
+    // Record one completed operation that started at startNanos (a System.nanoTime() value)
+    void record(Op op, long startNanos) {
+        latencies[op.ordinal()].record(System.nanoTime() - startNanos);
+    }
+
+    // Latency histogram of an operation
+    LatencyHistogram latency(Op op) {
+        return latencies[op.ordinal()];
+    }
+
+    // Every metric by name, in report order: per operation count, mean, percentiles and max (microseconds),
+    // then the gauges
+    Map<String, Number> snapshot() {
+        Map<String, Number> values = new LinkedHashMap<>();
+        putOperations(values);
+        putGauges(values);
+        return values;
+    }
+
+    // Count, mean, percentiles and max (microseconds) of every operation
+    private void putOperations(Map<String, Number> values) {
+        for (Op op : Op.values()) {
+            LatencyHistogram histogram = latency(op);
+            values.put(op.metric + ".count", histogram.count());
+            values.put(op.metric + ".meanMicros", histogram.mean() / 1000.0);
+            long[] percentiles = histogram.percentiles(PERCENTILES);
+            for (int i = 0; i < percentiles.length; i++) {
+                values.put(op.metric + "." + PERCENTILE_NAMES[i] + "Micros", percentiles[i] / 1000.0);
+            }
+            values.put(op.metric + ".maxMicros", histogram.max() / 1000.0);
+        }
+    }
+
+    // Current health of the modules
+    private void putGauges(Map<String, Number> values) {
+        values.put("inventory.size", library.inventory().size());
+        values.put("inventory.height", library.inventory().height());
+        values.put("borrowQueue.depth", library.borrowQueue().size());
+        values.put("borrowQueue.rejected", library.borrowQueue().rejectedCount());
+        values.put("returnStack.depth", library.returnStack().size());
+        values.put("waitlists.waiting", library.waitlists().size());
+        values.put("analytics.windowIssues", library.analytics().totalIssues(System.currentTimeMillis()));
+        values.put("history.users", library.history().userCount());
+        values.put("history.longest", library.history().longestHistory());
+    }
+
+    // Human-readable report: a table of operation latencies, then one line of gauges
+    String report() {
+        Map<String, Number> values = new LinkedHashMap<>();
+        putOperations(values);
+        Map<String, Number> gauges = new LinkedHashMap<>();
+        putGauges(gauges);
+
+        StringWriter text = new StringWriter();
+        PrintWriter out = new PrintWriter(text);
+        out.printf("---- Library metrics at %s ----%n",
+                LocalDateTime.now().format(DateTimeFormatter.ISO_LOCAL_DATE_TIME));
+        out.printf("%-14s %10s %10s %10s %10s %10s %10s%n",
+                "operation", "count", "mean(us)", "p50(us)", "p99(us)", "p99.9(us)", "max(us)");
+        for (Op op : Op.values()) {
+            String m = op.metric;
+            out.printf("%-14s %10d %10.1f %10.1f %10.1f %10.1f %10.1f%n", m,
+                    values.get(m + ".count").longValue(), values.get(m + ".meanMicros").doubleValue(),
+                    values.get(m + ".p50Micros").doubleValue(), values.get(m + ".p99Micros").doubleValue(),
+                    values.get(m + ".p999Micros").doubleValue(), values.get(m + ".maxMicros").doubleValue());
+        }
+        StringBuilder line = new StringBuilder("gauges:");
+        for (Map.Entry<String, Number> entry : gauges.entrySet()) {
+            line.append(' ').append(entry.getKey()).append('=').append(entry.getValue());
+        }
+        out.println(line);
+        out.flush();
+        return text.toString();
+    }
+
+    // Append the report to file every period until the returned scheduler is shut down
+    ScheduledExecutorService startDump(Path file, long period, TimeUnit unit) {
+        ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "lms-metrics-dump");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleAtFixedRate(() -> {
+            try (Writer out = Files.newBufferedWriter(file, StandardCharsets.UTF_8,
+                    StandardOpenOption.CREATE, StandardOpenOption.APPEND)) {
+                out.write(report());
+            } catch (IOException | RuntimeException e) {
+                // Keep dumping: a full disk or a transient error must not stop the schedule
+                System.err.println("Could not write metrics to " + file + ": " + e.getMessage());
+            }
+        }, period, period, unit);
+        return scheduler;
+    }
+
+    // Register these metrics with the platform MBean server under OBJECT_NAME (replacing an earlier library's)
+    void registerMBean() throws JMException {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName name = new ObjectName(OBJECT_NAME);
+        try {
+            server.registerMBean(new MetricsMBean(this), name);
+        } catch (InstanceAlreadyExistsException e) {
+            server.unregisterMBean(name);
+            server.registerMBean(new MetricsMBean(this), name);
+        }
+    }
+}
+
+// This MetricsMBean exposes a Metrics snapshot over JMX: one read-only attribute per metric
+// (for example "issue.p99Micros" or "borrowQueue.depth")
+class MetricsMBean implements DynamicMBean {
+    private final Metrics metrics;
+
+    MetricsMBean(Metrics metrics) {
+        this.metrics = metrics;
+    }
+
+    @Override
+    public Object getAttribute(String attribute) throws AttributeNotFoundException {
+        Number value = metrics.snapshot().get(attribute);
+        if (value == null) throw new AttributeNotFoundException(attribute);
+        return value;
+    }
+
+    @Override
+    public AttributeList getAttributes(String[] attributes) {
+        Map<String, Number> values = metrics.snapshot();
+        AttributeList list = new AttributeList();
+        for (String name : attributes) {
+            Number value = values.get(name);
+            if (value != null) list.add(new Attribute(name, value));
+        }
+        return list;
+    }
+
+    @Override
+    public void setAttribute(Attribute attribute) throws AttributeNotFoundException {
+        throw new AttributeNotFoundException("Library metrics are read-only: " + attribute.getName());
+    }
+
+    @Override
+    public AttributeList setAttributes(AttributeList attributes) {
+        return new AttributeList(); // Nothing is writable
+    }
+
+    @Override
+    public Object invoke(String actionName, Object[] params, String[] signature) {
+        throw new UnsupportedOperationException("No operations: " + actionName);
+    }
+
+    @Override
+    public MBeanInfo getMBeanInfo() {
+        List<MBeanAttributeInfo> attributes = new ArrayList<>();
+        for (Map.Entry<String, Number> entry : metrics.snapshot().entrySet()) {
+            attributes.add(new MBeanAttributeInfo(entry.getKey(), entry.getValue().getClass().getName(),
+                    entry.getKey(), true, false, false));
+        }
+        return new MBeanInfo(getClass().getName(), "Library operation latencies and module gauges",
+                attributes.toArray(new MBeanAttributeInfo[0]), null, null, null);
+    }
+}
@@ -0,0 +1,19 @@
+// This RankedCount is one row of a top-K answer: the key (a title ID, or a username's hash), its display name
+// and its count in the window
+class RankedCount {
+    final int id;
+    final String name;
+    final long count;
+
+    RankedCount(int id, String name, long count) {
+        this.id = id;
+        this.name = name;
+        this.count = count;
+    }
+
+    // Overriding toString() method
+    @Override
+    public String toString() {
+        return name + " (" + count + ")";
+    }
+}
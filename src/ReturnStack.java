@@ -1,48 +1,148 @@
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
 // This ReturnStack Implements a stack data structure for handling returned books
+// It is a lock-free linked (Treiber) stack: push and pop swap the top node with a CAS,
+// so many desks can record and process returns at the same time.
 class ReturnStack {
-    // Maximum number of books the stack can hold
-    private final int MAX = 100;
+    // This is one returned book on the stack
+    private static final class Node {
+        final String book;
+        Node next; // Set before the node is published, never changed afterwards
+
+        Node(String book) {
+            this.book = book;
+        }
+    }
+
+    // Maximum number of books the stack can hold (0 means unbounded)
+    private final int capacity;
+
+    // Top of the stack (null means the stack is currently empty)
+    private final AtomicReference<Node> top = new AtomicReference<>();
+
+    // Number of books on the stack (also reserves room when the stack is bounded)
+    private final AtomicInteger size = new AtomicInteger();
+
+    // Creates an unbounded stack
+    ReturnStack() {
+        this(0);
+    }
+
+    // Creates a stack holding at most capacity books (0 means unbounded)
+    ReturnStack(int capacity) {
+        if (capacity < 0) throw new IllegalArgumentException("Capacity must not be negative: " + capacity);
+        this.capacity = capacity;
+    }
+
+    // Number of books waiting to be processed
+    public int size() {
+        return size.get();
+    }
+
+    // True when no return is pending
+    public boolean isEmpty() {
+        return top.get() == null;
+    }
+
+    // Add a book onto the stack; returns false when a bounded stack is full
+    public boolean tryPush(String book) {
+        // Reserve room first so a bounded stack never grows past its capacity
+        if (capacity > 0) {
+            int current;
+            do {
+                current = size.get();
+                if (current >= capacity) return false;
+            } while (!size.compareAndSet(current, current + 1));
+        } else {
+            size.incrementAndGet();
+        }
+
+        Node node = new Node(book);
+        Node current;
+        do {
+            current = top.get();
+            node.next = current;
+        } while (!top.compareAndSet(current, node));
+        return true;
+    }
+
+    // Remove and return the most recently returned book, or null when the stack is empty
+    public String poll() {
+        Node current;
+        do {
+            current = top.get();
+            if (current == null) return null;
+        } while (!top.compareAndSet(current, current.next));
+        size.decrementAndGet();
+        return current.book;
+    }
 
-    // Array to store the returned books
-    private final String[] stack = new String[MAX];
+    // Remove up to n books, most recent first
+    public List<String> popBatch(int n) {
+        List<String> books = new ArrayList<>(Math.min(n, Math.max(size(), 1)));
+        while (books.size() < n) {
+            String book = poll();
+            if (book == null) break;
+            books.add(book);
+        }
+        return books;
+    }
 
-    // Pointer to track the top of the stack
-    private int top = -1;  // -1 means the stack is currently empty
+    // Remove every pending book at once, most recent first (one CAS detaches the whole stack)
+    public List<String> drainAll() {
+        Node node = top.getAndSet(null);
+        if (node == null) return Collections.emptyList();
+        List<String> books = new ArrayList<>(Math.max(size(), 16));
+        for (; node != null; node = node.next) books.add(node.book);
+        size.addAndGet(-books.size());
+        return books;
+    }
+
+    // Up to limit pending books after skipping the skip most recent ones (a snapshot, the stack is not changed)
+    public List<String> page(int skip, int limit) {
+        List<String> books = new ArrayList<>(Math.min(Math.max(limit, 0), 64));
+        Node node = top.get();
+        for (int i = 0; i < skip && node != null; i++) node = node.next;
+        for (; node != null && books.size() < limit; node = node.next) books.add(node.book);
+        return books;
+    }
+
+    // -------- Menu helpers -------- //
 
     // This is the push method to Add a book onto the stack
     public void push(String book) {
         // Check if the stack is already full
-        if (top == MAX - 1) {
+        if (!tryPush(book)) {
             System.out.println("Stack is full!");
-            return;
         }
-        // Increase the top pointer and add a book at that position
-        stack[++top] = book;
     }
 
     // This is the pop method to Remove and return the most recently returned book (LIFO order)
     public String pop() {
+        String book = poll();
         // Check if the stack is empty
-        if (top == -1) {
+        if (book == null) {
             System.out.println("Stack is empty!");
-            return null;
         }
-        // Return the book at the current top, then decrease the top pointer
-        return stack[top--];
+        return book;
     }
 
-    // Display all books currently in the stack
-    public void display() {
-        // If no books are in the stack
-        if (top == -1) {
+    // Display one page of the stack: up to limit books after skipping the skip most recent ones
+    public void display(int skip, int limit) {
+        List<String> books = page(skip, limit);
+        // If no books are in the stack (or on this page)
+        if (books.isEmpty()) {
             System.out.println("Stack is empty!");
             return;
         }
-        System.out.print("Remaining Books: ");
-        // Print books from bottom (0) to top
-        for (int i = 0; i <= top; i++) {
-            System.out.print(stack[i] + " | ");
+        StringBuilder line = new StringBuilder("Remaining Books (most recent first): ");
+        for (String book : books) {
+            line.append(book).append(" | ");
         }
-        System.out.println(); // Move to a new line after printing
+        System.out.println(line); // Move to a new line after printing
     }
 }
@@ -0,0 +1,30 @@
+import java.util.List;
+
+// This ReturnSummary is the result of processing pending returns:
+// the popped titles (most recent first), whether each one was finalized and who got the copy next
+class ReturnSummary {
+    final List<String> books;         // Titles in the order they were popped
+    final boolean[] returned;         // returned[i] is false when books.get(i) was not marked as issued
+    final BorrowRequest[] handedOver; // handedOver[i] is the waiting request the copy went to (or null)
+    int finalized;                    // Number of returns that were finalized
+    int fulfilled;                    // Number of returned copies issued straight to a waiting request
+
+    // Constructor (every flag is filled in by the processing run)
+    ReturnSummary(List<String> books) {
+        this.books = books;
+        this.returned = new boolean[books.size()];
+        this.handedOver = new BorrowRequest[books.size()];
+    }
+
+    // Total number of returns taken from the stack
+    int processed() {
+        return books.size();
+    }
+
+    // Overriding toString() method
+    @Override
+    public String toString() {
+        return "Processed " + processed() + " return(s): " + finalized + " returned (" + fulfilled
+                + " issued to waiting users), " + (processed() - finalized) + " skipped (not marked as issued).";
+    }
+}
@@ -0,0 +1,487 @@
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+
+// This ShardedBookInventory splits the catalog over N independent inventories (shards) by a hash of the ISBN.
+// Every shard keeps its own tree, indexes, copy stock and lock (or snapshots), so writers to different shards
+// never wait for each other:
+//  - ISBN operations (insert, delete, lookups, copies) go to the one shard that owns the ISBN
+//  - Title operations ask every shard (a title's books may live in several), each in O(1) or O(log n)
+//  - Whole-catalog queries (count, filter, export) scan all shards in parallel on a ForkJoinPool
+//  - Ordered results (iteration, filter, export, paged searches) k-way merge the shards' sorted streams,
+//    so orderings and cursors are the same as BookInventory's
+// Run InventoryScanSpeedup (benchmarks module) to compare a parallel scan with a single-tree scan.
+class ShardedBookInventory extends BookInventory {
+    // Books fetched from each shard per round of a parallel export
+    private static final int EXPORT_PAGE = 4096;
+
+    // Buffer size for exports
+    private static final int EXPORT_BUFFER_SIZE = 1 << 16;
+
+    private final BookInventory[] shards;
+    private final ForkJoinPool pool;
+
+    // Creates an inventory of the given number of BookInventory shards, scanned on the common pool
+    ShardedBookInventory(int shardCount) {
+        this(shardCount, BookInventory::new, ForkJoinPool.commonPool());
+    }
+
+    // Creates an inventory of the given number of shards made by newShard, scanned on pool
+    ShardedBookInventory(int shardCount, Supplier<BookInventory> newShard, ForkJoinPool pool) {
+        if (shardCount < 1) throw new IllegalArgumentException("Shard count must be positive: " + shardCount);
+        this.shards = new BookInventory[shardCount];
+        for (int i = 0; i < shardCount; i++) shards[i] = newShard.get();
+        this.pool = pool;
+    }
+
+    // Number of shards
+    int shardCount() {
+        return shards.length;
+    }
+
+    // Number of books in each shard
+    int[] shardSizes() {
+        int[] sizes = new int[shards.length];
+        for (int i = 0; i < shards.length; i++) sizes[i] = shards[i].size();
+        return sizes;
+    }
+
+    // Index of the shard that owns an ISBN (the hash is mixed so that similar ISBNs spread evenly)
+    private int shardIndex(String isbn) {
+        int h = isbn.hashCode() * 0x9E3779B9;
+        return Math.floorMod(h ^ (h >>> 16), shards.length);
+    }
+
+    // The shard that owns an ISBN
+    private BookInventory shard(String isbn) {
+        return shards[shardIndex(isbn)];
+    }
+
+    @Override
+    public boolean isEmpty() {
+        for (BookInventory shard : shards) {
+            if (!shard.isEmpty()) return false;
+        }
+        return true;
+    }
+
+    @Override
+    public int size() {
+        int size = 0;
+        for (BookInventory shard : shards) size += shard.size();
+        return size;
+    }
+
+    // A new empty inventory with as many shards of the same kind, scanned on the same pool
+    @Override
+    BookInventory emptyCopy() {
+        return new ShardedBookInventory(shards.length, shards[0]::emptyCopy, pool);
+    }
+
+    // One snapshot per shard, merged in ISBN order. Each part is one version of its shard and its size is the sum
+    // of theirs, so size and books always agree; shards publish independently, so the parts are not all taken at
+    // the same instant
+    @Override
+    Snapshot snapshot() {
+        List<Snapshot> parts = new ArrayList<>(shards.length);
+        int size = 0;
+        for (BookInventory shard : shards) {
+            Snapshot part = shard.snapshot();
+            parts.add(part);
+            size += part.size();
+        }
+        return new Snapshot(size, () -> {
+            List<Iterator<Book>> iterators = new ArrayList<>(parts.size());
+            for (Snapshot part : parts) iterators.add(part.iterator());
+            return new MergingIterator(iterators, book -> book.isbn);
+        });
+    }
+
+    // Height of the tallest shard
+    @Override
+    public int height() {
+        int height = 0;
+        for (BookInventory shard : shards) height = Math.max(height, shard.height());
+        return height;
+    }
+
+    // -------- Insert / Delete -------- //
+
+    @Override
+    public boolean insert(Book book, int copies) {
+        return shard(book.isbn).insert(book, copies);
+    }
+
+    @Override
+    public boolean delete(String isbn) {
+        return shard(isbn).delete(isbn);
+    }
+
+    // The sorted books are split by shard (each part stays sorted) and the shards load in parallel
+    @Override
+    public int bulkLoad(List<Book> books) {
+        List<List<Book>> parts = new ArrayList<>(shards.length);
+        for (int i = 0; i < shards.length; i++) parts.add(new ArrayList<>(books.size() / shards.length + 1));
+        for (Book book : books) parts.get(shardIndex(book.isbn)).add(book);
+        int added = 0;
+        for (int count : forEachShard(shard -> shard.bulkLoad(parts.get(indexOf(shard))))) added += count;
+        return added;
+    }
+
+    // Position of a shard in the shard array
+    private int indexOf(BookInventory shard) {
+        for (int i = 0; i < shards.length; i++) {
+            if (shards[i] == shard) return i;
+        }
+        throw new IllegalArgumentException("Not a shard of this inventory");
+    }
+
+    // -------- Lookups -------- //
+
+    @Override
+    public Book findBook(String isbn) {
+        return shard(isbn).findBook(isbn);
+    }
+
+    @Override
+    public boolean containsIsbn(String isbn) {
+        if (isbn == null || isbn.trim().isEmpty()) return false; // Guard against invalid input
+        return shard(isbn.trim()).containsIsbn(isbn);
+    }
+
+    @Override
+    public boolean hasTitle(String title) {
+        for (BookInventory shard : shards) {
+            if (shard.hasTitle(title)) return true;
+        }
+        return false;
+    }
+
+    @Override
+    public int titleId(String title) {
+        for (BookInventory shard : shards) {
+            int id = shard.titleId(title);
+            if (id >= 0) return id;
+        }
+        return -1;
+    }
+
+    @Override
+    public boolean hasTitleId(int titleId) {
+        for (BookInventory shard : shards) {
+            if (shard.hasTitleId(titleId)) return true;
+        }
+        return false;
+    }
+
+    // Shard by shard, each in ISBN order
+    @Override
+    public List<String> isbnsForTitle(String title) {
+        List<String> isbns = null;
+        for (BookInventory shard : shards) {
+            List<String> part = shard.isbnsForTitle(title);
+            if (part.isEmpty()) continue;
+            if (isbns == null) isbns = new ArrayList<>(part);
+            else isbns.addAll(part);
+        }
+        return isbns == null ? Collections.emptyList() : isbns;
+    }
+
+    // -------- Copies -------- //
+
+    @Override
+    public CopyCounts copies(String isbn) {
+        return shard(isbn).copies(isbn);
+    }
+
+    @Override
+    public boolean addCopies(String isbn, int n) {
+        return shard(isbn).addCopies(isbn, n);
+    }
+
+    // Sum of the shards' O(1) per-title counts
+    @Override
+    public int availableCopies(int titleId) {
+        int available = 0;
+        for (BookInventory shard : shards) available += shard.availableCopies(titleId);
+        return available;
+    }
+
+    @Override
+    public int availableCopies(String title) {
+        return availableCopies(titleId(title));
+    }
+
+    @Override
+    public int issuedCopies(int titleId) {
+        int issued = 0;
+        for (BookInventory shard : shards) issued += shard.issuedCopies(titleId);
+        return issued;
+    }
+
+    // The first shard (in shard order) with a book whose counts allow the transition; shards without an
+    // available copy of the title reject it in O(1)
+    @Override
+    String transition(int titleId, CopyStock.Transition transition) {
+        if (titleId < 0) return null;
+        for (BookInventory shard : shards) {
+            String isbn = shard.transition(titleId, transition);
+            if (isbn != null) return isbn;
+        }
+        return null;
+    }
+
+    @Override
+    boolean transition(String isbn, CopyStock.Transition transition) {
+        return shard(isbn).transition(isbn, transition);
+    }
+
+    @Override
+    boolean setCopies(String isbn, int total, int reserved, int issued) {
+        return shard(isbn).setCopies(isbn, total, reserved, issued);
+    }
+
+    // -------- Paged searches -------- //
+    // Every shard returns its own page from the same cursor; the pages are merged and cut to limit.
+    // The books left out all sort after the last one returned, so its key is the next cursor.
+
+    @Override
+    public BookPage searchTitlePrefix(String prefix, String cursor, int limit) {
+        return mergePages(shard -> shard.searchTitlePrefix(prefix, cursor, limit), book -> searchKey(book.title, book), limit);
+    }
+
+    @Override
+    public BookPage searchAuthorPrefix(String prefix, String cursor, int limit) {
+        return mergePages(shard -> shard.searchAuthorPrefix(prefix, cursor, limit), book -> searchKey(book.author, book), limit);
+    }
+
+    @Override
+    public BookPage isbnRange(String fromIsbn, String toIsbn, String cursor, int limit) {
+        return mergePages(shard -> shard.isbnRange(fromIsbn, toIsbn, cursor, limit), book -> book.isbn, limit);
+    }
+
+    // Merge one page per shard (each ordered by key) into the first limit books over all shards
+    private BookPage mergePages(Function<BookInventory, BookPage> page, Function<Book, String> key, int limit) {
+        if (limit < 1) limit = 1;
+        List<Iterator<Book>> parts = new ArrayList<>(shards.length);
+        boolean more = false;
+        for (BookInventory shard : shards) {
+            BookPage part = page.apply(shard);
+            parts.add(part.books.iterator());
+            more |= part.hasMore();
+        }
+        List<Book> books = new ArrayList<>(Math.min(limit, 64));
+        Iterator<Book> merged = new MergingIterator(parts, key);
+        while (merged.hasNext()) {
+            if (books.size() == limit) {
+                more = true;
+                break;
+            }
+            books.add(merged.next());
+        }
+        return new BookPage(books, more && !books.isEmpty() ? key.apply(books.get(books.size() - 1)) : null);
+    }
+
+    // -------- Traversal -------- //
+
+    // A k-way merge of the shards' in-order iterators
+    @Override
+    public Iterator<Book> iterator(String fromIsbn) {
+        List<Iterator<Book>> parts = new ArrayList<>(shards.length);
+        for (BookInventory shard : shards) parts.add(shard.iterator(fromIsbn));
+        return new MergingIterator(parts, book -> book.isbn);
+    }
+
+    @Override
+    public void forEach(String fromIsbn, Consumer<? super Book> action) {
+        for (Iterator<Book> it = iterator(fromIsbn); it.hasNext(); ) action.accept(it.next());
+    }
+
+    // -------- Whole-catalog queries -------- //
+
+    // Every shard counts its own books in parallel
+    @Override
+    public long count(Predicate<? super Book> filter) {
+        long matches = 0;
+        for (long count : forEachShard(shard -> shard.count(filter))) matches += count;
+        return matches;
+    }
+
+    // Every shard finds its first limit matches in parallel, then the sorted lists are merged
+    @Override
+    public List<Book> filter(Predicate<? super Book> filter, int limit) {
+        List<Iterator<Book>> parts = new ArrayList<>(shards.length);
+        for (List<Book> part : forEachShard(shard -> shard.filter(filter, limit))) parts.add(part.iterator());
+        List<Book> books = new ArrayList<>(Math.min(Math.max(limit, 0), 64));
+        for (Iterator<Book> merged = new MergingIterator(parts, book -> book.isbn); merged.hasNext() && books.size() < limit; ) {
+            books.add(merged.next());
+        }
+        return books;
+    }
+
+    // Exports in rounds: every shard reads and formats its next EXPORT_PAGE books in parallel, then the rows
+    // are merged in ISBN order up to the smallest last ISBN of the shards that have more (later rows are
+    // read again next round). Memory stays at one page per shard however large the catalog is.
+    @Override
+    public long export(Writer out, String fromIsbn) throws IOException {
+        BufferedWriter buffered = new BufferedWriter(out, EXPORT_BUFFER_SIZE);
+        long written = 0;
+        String cursor = null;
+        while (true) {
+            String after = cursor;
+            List<ExportPage> pages = forEachShard(shard -> new ExportPage(shard.isbnRange(fromIsbn, null, after, EXPORT_PAGE)));
+
+            // Rows up to the bound are complete in every shard
+            String bound = null;
+            for (ExportPage page : pages) {
+                if (page.more && (bound == null || page.lastIsbn().compareTo(bound) < 0)) bound = page.lastIsbn();
+            }
+            PriorityQueue<ExportPage> heads = new PriorityQueue<>(shards.length, Comparator.comparing(ExportPage::isbn));
+            for (ExportPage page : pages) {
+                if (page.hasRow()) heads.add(page);
+            }
+            while (!heads.isEmpty()) {
+                ExportPage page = heads.poll();
+                if (bound != null && page.isbn().compareTo(bound) > 0) break;
+                buffered.write(page.rows[page.next++]);
+                written++;
+                if (page.hasRow()) heads.add(page);
+            }
+            if (bound == null) break;
+            cursor = bound;
+        }
+        buffered.flush();
+        return written;
+    }
+
+    // -------- Parallel helpers -------- //
+
+    // Run work on every shard in parallel on the pool; results in shard order
+    private <T> List<T> forEachShard(Function<BookInventory, T> work) {
+        Object[] results = new Object[shards.length];
+        pool.invoke(new ShardTask(work, results, 0, shards.length));
+        List<T> list = new ArrayList<>(shards.length);
+        for (Object result : results) {
+            @SuppressWarnings("unchecked") T value = (T) result;
+            list.add(value);
+        }
+        return list;
+    }
+
+    // Fork/join task that runs work on shards[lo..hi), splitting the range in halves down to one shard
+    private final class ShardTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final Function<BookInventory, ?> work;
+        private final Object[] results;
+        private final int lo, hi;
+
+        ShardTask(Function<BookInventory, ?> work, Object[] results, int lo, int hi) {
+            this.work = work;
+            this.results = results;
+            this.lo = lo;
+            this.hi = hi;
+        }
+
+        @Override
+        protected void compute() {
+            if (hi - lo == 1) {
+                results[lo] = work.apply(shards[lo]);
+                return;
+            }
+            int mid = (lo + hi) >>> 1;
+            invokeAll(new ShardTask(work, results, lo, mid), new ShardTask(work, results, mid, hi));
+        }
+    }
+
+    // One shard's page of an export round with its rows already formatted as escaped TSV (ISBN, Title, Author)
+    private static final class ExportPage {
+        final Book[] books;
+        final String[] rows;
+        final boolean more;
+        int next;
+
+        ExportPage(BookPage page) {
+            books = page.books.toArray(new Book[0]);
+            rows = new String[books.length];
+            for (int i = 0; i < books.length; i++) {
+                rows[i] = escapeTsv(books[i].isbn) + '\t' + escapeTsv(books[i].title) + '\t'
+                        + escapeTsv(books[i].author) + '\n';
+            }
+            more = page.hasMore();
+        }
+
+        boolean hasRow() {
+            return next < books.length;
+        }
+
+        String isbn() {
+            return books[next].isbn;
+        }
+
+        String lastIsbn() {
+            return books[books.length - 1].isbn;
+        }
+    }
+
+    // K-way merge of sorted iterators: a heap holds the head of every non-exhausted iterator, ordered by key
+    private static final class MergingIterator implements Iterator<Book> {
+        private final PriorityQueue<Head> heads;
+
+        MergingIterator(List<Iterator<Book>> parts, Function<Book, String> key) {
+            heads = new PriorityQueue<>(Math.max(1, parts.size()), Comparator.comparing(head -> head.key));
+            for (Iterator<Book> part : parts) {
+                if (part.hasNext()) heads.add(new Head(part, key));
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            return !heads.isEmpty();
+        }
+
+        @Override
+        public Book next() {
+            Head head = heads.poll();
+            if (head == null) throw new NoSuchElementException();
+            Book book = head.book;
+            if (head.advance()) heads.add(head);
+            return book;
+        }
+
+        // The current book of one iterator and its merge key
+        private static final class Head {
+            private final Iterator<Book> part;
+            private final Function<Book, String> keyOf;
+            Book book;
+            String key;
+
+            Head(Iterator<Book> part, Function<Book, String> keyOf) {
+                this.part = part;
+                this.keyOf = keyOf;
+                advance();
+            }
+
+            // Move to the next book; false when the iterator is exhausted
+            boolean advance() {
+                if (!part.hasNext()) return false;
+                book = part.next();
+                key = keyOf.apply(book);
+                return true;
+            }
+        }
+    }
+}
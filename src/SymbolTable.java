@@ -0,0 +1,106 @@
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+
+// This SymbolTable interns strings (usernames, normalized titles, ISBNs) to dense int IDs 0, 1, 2, ...
+// so hot paths can pass and compare ints instead of building and hashing strings. An ID can also carry an int
+// value fixed when it is created (a book ID carries its title ID).
+// Looking up an existing ID allocates nothing. Interning and lookups are safe for concurrent use; an ID that is
+// released is handed out again by a later intern, so release is only for an owner that serializes its own use
+// of the table (UserHistory keeps one per history and releases a user's ID once the history is empty).
+class SymbolTable {
+    // Process-wide tables shared by the modules (never released)
+    static final SymbolTable TITLES = new SymbolTable();  // normalized title -> title ID
+    static final SymbolTable BOOKS = new SymbolTable();   // ISBN -> book ID (name: the ISBN, value: its title ID)
+
+    // key -> ID for lookups; readers never lock
+    private final ConcurrentHashMap<String, Integer> ids = new ConcurrentHashMap<>();
+
+    // ID -> key, display name and value (written before the ID is published in ids)
+    private volatile String[] keys = new String[16];
+    private volatile String[] names = new String[16];
+    private volatile int[] values = new int[16];
+    private int count; // guarded by this
+
+    // Released IDs, handed out again before new ones (guarded by this)
+    private int[] free = new int[0];
+    private int freeCount;
+
+    // ID of key, creating a new one if needed; the key itself is also its display name
+    public int intern(String key) {
+        return intern(key, key);
+    }
+
+    // ID of key, creating a new one with the given display name if needed
+    public int intern(String key, String name) {
+        Integer id = ids.get(key);
+        if (id != null) return id;
+        synchronized (this) {
+            id = ids.get(key);
+            return id != null ? id : add(key, name, 0);
+        }
+    }
+
+    // ID of key with the given value, creating a new one if needed. When the key's ID carries another value
+    // (an ISBN re-added under another title), the key moves to a new ID; the old one keeps its key, name and value
+    public int intern(String key, String name, int value) {
+        Integer id = ids.get(key);
+        if (id != null && values[id] == value) return id;
+        synchronized (this) {
+            id = ids.get(key);
+            return id != null && values[id] == value ? id : add(key, name, value);
+        }
+    }
+
+    // Store a new ID and publish it as key's ID (caller holds this)
+    private int add(String key, String name, int value) {
+        int newId = freeCount > 0 ? free[--freeCount] : count;
+        if (newId == keys.length) {
+            keys = Arrays.copyOf(keys, newId * 2);
+            names = Arrays.copyOf(names, newId * 2);
+            values = Arrays.copyOf(values, newId * 2);
+        }
+        keys[newId] = key;
+        names[newId] = name;
+        values[newId] = value;
+        if (newId == count) count = newId + 1;
+        ids.put(key, newId); // Publishes the ID only after its key, name and value are stored
+        return newId;
+    }
+
+    // ID of an already interned key, or -1 if it was never interned
+    public int idOf(String key) {
+        Integer id = ids.get(key);
+        return id == null ? -1 : id;
+    }
+
+    // Key that was interned as the given ID
+    public String key(int id) {
+        return keys[id];
+    }
+
+    // Display name registered for the given ID
+    public String name(int id) {
+        return names[id];
+    }
+
+    // Value the given ID was created with
+    public int value(int id) {
+        return values[id];
+    }
+
+    // Forget the key of an ID; the ID is handed out again by a later intern
+    public synchronized void release(int id) {
+        String key = keys[id];
+        if (key == null) return;
+        ids.remove(key);
+        keys[id] = null;
+        names[id] = null;
+        if (freeCount == free.length) free = Arrays.copyOf(free, Math.max(8, freeCount * 2));
+        free[freeCount++] = id;
+    }
+
+    // Bound of the IDs handed out so far (IDs are 0 .. size() - 1; a released ID has no key until reused)
+    public synchronized int size() {
+        return count;
+    }
+}
@@ -1,85 +1,527 @@
-import java.util.HashMap;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
 
-// This is the Node class to represent each book in a user's history (Linked List node)
-class HistoryNode {
-    String bookTitle;
-    HistoryNode next;
+// This is one user's history: a log of entries in issue order, numbered 0, 1, 2, ... (sequence numbers) and
+// packed into blocks of BLOCK_SIZE entries instead of one linked node per entry:
+//  - issue times: the block's first time as a long, then the varint delta from the previous entry
+//    (a user's times never go backwards, so the deltas are small and positive: usually 1-4 bytes)
+//  - two ints per entry: the book ID of the issued ISBN (REMOVED once the entry is gone) and the sequence number
+//    of the previous entry with the same title, so the most recent entry of a title can always be removed in O(1)
+//    (a book ID carries its title ID, see SymbolTable.BOOKS)
+// Blocks are ordered by their first issue time, so a time range is found by binary search over the blocks.
+// Retention drops entries oldest first and frees a block once it is empty; a removed entry stays as a
+// tombstone until its block is freed.
+class HistoryList {
+    static final int BLOCK_SHIFT = 6;
+    static final int BLOCK_SIZE = 1 << BLOCK_SHIFT;
+    private static final int BLOCK_MASK = BLOCK_SIZE - 1;
 
-    HistoryNode(String bookTitle) {
-        this.bookTitle = bookTitle;
-        this.next = null;
+    private static final int REMOVED = -1; // Book ID of a removed entry
+    private static final int NONE = -1;    // No (previous) entry with that title
+
+    // Up to this many entries a title is found by scanning the entries; longer histories keep a title index
+    private static final int INDEX_THRESHOLD = BLOCK_SIZE;
+
+    private static final byte[] NO_TIMES = new byte[0];
+
+    // Retained blocks: slots first .. first + blockCount - 1, holding block numbers firstBlock, firstBlock + 1, ...
+    private Block[] blocks = new Block[1];
+    private int first;
+    private int blockCount;
+    private int firstBlock;
+
+    private int startSeq;                 // Entries before this one were dropped by retention
+    private int endSeq;                   // Sequence number of the next entry
+    private long lastAt = Long.MIN_VALUE; // Issue time of the newest entry
+    int size;                             // Live entries
+
+    // Title ID -> newest live entry (null while the history is short enough to scan)
+    private TitleIndex latest;
+
+    // Append an entry (an issue time before the newest entry's is stored as the newest entry's time)
+    void add(int bookId, long issuedAt) {
+        int titleId = SymbolTable.BOOKS.value(bookId);
+        long at = Math.max(issuedAt, lastAt);
+        int seq = endSeq;
+        Block block;
+        if ((seq & BLOCK_MASK) == 0) {
+            block = new Block(at);
+            appendBlock(block);
+        } else {
+            block = blocks[first + blockCount - 1];
+            block.appendDelta(at - lastAt);
+        }
+        int older = latest(titleId);
+        block.append(bookId, older);
+        endSeq++;
+        lastAt = at;
+        size++;
+        if (latest != null) latest.put(titleId, seq);
+        else if (endSeq - startSeq > INDEX_THRESHOLD) buildIndex();
+    }
+
+    // Remove the most recent entry with the title; false when there is none
+    boolean remove(int titleId) {
+        int seq = latest(titleId);
+        if (seq == NONE) return false;
+        Block block = block(seq);
+        int older = block.refs[2 * (seq & BLOCK_MASK) + 1];
+        kill(block, seq);
+        // The previous entry with that title (never a tombstone, only dropped) becomes the most recent one
+        if (latest != null) {
+            if (older >= startSeq) latest.put(titleId, older);
+            else latest.remove(titleId);
+        }
+        freeEmptyBlocks();
+        return true;
+    }
+
+    // Drop the oldest live entry (size > 0)
+    void dropOldest() {
+        int seq = startSeq;
+        while (bookOf(seq) == REMOVED) seq++;
+        dropBefore(seq + 1);
+    }
+
+    // Drop the entries issued before cutoff
+    void dropOlderThan(long cutoff) {
+        while (size > 0) {
+            // Every entry of a block is at most the next block's first time: drop whole blocks first
+            if (blockCount > 1 && blocks[first + 1].startAt < cutoff) {
+                dropBefore((firstBlock + 1) << BLOCK_SHIFT);
+                continue;
+            }
+            Block front = blocks[first];
+            if (front.startAt >= cutoff) return;
+            int base = firstBlock << BLOCK_SHIFT;
+            long at = front.startAt;
+            int pos = 0;
+            for (int i = 0; i < front.count; i++) {
+                if (i > 0) {
+                    long delta = 0;
+                    for (int shift = 0; ; shift += 7) {
+                        byte b = front.times[pos++];
+                        delta |= (long) (b & 0x7F) << shift;
+                        if (b >= 0) break;
+                    }
+                    at += delta;
+                }
+                if (at >= cutoff) {
+                    dropBefore(base + i);
+                    return;
+                }
+            }
+            dropBefore(base + front.count);
+        }
+    }
+
+    // Drop every live entry with a sequence number below end
+    private void dropBefore(int end) {
+        for (int seq = startSeq; seq < end; seq++) {
+            Block block = block(seq);
+            int bookId = block.refs[2 * (seq & BLOCK_MASK)];
+            if (bookId == REMOVED) continue;
+            int titleId = SymbolTable.BOOKS.value(bookId);
+            kill(block, seq);
+            // The oldest entry of a title is its newest one only when it is the last one
+            if (latest != null && latest.get(titleId) == seq) latest.remove(titleId);
+        }
+        startSeq = Math.max(startSeq, end);
+        freeEmptyBlocks();
+    }
+
+    // Turn a live entry into a tombstone
+    private void kill(Block block, int seq) {
+        block.refs[2 * (seq & BLOCK_MASK)] = REMOVED;
+        block.live--;
+        size--;
+    }
+
+    // -------- Queries -------- //
+
+    // Titles of up to limit entries, most recent first, after skipping the skip most recent ones
+    void titles(int skip, int limit, List<String> titles) {
+        for (int seq = endSeq - 1; seq >= startSeq && titles.size() < limit; seq--) {
+            int titleId = titleOf(seq);
+            if (titleId == REMOVED || skip-- > 0) continue;
+            titles.add(SymbolTable.TITLES.name(titleId));
+        }
+    }
+
+    // Entries with from <= issue time < to, oldest first: a binary search finds the first block that can
+    // hold one, then the blocks are decoded until the times reach to
+    void entries(long from, long to, List<HistoryEntry> entries) {
+        int lo = 0, hi = blockCount; // First block starting at or after from
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (blocks[first + mid].startAt < from) lo = mid + 1;
+            else hi = mid;
+        }
+        // The block before it may end with entries at or after from
+        for (int b = Math.max(lo - 1, 0); b < blockCount; b++) {
+            Block block = blocks[first + b];
+            if (block.startAt >= to) return;
+            int base = (firstBlock + b) << BLOCK_SHIFT;
+            long at = block.startAt;
+            int pos = 0;
+            for (int i = 0; i < block.count; i++) {
+                if (i > 0) {
+                    long delta = 0;
+                    for (int shift = 0; ; shift += 7) {
+                        byte bits = block.times[pos++];
+                        delta |= (long) (bits & 0x7F) << shift;
+                        if (bits >= 0) break;
+                    }
+                    at += delta;
+                }
+                if (at >= to) return;
+                int bookId = block.refs[2 * i];
+                if (at >= from && bookId != REMOVED && base + i >= startSeq) entries.add(new HistoryEntry(bookId, at));
+            }
+        }
+    }
+
+    // -------- Blocks -------- //
+
+    // Book ID of a retained entry (REMOVED for a tombstone)
+    private int bookOf(int seq) {
+        return block(seq).refs[2 * (seq & BLOCK_MASK)];
+    }
+
+    // Title ID of a retained entry (REMOVED for a tombstone)
+    private int titleOf(int seq) {
+        int bookId = bookOf(seq);
+        return bookId == REMOVED ? REMOVED : SymbolTable.BOOKS.value(bookId);
+    }
+
+    // Block holding a retained entry
+    private Block block(int seq) {
+        return blocks[first + (seq >>> BLOCK_SHIFT) - firstBlock];
+    }
+
+    // Newest live entry with the title, or NONE
+    private int latest(int titleId) {
+        if (latest != null) return latest.get(titleId);
+        for (int seq = endSeq - 1; seq >= startSeq; seq--) {
+            if (titleOf(seq) == titleId) return seq;
+        }
+        return NONE;
+    }
+
+    // Index the newest live entry of every title (once the history grows past INDEX_THRESHOLD entries)
+    private void buildIndex() {
+        latest = new TitleIndex();
+        for (int seq = startSeq; seq < endSeq; seq++) {
+            int titleId = titleOf(seq);
+            if (titleId != REMOVED) latest.put(titleId, seq);
+        }
+    }
+
+    // Add a block after the last one; the directory slides back to slot 0 before it grows
+    private void appendBlock(Block block) {
+        if (first + blockCount == blocks.length) {
+            if (first > 0 && blockCount <= blocks.length / 2) {
+                System.arraycopy(blocks, first, blocks, 0, blockCount);
+                Arrays.fill(blocks, blockCount, blocks.length, null);
+                first = 0;
+            } else {
+                blocks = Arrays.copyOf(blocks, blocks.length * 2);
+            }
+        }
+        if (blockCount == 0) firstBlock = endSeq >>> BLOCK_SHIFT;
+        blocks[first + blockCount++] = block;
+    }
+
+    // Free the empty blocks at the front (the newest block stays: entries are still appended to it)
+    private void freeEmptyBlocks() {
+        while (blockCount > 1 && blocks[first].live == 0) {
+            blocks[first++] = null;
+            blockCount--;
+            firstBlock++;
+        }
+        startSeq = Math.max(startSeq, firstBlock << BLOCK_SHIFT);
+    }
+
+    // Up to BLOCK_SIZE entries with consecutive sequence numbers
+    private static final class Block {
+        final long startAt;         // Issue time of the first entry
+        byte[] times = NO_TIMES;    // Varint time deltas of the other entries
+        int timeBytes;
+        int[] refs = new int[2];    // Per entry: book ID, previous entry with the same title
+        int count;                  // Entries
+        int live;                   // Entries that are neither removed nor dropped
+
+        Block(long startAt) {
+            this.startAt = startAt;
+        }
+
+        void appendDelta(long delta) {
+            if (timeBytes + 10 > times.length) times = Arrays.copyOf(times, Math.max(16, times.length * 2));
+            while ((delta & ~0x7FL) != 0) {
+                times[timeBytes++] = (byte) ((delta & 0x7F) | 0x80);
+                delta >>>= 7;
+            }
+            times[timeBytes++] = (byte) delta;
+        }
+
+        void append(int bookId, int older) {
+            if (2 * count == refs.length) refs = Arrays.copyOf(refs, Math.min(2 * BLOCK_SIZE, refs.length * 2));
+            refs[2 * count] = bookId;
+            refs[2 * count + 1] = older;
+            count++;
+            live++;
+        }
+    }
+
+    // Title ID -> sequence number, open addressing with linear probing (keys are stored + 1, so 0 is free)
+    private static final class TitleIndex {
+        private int[] keys = new int[2 * INDEX_THRESHOLD];
+        private int[] seqs = new int[2 * INDEX_THRESHOLD];
+        private int size;
+
+        int get(int titleId) {
+            int mask = keys.length - 1;
+            for (int i = slot(titleId, mask); keys[i] != 0; i = (i + 1) & mask) {
+                if (keys[i] == titleId + 1) return seqs[i];
+            }
+            return NONE;
+        }
+
+        void put(int titleId, int seq) {
+            if ((size + 1) * 4 > keys.length * 3) grow();
+            int mask = keys.length - 1;
+            int i = slot(titleId, mask);
+            while (keys[i] != 0 && keys[i] != titleId + 1) i = (i + 1) & mask;
+            if (keys[i] == 0) size++;
+            keys[i] = titleId + 1;
+            seqs[i] = seq;
+        }
+
+        // Backward-shift deletion: later entries of the probe run move up, so lookups never need tombstones
+        void remove(int titleId) {
+            int mask = keys.length - 1;
+            int hole = slot(titleId, mask);
+            while (keys[hole] != titleId + 1) {
+                if (keys[hole] == 0) return;
+                hole = (hole + 1) & mask;
+            }
+            size--;
+            for (int i = (hole + 1) & mask; keys[i] != 0; i = (i + 1) & mask) {
+                int home = slot(keys[i] - 1, mask);
+                if (((i - home) & mask) >= ((i - hole) & mask)) {
+                    keys[hole] = keys[i];
+                    seqs[hole] = seqs[i];
+                    hole = i;
+                }
+            }
+            keys[hole] = 0;
+        }
+
+        private void grow() {
+            int[] oldKeys = keys, oldSeqs = seqs;
+            keys = new int[oldKeys.length * 2];
+            seqs = new int[oldKeys.length * 2];
+            size = 0;
+            for (int i = 0; i < oldKeys.length; i++) {
+                if (oldKeys[i] != 0) put(oldKeys[i] - 1, oldSeqs[i]);
+            }
+        }
+
+        private static int slot(int titleId, int mask) {
+            int h = titleId * 0x9E3779B9;
+            return (h ^ (h >>> 16)) & mask;
+        }
     }
 }
 
 // This is the UserHistory class, manages borrowed/returned book histories for multiple users
+// Every entry records the book issued (as an ID in SymbolTable.BOOKS, which also gives its title) and the issue
+// time, so histories can also be queried by time range ("what did this user borrow last month"). Removals and
+// listings work by title through the book's title ID, which stays valid after the ISBN is deleted.
+// See HistoryList for the compact layout; run HistoryFootprint (benchmarks module) to compare its bytes per
+// entry with a linked node per entry.
+// Users are interned in a table of this history's own; a user's ID is released as soon as their history is
+// empty (removed, expired or trimmed away), so the table only holds users that still have entries.
+// Thread-safe: every method locks the whole history (reads too, since reading applies the age limit)
 public class UserHistory {
-    // A HashMap to store each user's history (username -> linked list of HistoryNodes)
-    private final HashMap<String, HistoryNode> userHistories = new HashMap<>();
+    // Usernames of the users with a history -> user ID (IDs of emptied histories are reused)
+    private final SymbolTable users = new SymbolTable();
 
-    // Add a book to a user's history
-    // Creates a new node and inserts it at the head of the linked list
-    public void addBook(String username, String title) {
-        HistoryNode newNode = new HistoryNode(title);
-        // The new book points to the current head of the user's history
-        newNode.next = userHistories.get(username);
-        // Update head to new node
-        userHistories.put(username, newNode);
+    // Each user's history by user ID (block-packed entries; null for a free ID)
+    private HistoryList[] histories = new HistoryList[16];
+
+    // Number of users with a history
+    private int userCount;
+
+    // Retention: keep at most this many entries per user (0 means no limit)
+    private final int maxEntriesPerUser;
+
+    // Retention: drop entries older than this many milliseconds (0 means no limit)
+    private final long maxAgeMillis;
+
+    // Creates a history without retention limits
+    public UserHistory() {
+        this(0, 0);
     }
 
-    // Remove a book from a user's history
-    public void removeBook(String username, String title) {
-        // If a user has no history, exit
-        if (!userHistories.containsKey(username)) return;
+    // Creates a history that keeps at most maxEntriesPerUser entries per user
+    // and drops entries older than maxAgeMillis (0 disables either limit)
+    public UserHistory(int maxEntriesPerUser, long maxAgeMillis) {
+        if (maxEntriesPerUser < 0 || maxAgeMillis < 0) throw new IllegalArgumentException("Retention limits must not be negative");
+        this.maxEntriesPerUser = maxEntriesPerUser;
+        this.maxAgeMillis = maxAgeMillis;
+    }
 
-        HistoryNode head = userHistories.get(username);
-        if (head == null) return;
+    // Add a title to a user's history (issued now, ISBN unknown), then apply retention
+    public void addBook(String username, String title) {
+        addBook(username, "", title, System.currentTimeMillis());
+    }
 
-        // Case 1: The book to remove is at the head
-        if (head.bookTitle.equals(title)) {
-            userHistories.put(username, head.next); // Move head forward
-            return;
-        }
+    // Add the book with the given ISBN ("" when unknown) and title to a user's history with an explicit issue time
+    // (used when restoring saved histories)
+    public void addBook(String username, String isbn, String title, long issuedAt) {
+        int titleId = SymbolTable.TITLES.intern(BookInventory.normalizeTitle(title), title);
+        addBook(username, BookInventory.bookIdOf(isbn, titleId), issuedAt);
+    }
 
-        // Case 2: Traverse the list to find the book
-        HistoryNode temp = head;
-        while (temp.next != null && !temp.next.bookTitle.equals(title)) {
-            temp = temp.next;
+    // Add a book ID (SymbolTable.BOOKS) to a user's history; a user's issue times never go backwards,
+    // so an issue time before the user's latest entry is recorded as that entry's time
+    public synchronized void addBook(String username, int bookId, long issuedAt) {
+        int userId = users.intern(username);
+        if (userId >= histories.length) histories = Arrays.copyOf(histories, Math.max(userId + 1, histories.length * 2));
+        HistoryList list = histories[userId];
+        if (list == null) {
+            list = histories[userId] = new HistoryList();
+            userCount++;
         }
-
-        // If found, unlink the node
-        if (temp.next != null) {
-            temp.next = temp.next.next;
+        long now = Math.max(issuedAt, System.currentTimeMillis());
+        list.add(bookId, issuedAt);
+        if (maxEntriesPerUser > 0) {
+            while (list.size > maxEntriesPerUser) list.dropOldest();
         }
+        expire(userId, list, now);
     }
 
-    // Display a specific user's history
-    public void displayHistory(String username) {
-        // If no history exists for the user
-        if (!userHistories.containsKey(username) || userHistories.get(username) == null) {
+    // Drop entries older than the age limit (oldest first); forget users whose history becomes empty
+    private void expire(int userId, HistoryList list, long now) {
+        if (maxAgeMillis > 0) list.dropOlderThan(now - maxAgeMillis);
+        if (list.size == 0) forget(userId);
+    }
+
+    // Drop a user whose history is empty and release their ID
+    private void forget(int userId) {
+        histories[userId] = null;
+        users.release(userId);
+        userCount--;
+    }
+
+    // A user's history after applying the age limit, or null when the user has none
+    private HistoryList historyOf(String username) {
+        int userId = users.idOf(username);
+        if (userId < 0) return null;
+        HistoryList list = histories[userId];
+        expire(userId, list, System.currentTimeMillis());
+        return list.size == 0 ? null : list;
+    }
+
+    // Remove a book from a user's history (the most recent entry with that title, ignoring case) in O(1)
+    public synchronized void removeBook(String username, String title) {
+        // If a user has no history, or nobody ever borrowed the title, exit
+        int userId = users.idOf(username);
+        int titleId = SymbolTable.TITLES.idOf(BookInventory.normalizeTitle(title));
+        if (userId < 0 || titleId < 0) return;
+
+        HistoryList list = histories[userId];
+        list.remove(titleId);
+        if (list.size == 0) forget(userId);
+    }
+
+    // Number of entries in a user's history
+    public synchronized int historySize(String username) {
+        HistoryList list = historyOf(username);
+        return list == null ? 0 : list.size;
+    }
+
+    // Number of users that have a history
+    public synchronized int userCount() {
+        return userCount;
+    }
+
+    // Length of the longest user history (entries past the age limit are counted until the user is next read)
+    public synchronized int longestHistory() {
+        int longest = 0;
+        for (HistoryList list : histories) if (list != null) longest = Math.max(longest, list.size);
+        return longest;
+    }
+
+    // Names of all users that have a history
+    public synchronized List<String> users() {
+        List<String> names = new ArrayList<>(userCount);
+        for (int id = 0; id < histories.length; id++) if (histories[id] != null) names.add(users.key(id));
+        return names;
+    }
+
+    // A user's history entries, oldest first (re-adding them in this order rebuilds the history)
+    synchronized List<HistoryEntry> entriesOldestFirst(String username) {
+        List<HistoryEntry> entries = new ArrayList<>();
+        HistoryList list = historyOf(username);
+        if (list != null) list.entries(Long.MIN_VALUE, Long.MAX_VALUE, entries);
+        return entries;
+    }
+
+    // The books a user was issued with from <= issue time < to, most recent first
+    public synchronized List<HistoryEntry> between(String username, long from, long to) {
+        List<HistoryEntry> entries = new ArrayList<>();
+        HistoryList list = historyOf(username);
+        if (list != null) list.entries(from, to, entries);
+        Collections.reverse(entries);
+        return entries;
+    }
+
+    // The books a user was issued since the given time (inclusive), most recent first
+    public List<HistoryEntry> since(String username, long from) {
+        return between(username, from, Long.MAX_VALUE);
+    }
+
+    // Up to limit titles from a user's history (most recent first) after skipping the skip most recent ones
+    public synchronized List<String> page(String username, int skip, int limit) {
+        List<String> titles = new ArrayList<>(Math.min(Math.max(limit, 0), 64));
+        HistoryList list = historyOf(username);
+        if (list != null) list.titles(Math.max(skip, 0), limit, titles);
+        return titles;
+    }
+
+    // Display one page of a specific user's history
+    public synchronized void displayHistory(String username, int skip, int limit) {
+        List<String> titles = page(username, skip, limit);
+        if (titles.isEmpty()) {
             System.out.println("No history found for " + username);
             return;
         }
+        StringBuilder line = new StringBuilder(username).append("'s History: ");
+        for (String title : titles) line.append(title).append(" -> ");
+        // End of the history, or a marker that more entries follow
+        line.append(skip + titles.size() < historySize(username) ? "..." : "null");
+        System.out.println(line);
+    }
 
-        // Traverse the linked list for that user
-        System.out.print(username + "'s History: ");
-        HistoryNode temp = userHistories.get(username);
-        while (temp != null) {
-            System.out.print(temp.bookTitle + " -> ");
-            temp = temp.next;
-        }
-        System.out.println("null"); // End of a linked list
+    // Display a specific user's history
+    public void displayHistory(String username) {
+        displayHistory(username, 0, Integer.MAX_VALUE);
     }
 
     // Display all users and their histories
-    public void displayAllHistories() {
+    public synchronized void displayAllHistories() {
         // If no user has any history
-        if (userHistories.isEmpty()) {
+        if (userCount == 0) {
             System.out.println("No user histories available.");
             return;
         }
 
-        // Loop through all users and show their history
-        for (String user : userHistories.keySet()) {
+        // Loop through all users and show their history (copy the names, expiry may drop users)
+        for (String user : users()) {
             displayHistory(user);
         }
     }
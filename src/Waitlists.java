@@ -0,0 +1,142 @@
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+// This Waitlists module holds the borrow requests that are waiting for a copy of a title to come back.
+// There is one waitlist per title ID (SymbolTable.TITLES, so "Dune" and " dune " share one), and each
+// waitlist is a FIFO queue per priority level (normal, staff, hold): the next waiter is the oldest request
+// of the highest non-empty level, found in O(1). Synchronized, so displays may read while the library works.
+class Waitlists {
+    // Default number of requests all waitlists together can hold
+    static final int DEFAULT_CAPACITY = 10_000;
+
+    // Priority levels (request priorities outside 0..MAX_PRIORITY are clamped)
+    private static final int LEVELS = BorrowRequest.MAX_PRIORITY + 1;
+
+    // Maximum number of waiting requests over all titles
+    private final int capacity;
+
+    // Waitlist per title ID (null until someone waits for that title)
+    private Waitlist[] byTitle = new Waitlist[0];
+
+    // Waiting requests over all titles
+    private int size;
+
+    // Creates waitlists with the default capacity
+    Waitlists() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    // Creates waitlists holding at most capacity requests in total
+    Waitlists(int capacity) {
+        if (capacity < 1) throw new IllegalArgumentException("Capacity must be positive: " + capacity);
+        this.capacity = capacity;
+    }
+
+    // Maximum number of waiting requests over all titles
+    public int capacity() {
+        return capacity;
+    }
+
+    // Add a request to the waitlist of its title; returns false when every waitlist together is full
+    public synchronized boolean offer(BorrowRequest request) {
+        if (size == capacity) return false;
+        int titleId = request.titleId;
+        if (titleId >= byTitle.length) byTitle = Arrays.copyOf(byTitle, Math.max(titleId + 1, byTitle.length * 2));
+        Waitlist waitlist = byTitle[titleId];
+        if (waitlist == null) waitlist = byTitle[titleId] = new Waitlist();
+        waitlist.add(request);
+        size++;
+        return true;
+    }
+
+    // Remove and return the next request waiting for a title (highest priority, then oldest), or null
+    public synchronized BorrowRequest poll(int titleId) {
+        Waitlist waitlist = titleId >= 0 && titleId < byTitle.length ? byTitle[titleId] : null;
+        if (waitlist == null || waitlist.size == 0) return null;
+        size--;
+        return waitlist.poll();
+    }
+
+    // Number of requests waiting for a title
+    public synchronized int size(int titleId) {
+        Waitlist waitlist = titleId >= 0 && titleId < byTitle.length ? byTitle[titleId] : null;
+        return waitlist == null ? 0 : waitlist.size;
+    }
+
+    // Number of requests waiting over all titles
+    public synchronized int size() {
+        return size;
+    }
+
+    // Requests waiting for a title in the order they will be served
+    public synchronized List<BorrowRequest> snapshot(int titleId) {
+        Waitlist waitlist = titleId >= 0 && titleId < byTitle.length ? byTitle[titleId] : null;
+        List<BorrowRequest> requests = new ArrayList<>(waitlist == null ? 0 : waitlist.size);
+        if (waitlist != null) waitlist.copyTo(requests);
+        return requests;
+    }
+
+    // IDs of the titles somebody is waiting for, ascending
+    public synchronized List<Integer> titles() {
+        List<Integer> titles = new ArrayList<>();
+        for (int id = 0; id < byTitle.length; id++) {
+            if (byTitle[id] != null && byTitle[id].size > 0) titles.add(id);
+        }
+        return titles;
+    }
+
+    // Drop every request waiting for a title (it left the catalog); returns them in service order
+    public synchronized List<BorrowRequest> clear(int titleId) {
+        List<BorrowRequest> dropped = snapshot(titleId);
+        if (!dropped.isEmpty()) {
+            byTitle[titleId] = null;
+            size -= dropped.size();
+        }
+        return dropped;
+    }
+
+    // Priority level of a request
+    private static int level(BorrowRequest request) {
+        return Math.max(BorrowRequest.NORMAL_PRIORITY, Math.min(BorrowRequest.MAX_PRIORITY, request.priority));
+    }
+
+    // This is the waitlist of one title: a FIFO queue per priority level (created on first use)
+    private static final class Waitlist {
+        private final List<ArrayDeque<BorrowRequest>> levels = new ArrayList<>(LEVELS);
+        int size;
+
+        Waitlist() {
+            for (int i = 0; i < LEVELS; i++) levels.add(null);
+        }
+
+        void add(BorrowRequest request) {
+            int level = level(request);
+            ArrayDeque<BorrowRequest> queue = levels.get(level);
+            if (queue == null) levels.set(level, queue = new ArrayDeque<>());
+            queue.addLast(request);
+            size++;
+        }
+
+        // The oldest request of the highest non-empty level (caller checked size > 0)
+        BorrowRequest poll() {
+            for (int level = LEVELS - 1; level >= 0; level--) {
+                ArrayDeque<BorrowRequest> queue = levels.get(level);
+                if (queue != null && !queue.isEmpty()) {
+                    size--;
+                    return queue.pollFirst();
+                }
+            }
+            throw new IllegalStateException("Empty waitlist");
+        }
+
+        // Append the requests in service order
+        void copyTo(List<BorrowRequest> requests) {
+            for (int level = LEVELS - 1; level >= 0; level--) {
+                ArrayDeque<BorrowRequest> queue = levels.get(level);
+                if (queue != null) requests.addAll(queue);
+            }
+        }
+    }
+}
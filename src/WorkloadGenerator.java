@@ -0,0 +1,421 @@
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.SplittableRandom;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+// This WorkloadGenerator replays a synthetic library workload in this JVM: many threads call an in-memory Library
+// (inventory, borrow queue, return stack, waitlists, histories and issued counts) with a mix of add, delete,
+// borrow, issue, return and process-return. Titles are borrowed with Zipfian popularity and users uniformly.
+// Every thread draws its requests from its own random stream split from one seed, so the same options always
+// generate the same requests. After a warm-up every thread runs the same number of measured operations; the
+// report has the sustained throughput, latency percentiles per operation, and the bytes the worker threads
+// allocated. The structure options (--compact, --off-heap, --shards, --queue-capacity, --history-cap) select the
+// implementations to compare under the same traffic.
+// Usage: WorkloadGenerator [--books n] [--copies n] [--users n] [--threads n] [--ops n] [--warmup n]
+//        [--zipf s] [--seed n] [--mix add:delete:borrow:issue:return:process]
+//        [--compact] [--off-heap] [--shards n] [--queue-capacity n] [--history-cap n]
+public class WorkloadGenerator {
+    // One kind of request
+    enum Op {
+        ADD("add"), DELETE("delete"), BORROW("borrow"), ISSUE("issue"), RETURN("return"), PROCESS("process");
+
+        final String label;
+
+        Op(String label) {
+            this.label = label;
+        }
+    }
+
+    // Default share of each operation (in Op order): borrows are issued and issued copies come back
+    private static final String DEFAULT_MIX = "2:2:30:30:18:18";
+
+    public static void main(String[] args) throws Exception {
+        int books = Integer.parseInt(option(args, "--books", "100000"));
+        int copies = Integer.parseInt(option(args, "--copies", "2"));
+        int users = Integer.parseInt(option(args, "--users", "10000"));
+        int threads = Integer.parseInt(option(args, "--threads", Integer.toString(Runtime.getRuntime().availableProcessors())));
+        long ops = Long.parseLong(option(args, "--ops", "200000"));
+        long warmup = Long.parseLong(option(args, "--warmup", "50000"));
+        double zipf = Double.parseDouble(option(args, "--zipf", "0.99"));
+        long seed = Long.parseLong(option(args, "--seed", "42"));
+        int[] mix = parseMix(option(args, "--mix", DEFAULT_MIX));
+        if (books < 1 || copies < 1 || users < 1 || threads < 1 || ops < 1 || warmup < 0 || zipf < 0) {
+            throw new IllegalArgumentException("books, copies, users, threads and ops must be positive, warmup and zipf not negative");
+        }
+
+        Library library = newLibrary(args);
+        String[] titles = new String[books];
+        for (int i = 0; i < books; i++) {
+            titles[i] = "Workload Title " + i;
+            library.addBook(isbn(i), titles[i], "Workload Author " + i % 1000, copies);
+        }
+        String[] usernames = new String[users];
+        for (int i = 0; i < users; i++) usernames[i] = "workload-user-" + i;
+        Catalog catalog = new Catalog(titles, usernames, new ZipfDistribution(books, zipf), popularityOrder(books, seed));
+
+        System.out.printf("%d books x %d copies, %d users, zipf %.2f, mix %s, seed %d%n", books, copies, users, zipf,
+                describeMix(mix), seed);
+        System.out.printf("%s, %d thread(s) x (%d warm-up + %d measured) ops%n", describe(args), threads, warmup, ops);
+
+        Run run = new Run(library, catalog, mix, threads, warmup, ops);
+        SplittableRandom seeds = new SplittableRandom(seed);
+        List<Thread> workers = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            Worker worker = new Worker(run, t, seeds.split());
+            Thread thread = new Thread(worker, "lms-workload-" + t);
+            workers.add(thread);
+            thread.start();
+        }
+        for (Thread thread : workers) thread.join();
+        run.finish();
+        System.out.print(run.report());
+        System.out.printf("End state: %d books, %d queued, %d pending returns, %d waiting, %d users with history%n",
+                library.inventory().size(), library.borrowQueue().size(), library.returnStack().size(),
+                library.waitlists().size(), library.history().userCount());
+    }
+
+    // In-memory library over the structures chosen on the command line
+    private static Library newLibrary(String[] args) {
+        boolean offHeap = flag(args, "--off-heap"), compact = offHeap || flag(args, "--compact");
+        int shards = Integer.parseInt(option(args, "--shards", "0"));
+        int queueCapacity = Integer.parseInt(option(args, "--queue-capacity", "0"));
+        int historyCap = Integer.parseInt(option(args, "--history-cap", "0"));
+        Supplier<BookInventory> newInventory = () -> compact ? new CompactBookInventory(offHeap) : new BookInventory();
+        BookInventory inventory = shards > 0
+                ? new ShardedBookInventory(shards, newInventory, ForkJoinPool.commonPool())
+                : newInventory.get();
+        BorrowQueue queue = queueCapacity > 0 ? new BorrowQueue(queueCapacity) : new BorrowQueue();
+        UserHistory history = historyCap > 0 ? new UserHistory(historyCap, 0) : new UserHistory();
+        return new Library(inventory, queue, new ReturnStack(), history);
+    }
+
+    // One line naming the structures under test
+    private static String describe(String[] args) {
+        String inventory = flag(args, "--off-heap") ? "compact inventory (off-heap arena)"
+                : flag(args, "--compact") ? "compact inventory" : "object tree inventory";
+        int shards = Integer.parseInt(option(args, "--shards", "0"));
+        if (shards > 0) inventory = shards + " shards of " + inventory;
+        return inventory + ", borrow queue capacity " + option(args, "--queue-capacity", "default")
+                + ", history cap " + option(args, "--history-cap", "none");
+    }
+
+    // Value given for a command-line option, or def when the option is absent
+    private static String option(String[] args, String name, String def) {
+        for (int i = 0; i < args.length - 1; i++) {
+            if (args[i].equals(name)) return args[i + 1];
+        }
+        return def;
+    }
+
+    // Whether a command-line flag is present
+    private static boolean flag(String[] args, String name) {
+        return Arrays.asList(args).contains(name);
+    }
+
+    // Weights of the operations from "add:delete:borrow:issue:return:process"
+    private static int[] parseMix(String text) {
+        String[] parts = text.split(":");
+        Op[] ops = Op.values();
+        if (parts.length != ops.length) throw new IllegalArgumentException("--mix needs " + ops.length + " weights: " + text);
+        int[] mix = new int[ops.length];
+        int total = 0;
+        for (int i = 0; i < ops.length; i++) {
+            mix[i] = Integer.parseInt(parts[i].trim());
+            if (mix[i] < 0) throw new IllegalArgumentException("Negative weight in --mix: " + text);
+            total += mix[i];
+        }
+        if (total == 0) throw new IllegalArgumentException("--mix has no operations: " + text);
+        return mix;
+    }
+
+    // The mix as "add 2, delete 2, ..."
+    private static String describeMix(int[] mix) {
+        StringBuilder text = new StringBuilder();
+        for (Op op : Op.values()) text.append(text.length() > 0 ? " " : "").append(op.label).append(' ').append(mix[op.ordinal()]);
+        return text.toString();
+    }
+
+    // Book index of each popularity rank: a seeded shuffle, so popular titles are spread over the ISBN order
+    private static int[] popularityOrder(int books, long seed) {
+        int[] order = new int[books];
+        for (int i = 0; i < books; i++) order[i] = i;
+        Random random = new Random(seed);
+        for (int i = books - 1; i > 0; i--) {
+            int j = random.nextInt(i + 1);
+            int swap = order[i];
+            order[i] = order[j];
+            order[j] = swap;
+        }
+        return order;
+    }
+
+    // Synthetic ISBN-13 of catalog book i (the same scrambled ISBNs as InventoryFootprint)
+    private static String isbn(int i) {
+        return String.format("978-%010d", (i * 2654435761L) & 0xFFFFFFFFL);
+    }
+
+    // ISBN of the n-th book a worker added while running
+    static String addedIsbn(int worker, long n) {
+        return "WG-" + worker + "-" + n;
+    }
+
+    // The fixed catalog and users the workload draws from
+    private static final class Catalog {
+        final String[] titles;
+        final String[] usernames;
+        final ZipfDistribution popularity;
+        final int[] byRank; // Book index of each popularity rank
+
+        Catalog(String[] titles, String[] usernames, ZipfDistribution popularity, int[] byRank) {
+            this.titles = titles;
+            this.usernames = usernames;
+            this.popularity = popularity;
+            this.byRank = byRank;
+        }
+
+        // A title drawn by popularity
+        String title(SplittableRandom random) {
+            return titles[byRank[popularity.sample(random)]];
+        }
+
+        // A user drawn uniformly
+        String user(SplittableRandom random) {
+            return usernames[random.nextInt(usernames.length)];
+        }
+    }
+
+    // What the workers share: the library, the settings and the measurements
+    private static final class Run {
+        final Library library;
+        final Catalog catalog;
+        final int[] cumulativeMix; // Running sums of the weights, in Op order
+        final int threads;
+        final long warmup;
+        final long ops;
+        final LatencyHistogram[] latency = new LatencyHistogram[Op.values().length];
+        final LongAdder[] succeeded = new LongAdder[Op.values().length];
+        final LongAdder allocatedBytes = new LongAdder();
+        final com.sun.management.ThreadMXBean allocation; // null when the JVM cannot count allocated bytes
+        final CyclicBarrier measureStart;
+        long startNanos, endNanos;
+        long startGcCount, startGcMillis, gcCount, gcMillis;
+
+        Run(Library library, Catalog catalog, int[] mix, int threads, long warmup, long ops) {
+            this.library = library;
+            this.catalog = catalog;
+            this.cumulativeMix = new int[mix.length];
+            for (int i = 0, sum = 0; i < mix.length; i++) cumulativeMix[i] = sum += mix[i];
+            this.threads = threads;
+            this.warmup = warmup;
+            this.ops = ops;
+            for (int i = 0; i < latency.length; i++) {
+                latency[i] = new LatencyHistogram();
+                succeeded[i] = new LongAdder();
+            }
+            ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+            com.sun.management.ThreadMXBean counter = null;
+            if (bean instanceof com.sun.management.ThreadMXBean) {
+                counter = (com.sun.management.ThreadMXBean) bean;
+                if (counter.isThreadAllocatedMemorySupported()) counter.setThreadAllocatedMemoryEnabled(true);
+                else counter = null;
+            }
+            this.allocation = counter;
+            // The last worker to finish its warm-up starts the clock for everyone
+            this.measureStart = new CyclicBarrier(threads, () -> {
+                startGcCount = gcCount();
+                startGcMillis = gcMillis();
+                startNanos = System.nanoTime();
+            });
+        }
+
+        // An operation drawn by the mix
+        Op nextOp(SplittableRandom random) {
+            int pick = random.nextInt(cumulativeMix[cumulativeMix.length - 1]);
+            int i = 0;
+            while (cumulativeMix[i] <= pick) i++;
+            return Op.values()[i];
+        }
+
+        // Bytes allocated so far by the calling thread (0 when not available)
+        long allocatedByThisThread() {
+            return allocation != null ? allocation.getCurrentThreadAllocatedBytes() : 0;
+        }
+
+        // Stop the clock once every worker is done
+        void finish() {
+            endNanos = System.nanoTime();
+            gcCount = gcCount() - startGcCount;
+            gcMillis = gcMillis() - startGcMillis;
+        }
+
+        // Collections so far, over every collector
+        private static long gcCount() {
+            long count = 0;
+            for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) count += Math.max(0, gc.getCollectionCount());
+            return count;
+        }
+
+        // Milliseconds spent collecting so far, over every collector
+        private static long gcMillis() {
+            long millis = 0;
+            for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) millis += Math.max(0, gc.getCollectionTime());
+            return millis;
+        }
+
+        // Throughput, per-operation latencies and allocation of the measured part
+        String report() {
+            double seconds = Math.max(1, endNanos - startNanos) / 1e9;
+            long total = (long) threads * ops;
+            StringBuilder text = new StringBuilder();
+            text.append(String.format("Sustained: %d op(s) in %.2f s = %.0f ops/sec%n", total, seconds, total / seconds));
+            text.append(String.format("%-10s %10s %6s %10s %10s %10s %10s %10s%n",
+                    "operation", "count", "ok%", "mean(us)", "p50(us)", "p99(us)", "p99.9(us)", "max(us)"));
+            for (Op op : Op.values()) {
+                LatencyHistogram histogram = latency[op.ordinal()];
+                long count = histogram.count();
+                if (count == 0) continue;
+                long[] p = histogram.percentiles(50, 99, 99.9);
+                text.append(String.format("%-10s %10d %5.1f%% %10.1f %10.1f %10.1f %10.1f %10.1f%n", op.label, count,
+                        100.0 * succeeded[op.ordinal()].sum() / count, histogram.mean() / 1e3, p[0] / 1e3, p[1] / 1e3,
+                        p[2] / 1e3, histogram.max() / 1e3));
+            }
+            if (allocation != null) {
+                long bytes = allocatedBytes.sum();
+                text.append(String.format("Allocation: %.1f MB/s, %.0f bytes/op (worker threads)%n",
+                        bytes / seconds / (1 << 20), (double) bytes / total));
+            } else {
+                text.append("Allocation: not available on this JVM\n");
+            }
+            text.append(String.format("GC: %d collection(s), %d ms%n", gcCount, gcMillis));
+            return text.toString();
+        }
+    }
+
+    // One thread of the workload: warm-up, then the measured operations
+    private static final class Worker implements Runnable {
+        private final Run run;
+        private final Library library;
+        private final Catalog catalog;
+        private final int id;
+        private final SplittableRandom random;
+
+        // Books this worker added and has not deleted yet are addedIsbn(id, oldestAdded .. nextAdded - 1)
+        private long oldestAdded, nextAdded;
+
+        // Title IDs of copies issued by this worker's requests (or handed to waiters by its returns) that are still out
+        private int[] loans = new int[64];
+        private int loanCount;
+
+        Worker(Run run, int id, SplittableRandom random) {
+            this.run = run;
+            this.library = run.library;
+            this.catalog = run.catalog;
+            this.id = id;
+            this.random = random;
+        }
+
+        @Override
+        public void run() {
+            try {
+                for (long i = 0; i < run.warmup; i++) perform(run.nextOp(random));
+                run.measureStart.await();
+                long allocatedBefore = run.allocatedByThisThread();
+                for (long i = 0; i < run.ops; i++) {
+                    Op op = run.nextOp(random);
+                    long start = System.nanoTime();
+                    boolean ok = perform(op);
+                    run.latency[op.ordinal()].record(System.nanoTime() - start);
+                    if (ok) run.succeeded[op.ordinal()].increment();
+                }
+                run.allocatedBytes.add(run.allocatedByThisThread() - allocatedBefore);
+            } catch (Exception e) {
+                throw new IllegalStateException("Workload thread " + id + " failed", e);
+            }
+        }
+
+        // Perform one operation; true when it had its intended effect
+        private boolean perform(Op op) {
+            switch (op) {
+                case ADD: {
+                    // Another copy (new ISBN) of a title, more likely a popular one
+                    String title = catalog.title(random);
+                    boolean added = library.addBook(addedIsbn(id, nextAdded), title, "Workload Author", 1);
+                    if (added) nextAdded++;
+                    return added;
+                }
+                case DELETE:
+                    // Withdraw this worker's oldest added book (when it has none, the lookup misses)
+                    if (oldestAdded == nextAdded) return library.deleteBook(addedIsbn(id, nextAdded));
+                    return library.deleteBook(addedIsbn(id, oldestAdded++));
+                case BORROW:
+                    return library.borrow(catalog.user(random), catalog.title(random)) == Library.BorrowResult.ADDED;
+                case ISSUE: {
+                    IssueSummary summary = library.issue(1);
+                    for (int i = 0; i < summary.processed(); i++) {
+                        if (summary.outcomes[i] == IssueSummary.Outcome.ISSUED) lend(summary.requests.get(i).titleId);
+                    }
+                    return summary.issued > 0;
+                }
+                case RETURN: {
+                    // Bring back a random copy still out (without one, a popular title that may not be issued)
+                    String title;
+                    if (loanCount > 0) {
+                        int i = random.nextInt(loanCount);
+                        title = SymbolTable.TITLES.name(loans[i]);
+                        loans[i] = loans[--loanCount];
+                    } else {
+                        title = catalog.title(random);
+                    }
+                    return library.recordReturn(title) == Library.ReturnResult.RECORDED;
+                }
+                case PROCESS: {
+                    ReturnSummary summary = library.processReturns(1);
+                    if (summary.processed() == 0) return false;
+                    if (summary.handedOver[0] != null) lend(summary.handedOver[0].titleId);
+                    return summary.returned[0];
+                }
+                default:
+                    throw new IllegalStateException("Unknown operation " + op);
+            }
+        }
+
+        // Remember a copy that is out, so a later return can bring it back
+        private void lend(int titleId) {
+            if (loanCount == loans.length) loans = Arrays.copyOf(loans, loanCount * 2);
+            loans[loanCount++] = titleId;
+        }
+    }
+}
+
+// This ZipfDistribution draws ranks 0 .. n-1, rank r with probability proportional to 1 / (r + 1)^exponent
+// (exponent 0 is uniform, ~1 is typical of title popularity): a binary search over the cumulative weights
+class ZipfDistribution {
+    private final double[] cumulative;
+
+    // Precompute the cumulative weights of n ranks
+    ZipfDistribution(int n, double exponent) {
+        cumulative = new double[n];
+        double sum = 0;
+        for (int r = 0; r < n; r++) cumulative[r] = sum += 1 / Math.pow(r + 1, exponent);
+    }
+
+    // One rank drawn from the distribution
+    int sample(SplittableRandom random) {
+        double u = random.nextDouble() * cumulative[cumulative.length - 1];
+        int low = 0, high = cumulative.length - 1;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (cumulative[mid] <= u) low = mid + 1;
+            else high = mid;
+        }
+        return low;
+    }
+}
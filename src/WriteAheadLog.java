@@ -0,0 +1,165 @@
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32;
+
+// This WriteAheadLog is an append-only file of mutation records.
+// Each record is framed as [int length][int CRC32][payload]; a torn or corrupt tail left by a crash
+// is detected on open and cut off. Appends only fill an in-memory buffer; sync() writes and fsyncs it,
+// and one thread's fsync makes every record appended before it durable (group commit).
+// A failed write or fsync leaves the file in an unknown state past the durable position, so the log is then
+// cut back to that position (best effort) and every later sync() of a newer record fails too.
+class WriteAheadLog implements Closeable {
+    // Records larger than this are treated as corruption when reading the log back
+    private static final int MAX_RECORD_BYTES = 1 << 20;
+
+    // Callback that receives each valid record payload while the log is opened
+    interface RecordHandler {
+        void accept(DataInputStream record) throws IOException;
+    }
+
+    private final FileChannel channel;
+
+    // Records appended but not yet written (guarded by appendLock)
+    private final Object appendLock = new Object();
+    private final ByteArrayOutputStream pending = new ByteArrayOutputStream(1 << 16);
+    private final DataOutputStream pendingOut = new DataOutputStream(pending);
+    private long appended; // File position just past the last appended record
+
+    // Only one thread writes and forces at a time; the others wait and usually find their record already durable
+    private final Object syncLock = new Object();
+    private volatile long durable; // File position up to which the log is on disk
+    private volatile IOException failure; // First failed write or fsync (null while the log is healthy)
+
+    private WriteAheadLog(FileChannel channel, long end) {
+        this.channel = channel;
+        this.appended = end;
+        this.durable = end;
+    }
+
+    // Open (or create) a log, hand every valid record to replay in order, and cut off any torn tail
+    static WriteAheadLog open(Path file, RecordHandler replay) throws IOException {
+        FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        long valid = read(channel, Long.MAX_VALUE, replay);
+        channel.truncate(valid);
+        channel.position(valid);
+        return new WriteAheadLog(channel, valid);
+    }
+
+    // Hand the valid records that end at or before limit to replay in order, without changing the file
+    static void replay(Path file, long limit, RecordHandler replay) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            read(channel, limit, replay);
+        }
+    }
+
+    // Read records from the start of the channel up to the first torn or corrupt one (or limit);
+    // returns the position just past the last valid record
+    private static long read(FileChannel channel, long limit, RecordHandler replay) throws IOException {
+        long valid = 0;
+        DataInputStream in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(channel), 1 << 16));
+        CRC32 crc = new CRC32();
+        try {
+            while (valid + 8 <= limit) {
+                int length = in.readInt();
+                int checksum = in.readInt();
+                if (length < 0 || length > MAX_RECORD_BYTES || valid + 8 + length > limit) break;
+                byte[] payload = new byte[length];
+                in.readFully(payload);
+                crc.reset();
+                crc.update(payload);
+                if ((int) crc.getValue() != checksum) break;
+                replay.accept(new DataInputStream(new ByteArrayInputStream(payload)));
+                valid += 8 + length;
+            }
+        } catch (EOFException e) {
+            // Clean end of the log, or a record that was only partly written before a crash
+        }
+        return valid;
+    }
+
+    // Append one record to the buffer; returns the log position to pass to sync() for durability
+    long append(byte[] payload) {
+        CRC32 crc = new CRC32();
+        crc.update(payload);
+        synchronized (appendLock) {
+            try {
+                pendingOut.writeInt(payload.length);
+                pendingOut.writeInt((int) crc.getValue());
+                pendingOut.write(payload);
+            } catch (IOException e) {
+                throw new IllegalStateException("In-memory log buffer failed", e); // Cannot happen for a byte array
+            }
+            appended += 8 + payload.length;
+            return appended;
+        }
+    }
+
+    // Make every record up to position durable, sharing one fsync with all records appended so far
+    void sync(long position) throws IOException {
+        if (durable >= position) return;
+        synchronized (syncLock) {
+            if (durable >= position) return; // Another thread's fsync already covered this record
+            if (failure != null) throw new IOException("The log failed earlier", failure);
+            byte[] batch;
+            long end;
+            synchronized (appendLock) {
+                batch = pending.toByteArray();
+                pending.reset();
+                end = appended;
+            }
+            try {
+                ByteBuffer buffer = ByteBuffer.wrap(batch);
+                while (buffer.hasRemaining()) channel.write(buffer);
+                channel.force(false);
+            } catch (IOException e) {
+                failure = e;
+                try {
+                    channel.truncate(durable); // Drop whatever part of the batch reached the file
+                    channel.force(false);
+                } catch (IOException truncateFailed) {
+                    e.addSuppressed(truncateFailed);
+                }
+                throw e;
+            }
+            durable = end;
+        }
+    }
+
+    // File position up to which the log is known to be on disk
+    long durable() {
+        return durable;
+    }
+
+    // True once a write or fsync has failed: records appended after the durable position can never be made durable
+    boolean failed() {
+        return failure != null;
+    }
+
+    // Bytes in the log, including records that are not durable yet
+    long size() {
+        synchronized (appendLock) {
+            return appended;
+        }
+    }
+
+    // Write out and fsync anything pending, then close the file (a failed log is closed as it is)
+    @Override
+    public void close() throws IOException {
+        try {
+            if (failure == null) sync(size());
+        } finally {
+            channel.close();
+        }
+    }
+}
@@ -0,0 +1,90 @@
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+// This CopyStockRaceTest races copy transitions with deletes of the same ISBN: issuer threads keep issuing and
+// returning copies of one title while the test thread adds a book of that title and deletes it again, over and
+// over. A book of the title that is never deleted keeps copies going round. Once all threads have stopped, the
+// title's O(1) available and issued counts must equal those of its remaining books; a transition that updated a
+// sum after its slot was cleared would leave it off.
+class CopyStockRaceTest {
+    // Add/delete rounds per inventory
+    private static final int ROUNDS = 20_000;
+
+    // Copies of every book of the raced title
+    private static final int COPIES = 8;
+
+    private static final String TITLE = "Copy Stock Race";
+
+    @Test
+    void objectTree() throws InterruptedException {
+        race(new BookInventory());
+    }
+
+    @Test
+    void compact() throws InterruptedException {
+        race(new CompactBookInventory(false));
+    }
+
+    @Test
+    void sharded() throws InterruptedException {
+        race(new ShardedBookInventory(4));
+    }
+
+    // Race the issuers with rounds of add + delete, then compare the title's counts with its books
+    private static void race(BookInventory inventory) throws InterruptedException {
+        inventory.insert(new Book("RACE-KEEP", TITLE, "Race Author"), COPIES);
+        int titleId = inventory.titleId(TITLE);
+        AtomicBoolean stop = new AtomicBoolean();
+        List<Throwable> failures = new ArrayList<>();
+
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < Math.max(2, Runtime.getRuntime().availableProcessors()); t++) {
+            threads.add(new Thread(() -> {
+                while (!stop.get()) {
+                    inventory.issueCopy(titleId);
+                    inventory.returnCopy(titleId);
+                }
+            }, "race-issuer-" + t));
+        }
+        for (Thread thread : threads) {
+            thread.setUncaughtExceptionHandler((th, e) -> {
+                synchronized (failures) {
+                    failures.add(e);
+                }
+                stop.set(true);
+            });
+            thread.start();
+        }
+
+        SplittableRandom random = new SplittableRandom(42);
+        try {
+            for (int round = 0; round < ROUNDS && !stop.get(); round++) {
+                String isbn = "RACE-" + round;
+                inventory.insert(new Book(isbn, TITLE, "Race Author"), COPIES);
+                for (int spin = random.nextInt(64); spin > 0; spin--) Thread.onSpinWait();
+                assertTrue(inventory.delete(isbn), "Raced book lost: " + isbn);
+            }
+        } finally {
+            stop.set(true);
+            for (Thread thread : threads) thread.join();
+        }
+        synchronized (failures) {
+            assertTrue(failures.isEmpty(), () -> "Issuer failed: " + failures.get(0));
+        }
+
+        int expected = 0, expectedIssued = 0;
+        for (String isbn : inventory.isbnsForTitle(TITLE)) {
+            expected += inventory.copies(isbn).available();
+            expectedIssued += inventory.copies(isbn).issued;
+        }
+        assertEquals(expected, inventory.availableCopies(titleId), "Available copies of the title");
+        assertEquals(expectedIssued, inventory.issuedCopies(titleId), "Issued copies of the title");
+    }
+}
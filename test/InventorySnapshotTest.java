@@ -0,0 +1,112 @@
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assertions.fail;
+
+// This InventorySnapshotTest scans snapshots while one writer keeps inserting and deleting books. Every snapshot
+// must iterate exactly its size in strictly increasing ISBN order and hold the whole catalog; a snapshot of one
+// version (object tree, compact copy) also holds at most the writer's window of books on top of it. Shards are
+// snapshotted one after the other, so a sharded snapshot may hold more.
+class InventorySnapshotTest {
+    // Catalog books, never deleted
+    private static final int BOOKS = 20_000;
+
+    // Books the writer adds before it starts deleting its oldest ones (the size stays within BOOKS + WINDOW + 1)
+    private static final int WINDOW = 1_000;
+
+    // Inserts by the writer; the readers scan until it is done
+    private static final int WRITES = 30_000;
+
+    private static final int READERS = 2;
+
+    @Test
+    void objectTree() throws InterruptedException {
+        scanWhileWriting(new BookInventory(), true);
+    }
+
+    @Test
+    void compact() throws InterruptedException {
+        scanWhileWriting(new CompactBookInventory(false), true);
+    }
+
+    @Test
+    void sharded() throws InterruptedException {
+        scanWhileWriting(new ShardedBookInventory(4), false);
+    }
+
+    // Run the writer and the readers; oneVersion bounds the snapshot size by the writer's window
+    private static void scanWhileWriting(BookInventory inventory, boolean oneVersion) throws InterruptedException {
+        List<Book> catalog = new ArrayList<>(BOOKS);
+        for (int i = 0; i < BOOKS; i++) catalog.add(new Book(isbn(i), "Snapshot Title " + i, "Snapshot Author " + i % 100));
+        catalog.sort(Comparator.comparing(book -> book.isbn)); // bulkLoad takes books in ISBN order
+        inventory.bulkLoad(catalog);
+
+        AtomicBoolean stop = new AtomicBoolean();
+        AtomicLong scans = new AtomicLong();
+        List<Throwable> failures = new ArrayList<>();
+        List<Thread> threads = new ArrayList<>();
+        threads.add(new Thread(() -> {
+            for (int n = 0; n < WRITES && !stop.get(); n++) {
+                if (!inventory.insert(new Book(isbn(BOOKS + n), "Written Title " + n, "Writer"))) {
+                    throw new IllegalStateException("Writer ISBN taken twice: " + isbn(BOOKS + n));
+                }
+                if (n >= WINDOW && !inventory.delete(isbn(BOOKS + n - WINDOW))) {
+                    throw new IllegalStateException("Writer book lost: " + isbn(BOOKS + n - WINDOW));
+                }
+            }
+            stop.set(true);
+        }, "snapshot-writer"));
+        for (int r = 0; r < READERS; r++) {
+            threads.add(new Thread(() -> {
+                while (!stop.get()) {
+                    check(inventory.snapshot(), oneVersion);
+                    scans.incrementAndGet();
+                }
+            }, "snapshot-reader-" + r));
+        }
+        for (Thread thread : threads) {
+            thread.setUncaughtExceptionHandler((t, e) -> {
+                synchronized (failures) {
+                    failures.add(e);
+                }
+                stop.set(true);
+            });
+            thread.start();
+        }
+        for (Thread thread : threads) thread.join();
+        synchronized (failures) {
+            if (!failures.isEmpty()) fail("Inconsistent snapshot", failures.get(0));
+        }
+        assertTrue(scans.get() > 0, "No snapshot was scanned");
+        check(inventory.snapshot(), true);
+    }
+
+    // A snapshot iterates exactly its size in strictly increasing ISBN order and holds the whole catalog
+    private static void check(BookInventory.Snapshot snapshot, boolean oneVersion) {
+        int size = snapshot.size();
+        int iterated = 0;
+        String previous = null;
+        for (Book book : snapshot) {
+            if (previous != null && previous.compareTo(book.isbn) >= 0) {
+                fail("ISBN order broken: " + previous + " before " + book.isbn);
+            }
+            previous = book.isbn;
+            iterated++;
+        }
+        assertEquals(size, iterated, "Books iterated");
+        assertTrue(size >= BOOKS, "Catalog books missing: size " + size);
+        if (oneVersion) assertTrue(size <= BOOKS + WINDOW + 1, "Snapshot size out of range: " + size);
+    }
+
+    // Synthetic ISBN-13 of book i (scrambled, so the writer's books land all over the ISBN order)
+    private static String isbn(long i) {
+        return String.format("978-%010d", (i * 2654435761L) & 0xFFFFFFFFL);
+    }
+}
@@ -0,0 +1,340 @@
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.function.Supplier;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assertions.fail;
+
+// This RecoveryTest checks that a persistent Library comes back exactly as it was after a crash. Every test runs in
+// a fresh temporary directory, "crashes" by abandoning a library without closing it (every operation was fsynced,
+// as after a kill), damages the files the way a crash or a disk can, reopens, and compares a full dump of the
+// modules (books with copy counts, queue, pending returns, histories, issued counts, waitlists, analytics window)
+// with the dump expected at that point. The workloads are seeded with -Dlms.seed (42 by default).
+class RecoveryTest {
+    // Operations in a generated workload
+    private static final int WORKLOAD_OPS = 3_000;
+
+    // Snapshot threshold small enough that a workload spans several log generations
+    private static final long SMALL_SNAPSHOTS = 16 << 10;
+
+    // Large enough that a workload stays in its first log
+    private static final long NO_SNAPSHOTS = Long.MAX_VALUE;
+
+    private static final long SEED = Long.getLong("lms.seed", 42);
+
+    @TempDir
+    Path dir;
+
+    // -------- Cases -------- //
+
+    @Test
+    void replayMatchesLiveObjectTree() throws IOException {
+        replayMatchesLive(BookInventory::new);
+    }
+
+    @Test
+    void replayMatchesLiveCompact() throws IOException {
+        replayMatchesLive(() -> new CompactBookInventory(false));
+    }
+
+    @Test
+    void replayMatchesLiveSharded() throws IOException {
+        replayMatchesLive(() -> new ShardedBookInventory(4));
+    }
+
+    // A long workload over several generations recovers to the live state, after a crash and after a clean close
+    private void replayMatchesLive(Supplier<BookInventory> inventory) throws IOException {
+        Library live = LibraryStore.open(dir, SMALL_SNAPSHOTS, inventory.get());
+        workload(live, new Random(SEED), WORKLOAD_OPS);
+        String expected = dump(live);
+        assertTrue(Files.exists(dir.resolve("snapshot.bin")), "The workload never took a snapshot");
+
+        Library crashed = LibraryStore.open(dir, SMALL_SNAPSHOTS, inventory.get());
+        check("after a crash", expected, dump(crashed));
+        crashed.close();
+        Library reopened = LibraryStore.open(dir, SMALL_SNAPSHOTS, inventory.get());
+        check("after a clean close", expected, dump(reopened));
+        reopened.close();
+    }
+
+    // A record cut short by a crash is dropped; the log is cut back and accepts new records
+    @Test
+    void tornTail() throws IOException {
+        Library live = LibraryStore.open(dir, NO_SNAPSHOTS, new BookInventory());
+        Map<Long, String> byLogSize = new LinkedHashMap<>();
+        Path log = dir.resolve("wal-0.log");
+        workload(live, new Random(SEED), 500, byLogSize, log);
+        List<Long> ends = recordEnds(log);
+        long lastStart = ends.size() > 1 ? ends.get(ends.size() - 2) : 0;
+        truncate(log, Files.size(log) - 3);
+
+        Library recovered = LibraryStore.open(dir, NO_SNAPSHOTS, new BookInventory());
+        check("without the torn record", expected(byLogSize, lastStart), dump(recovered));
+        assertEquals(lastStart, Files.size(log), "Torn tail not cut off");
+        recovered.addBook("RS-after-torn", "Written After Recovery", "Suite");
+        String afterWrite = dump(recovered);
+        check("after writing to the repaired log", afterWrite, dump(LibraryStore.open(dir, NO_SNAPSHOTS, new BookInventory())));
+    }
+
+    // Recovery stops at a corrupt record: it and everything after it are dropped
+    @Test
+    void badCrc() throws IOException {
+        Library live = LibraryStore.open(dir, NO_SNAPSHOTS, new BookInventory());
+        Map<Long, String> byLogSize = new LinkedHashMap<>();
+        Path log = dir.resolve("wal-0.log");
+        workload(live, new Random(SEED), 500, byLogSize, log);
+        List<Long> ends = recordEnds(log);
+        long start = ends.get(ends.size() / 2 - 1); // A record in the middle of the log
+        byte[] bytes = Files.readAllBytes(log);
+        bytes[(int) start + 8] ^= 0x5A; // First payload byte: the CRC no longer matches
+        Files.write(log, bytes);
+
+        Library recovered = LibraryStore.open(dir, NO_SNAPSHOTS, new BookInventory());
+        check("up to the corrupt record", expected(byLogSize, start), dump(recovered));
+        assertEquals(start, Files.size(log), "Corrupt record not cut off");
+    }
+
+    // A snapshot.tmp left by a crash during a snapshot is ignored and removed
+    @Test
+    void crashDuringSnapshot() throws IOException {
+        Library live = LibraryStore.open(dir, NO_SNAPSHOTS, new BookInventory());
+        workload(live, new Random(SEED), 500);
+        String expected = dump(live);
+        Files.write(dir.resolve("snapshot.tmp"), "half a snapshot".getBytes(StandardCharsets.UTF_8));
+
+        Library recovered = LibraryStore.open(dir, NO_SNAPSHOTS, new BookInventory());
+        check("with a partial snapshot.tmp", expected, dump(recovered));
+        assertFalse(Files.exists(dir.resolve("snapshot.tmp")), "snapshot.tmp not removed");
+    }
+
+    // The snapshot was installed but the crash came before the new log existed and the old one was deleted:
+    // the old log is covered by the snapshot and must not be replayed on top of it
+    @Test
+    void crashBeforeRotation() throws IOException {
+        byte[] oldLog = snapshotWithOldLog();
+        String expected = dump(LibraryStore.open(dir, NO_SNAPSHOTS, new BookInventory()));
+        Files.delete(dir.resolve("wal-1.log"));
+        Files.write(dir.resolve("wal-0.log"), oldLog);
+
+        Library recovered = LibraryStore.open(dir, NO_SNAPSHOTS, new BookInventory());
+        check("with the covered log still present", expected, dump(recovered));
+        assertFalse(Files.exists(dir.resolve("wal-0.log")), "Covered log wal-0.log not deleted");
+    }
+
+    // The new log was started but the old one was not deleted yet
+    @Test
+    void crashBeforeOldLogDeleted() throws IOException {
+        byte[] oldLog = snapshotWithOldLog();
+        Library reopened = LibraryStore.open(dir, NO_SNAPSHOTS, new BookInventory());
+        reopened.addBook("RS-new-generation", "Written In Generation One", "Suite");
+        String expected = dump(reopened);
+        Files.write(dir.resolve("wal-0.log"), oldLog);
+
+        Library recovered = LibraryStore.open(dir, NO_SNAPSHOTS, new BookInventory());
+        check("with both logs present", expected, dump(recovered));
+    }
+
+    // An import too large for one log record is logged in batches and replayed in full
+    @Test
+    void importReplayed() throws IOException {
+        Library live = LibraryStore.open(dir, NO_SNAPSHOTS, new BookInventory());
+        workload(live, new Random(SEED), 200);
+        List<Book> books = new ArrayList<>();
+        for (int i = 0; i < 20_000; i++) {
+            books.add(new Book(String.format("RS-IMPORT-%06d", i), "Imported Title " + i % 500, "Imported Author " + i % 90));
+        }
+        long logBefore = Files.size(dir.resolve("wal-0.log"));
+        assertEquals(books.size(), live.importBooks(books), "Not every book was imported");
+        assertTrue(recordEnds(dir.resolve("wal-0.log")).stream().filter(end -> end > logBefore).count() >= 2,
+                "The import fit in one log record");
+        String expected = dump(live);
+
+        Library recovered = LibraryStore.open(dir, NO_SNAPSHOTS, new BookInventory());
+        check("after a crash", expected, dump(recovered));
+        recovered.close();
+    }
+
+    // Importing or adding a book of a title with waiting requests issues the new copies to them; replay does the same
+    @Test
+    void newBooksServeWaitlists() throws IOException {
+        Library live = LibraryStore.open(dir, NO_SNAPSHOTS, new BookInventory());
+        live.addBook("RS-W1", "Imported For Waiters", "Suite");
+        live.addBook("RS-W2", "Added For Waiters", "Suite");
+        for (int i = 0; i < 4; i++) live.borrow("waiter-" + i, i < 2 ? "Imported For Waiters" : "Added For Waiters");
+        live.issue(4); // One copy of each title: the second request for each waits
+        assertEquals(2, live.waitlists().size(), "Waiting requests");
+
+        live.importBooks(List.of(new Book("RS-W3", "Imported For Waiters", "Suite")));
+        assertEquals(List.of("Imported For Waiters"), live.history().page("waiter-1", 0, 10),
+                "The imported copy was not issued to the waiting request");
+        live.addBook("RS-W4", "Added For Waiters", "Suite");
+        assertEquals(List.of("Added For Waiters"), live.history().page("waiter-3", 0, 10),
+                "The added copy was not issued to the waiting request");
+        assertEquals(0, live.waitlists().size(), "Requests still waiting");
+        String expected = dump(live);
+
+        Library recovered = LibraryStore.open(dir, NO_SNAPSHOTS, new BookInventory());
+        check("after a crash", expected, dump(recovered));
+        recovered.close();
+    }
+
+    // A failed fsync (here: the caller was interrupted, which closes the log's channel) rolls the library back
+    // to its durable state and refuses further changes; reopening brings back that same state
+    @Test
+    void failedWriteRolledBack() throws IOException {
+        Library library = LibraryStore.open(dir, NO_SNAPSHOTS, new BookInventory());
+        workload(library, new Random(SEED), 300);
+        String durable = dump(library);
+
+        Thread.currentThread().interrupt();
+        try {
+            assertThrows(UncheckedIOException.class, () -> library.addBook("RS-lost", "Never Durable", "Suite"),
+                    "The failed write was reported as successful");
+        } finally {
+            Thread.interrupted();
+        }
+        check("after the rollback", durable, dump(library));
+        // Read-only until reopened
+        assertThrows(IllegalStateException.class, () -> library.addBook("RS-refused", "Refused", "Suite"),
+                "A mutation was accepted after the log failed");
+        library.close();
+        check("after reopening", durable, dump(LibraryStore.open(dir, NO_SNAPSHOTS, new BookInventory())));
+    }
+
+    // -------- Helpers -------- //
+
+    // Run a seeded mix of every mutating operation
+    private static void workload(Library library, Random random, int ops) throws IOException {
+        workload(library, random, ops, null, null);
+    }
+
+    // Same, recording the dump after each operation by the size of the given log
+    private static void workload(Library library, Random random, int ops, Map<Long, String> byLogSize, Path log)
+            throws IOException {
+        for (int i = 0; i < 40; i++) library.addBook("RS-" + i, "Recovery Title " + i % 15, "Author " + i % 7);
+        for (int i = 0; i < ops; i++) {
+            int kind = random.nextInt(20);
+            String title = "Recovery Title " + random.nextInt(18); // Some titles are not in the catalog
+            String user = "reader-" + random.nextInt(30);
+            if (kind < 6) library.borrow(user, title, random.nextInt(BorrowRequest.MAX_PRIORITY + 1));
+            else if (kind < 10) library.issue(1 + random.nextInt(3));
+            else if (kind < 13) library.recordReturn(title);
+            else if (kind < 16) library.processReturns(1 + random.nextInt(3));
+            else if (kind < 17) library.addCopies("RS-" + random.nextInt(40), 1);
+            else if (kind < 18) library.removeFromHistory(user, title);
+            else if (kind < 19) library.addBook("RS-" + (40 + i), "Recovery Title " + random.nextInt(18), "Late Author");
+            else library.deleteBook("RS-" + random.nextInt(40 + i));
+            if (byLogSize != null) byLogSize.put(Files.size(log), dump(library));
+        }
+    }
+
+    // The dump recorded when the log had the given size
+    private static String expected(Map<Long, String> byLogSize, long logSize) {
+        String dump = byLogSize.get(logSize);
+        if (dump == null) fail("No state recorded at log size " + logSize);
+        return dump;
+    }
+
+    // Run a workload, keep a copy of its log, then close (snapshot of generation 1, empty wal-1.log, wal-0 deleted)
+    private byte[] snapshotWithOldLog() throws IOException {
+        Library live = LibraryStore.open(dir, NO_SNAPSHOTS, new BookInventory());
+        workload(live, new Random(SEED), 500);
+        byte[] oldLog = Files.readAllBytes(dir.resolve("wal-0.log"));
+        live.close();
+        assertTrue(!Files.exists(dir.resolve("wal-0.log")) && Files.exists(dir.resolve("wal-1.log")),
+                "Closing did not start generation 1");
+        return oldLog;
+    }
+
+    // End positions of the records in a log
+    private static List<Long> recordEnds(Path log) throws IOException {
+        List<Long> ends = new ArrayList<>();
+        byte[] bytes = Files.readAllBytes(log);
+        long position = 0;
+        while (position + 8 <= bytes.length) {
+            int length = ((bytes[(int) position] & 0xFF) << 24) | ((bytes[(int) position + 1] & 0xFF) << 16)
+                    | ((bytes[(int) position + 2] & 0xFF) << 8) | (bytes[(int) position + 3] & 0xFF);
+            position += 8 + length;
+            ends.add(position);
+        }
+        assertTrue(ends.size() >= 4, "Too few records in " + log);
+        return ends;
+    }
+
+    // Cut a file to the given length
+    private static void truncate(Path file, long length) throws IOException {
+        byte[] bytes = Files.readAllBytes(file);
+        Files.write(file, Arrays.copyOf(bytes, (int) length));
+    }
+
+    // The state of every module as text, in a fixed order
+    private static String dump(Library library) {
+        StringBuilder text = new StringBuilder();
+        BookInventory inventory = library.inventory();
+        text.append("books ").append(inventory.size()).append('\n');
+        for (Book book : inventory) {
+            CopyCounts copies = inventory.copies(book.isbn);
+            text.append(book.isbn).append('\t').append(book.title).append('\t').append(book.author).append('\t')
+                    .append(copies.total).append('/').append(copies.reserved).append('/').append(copies.issued).append('\n');
+        }
+        text.append("queue\n");
+        for (BorrowRequest request : library.borrowQueue().snapshot()) {
+            text.append(request.user()).append('\t').append(request.title()).append('\t').append(request.enqueuedAt)
+                    .append('\t').append(request.priority).append('\n');
+        }
+        text.append("returns ").append(library.returnStack().page(0, Integer.MAX_VALUE)).append('\n');
+        text.append("histories\n");
+        UserHistory history = library.history();
+        List<String> users = history.users();
+        users.sort(null); // Map order, which depends on the map's history
+        for (String user : users) {
+            text.append(user);
+            for (HistoryEntry entry : history.entriesOldestFirst(user)) text.append('\t').append(entry.isbn()).append(':').append(entry.title()).append('@').append(entry.issuedAt);
+            text.append('\n');
+        }
+        text.append("issued\n");
+        for (int id = 0; id < SymbolTable.TITLES.size(); id++) {
+            int count = library.inventory().issuedCopies(id);
+            if (count != 0) text.append(SymbolTable.TITLES.name(id)).append('\t').append(count).append('\n');
+        }
+        text.append("waitlists\n");
+        for (int titleId : library.waitlists().titles()) {
+            text.append(SymbolTable.TITLES.name(titleId));
+            for (BorrowRequest request : library.waitlists().snapshot(titleId)) {
+                text.append('\t').append(request.user()).append('/').append(request.priority).append('@').append(request.enqueuedAt);
+            }
+            text.append('\n');
+        }
+        // At a time before every issue, the queries read the window without sliding it
+        BorrowAnalytics analytics = library.analytics();
+        text.append("analytics ").append(analytics.totalIssues(0)).append('\n');
+        for (RankedCount top : analytics.topTitles(analytics.maxK(), 0)) text.append(top).append('\n');
+        for (RankedCount top : analytics.topUsers(analytics.maxK(), 0)) text.append(top).append('\n');
+        return text.toString();
+    }
+
+    // Fail with the first differing line
+    private static void check(String what, String expected, String actual) {
+        if (expected.equals(actual)) return;
+        String[] e = expected.split("\n", -1), a = actual.split("\n", -1);
+        int line = 0;
+        while (line < Math.min(e.length, a.length) && e[line].equals(a[line])) line++;
+        fail(what + ": state differs at line " + (line + 1) + ": expected \""
+                + (line < e.length ? e[line] : "<end>") + "\" but was \"" + (line < a.length ? a[line] : "<end>") + "\"");
+    }
+}